@@ -0,0 +1,56 @@
+package scheduler;
+
+import scheduler.model.Caregiver;
+import scheduler.model.Vaccine;
+import scheduler.repository.Repositories;
+import scheduler.util.Util;
+
+import java.sql.Date;
+import java.sql.SQLException;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * The data the benchmarks run against: one vaccine with plenty of doses and 200 caregivers who
+ * are available every day of 2030, in the in-memory backend. Seeded once per forked JVM.
+ */
+final class BenchmarkData {
+
+    static final String VACCINE = "bench_vaccine";
+    static final String PATIENT = "bench_patient";
+
+    private static final int CAREGIVERS = 200;
+    private static final int DAYS = 365;
+    private static final LocalDate FIRST_DAY = LocalDate.of(2030, 1, 1);
+
+    private static boolean seeded;
+
+    private BenchmarkData() {
+    }
+
+    static synchronized void seed() throws SQLException {
+        if (seeded) {
+            return;
+        }
+        Repositories.useInMemory();
+        new Vaccine.VaccineBuilder(VACCINE, Integer.MAX_VALUE / 2).build().saveToDB();
+        List<Date> days = new ArrayList<>();
+        for (int d = 0; d < DAYS; d++) {
+            days.add(Date.valueOf(FIRST_DAY.plusDays(d)));
+        }
+        for (int c = 0; c < CAREGIVERS; c++) {
+            new Caregiver.CaregiverBuilder(caregiver(c), Util.generateSalt(), new byte[0]).build()
+                    .uploadAvailabilities(days);
+        }
+        seeded = true;
+    }
+
+    static String caregiver(int c) {
+        return "bench_c" + c;
+    }
+
+    static String day(int i) {
+        return FIRST_DAY.plusDays(Math.floorMod(i, DAYS)).toString();
+    }
+}
@@ -0,0 +1,94 @@
+package scheduler;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import scheduler.model.Patient;
+import scheduler.util.Util;
+
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Logins per second with a number of clients logging in at once. Every login looks the patient
+ * up and verifies the password hash on the hashing executor, which has one thread per core, so
+ * the score should grow with the clients up to the number of cores and stay flat after that.
+ *
+ * Run with: gradle :benchmarks:jmh -Pjmh="LoginBenchmark"
+ * To measure fewer cores on the same machine, add e.g. -jvmArgsAppend -XX:ActiveProcessorCount=2.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 3)
+@Measurement(iterations = 5, time = 3)
+@Fork(1)
+@State(Scope.Benchmark)
+public class LoginBenchmark {
+
+    private static final int LOGINS = 64;
+    private static final String PASSWORD = "Passw0rd!";
+
+    @Param({"1", "2", "4", "8", "16"})
+    public int threads;
+
+    private ExecutorService clients;
+    private List<Callable<Boolean>> logins;
+
+    @Setup(Level.Trial)
+    public void setUp() throws SQLException {
+        BenchmarkData.seed();
+        PrintStream discard = new PrintStream(OutputStream.nullOutputStream());
+        logins = new ArrayList<>();
+        for (int i = 0; i < LOGINS; i++) {
+            String username = "bench_login" + i;
+            byte[] salt = Util.generateSalt();
+            new Patient.PatientBuilder(username, salt, Util.generateHash(PASSWORD, salt)).build().saveToDB();
+            String command = "login_patient " + username + " " + PASSWORD;
+            logins.add(() -> {
+                Session session = new Session(discard);
+                Scheduler.execute(command, session);
+                return session.getCurrentPatient() != null;
+            });
+        }
+        clients = Executors.newFixedThreadPool(threads);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        clients.shutdownNow();
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(LOGINS)
+    public int login() throws Exception {
+        int failed = 0;
+        for (Future<Boolean> login : clients.invokeAll(logins)) {
+            if (!login.get()) {
+                failed++;
+            }
+        }
+        if (failed > 0) {
+            throw new IllegalStateException(failed + " of " + LOGINS + " logins failed");
+        }
+        return LOGINS;
+    }
+}
@@ -0,0 +1,94 @@
+package scheduler;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import scheduler.model.Appointment;
+import scheduler.model.Caregiver;
+import scheduler.model.Patient;
+import scheduler.util.Util;
+
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.sql.Date;
+import java.sql.SQLException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Microbenchmarks for the scheduler hot paths, run against the in-memory storage backend so they
+ * measure the application rather than the network.
+ *
+ * Run with: gradle :benchmarks:jmh [-Pjmh="SchedulerBenchmarks"]
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(2)
+@State(Scope.Thread)
+public class SchedulerBenchmarks {
+
+    private Session patient;
+    private Session caregiver;
+    private Session anonymous;
+    private byte[] salt;
+    private int i;
+
+    @Setup
+    public void setUp() throws SQLException {
+        BenchmarkData.seed();
+        PrintStream discard = new PrintStream(OutputStream.nullOutputStream());
+        patient = new Session(discard);
+        patient.setCurrentPatient(new Patient.PatientBuilder(BenchmarkData.PATIENT, Util.generateSalt(),
+                new byte[0]).build());
+        caregiver = new Session(discard);
+        caregiver.setCurrentCaregiver(new Caregiver.CaregiverBuilder(BenchmarkData.caregiver(0),
+                Util.generateSalt(), new byte[0]).build());
+        anonymous = new Session(discard);
+        salt = Util.generateSalt();
+    }
+
+    @Benchmark
+    public byte[] generateHash() {
+        return Util.generateHash("Passw0rd!", salt);
+    }
+
+    @Benchmark
+    public boolean checkStrongPw() {
+        return Scheduler.checkStrongPw(i++ % 2 == 0 ? "Passw0rd!" : "weakpassword");
+    }
+
+    @Benchmark
+    public boolean executeParse() {
+        return Scheduler.execute("unknown_command a b c", anonymous);
+    }
+
+    @Benchmark
+    public boolean searchCaregiverSchedule() {
+        return Scheduler.execute("search_caregiver_schedule " + BenchmarkData.day(i++), patient);
+    }
+
+    @Benchmark
+    public boolean showAppointments() {
+        return Scheduler.execute("show_appointments --limit 20", caregiver);
+    }
+
+    // cancels each booking again so the run measures a steady state instead of running out of slots
+    @Benchmark
+    public int reserveAndCancel() throws SQLException {
+        Appointment appointment = new Appointment.AppointmentReserver(Date.valueOf(BenchmarkData.day(i++)),
+                BenchmarkData.PATIENT, BenchmarkData.VACCINE).reserve();
+        if (appointment == null) {
+            throw new IllegalStateException("No slot left to reserve on " + BenchmarkData.day(i - 1));
+        }
+        new Appointment.AppointmentCanceller(appointment.getAptId(), BenchmarkData.PATIENT).cancel();
+        return appointment.getAptId();
+    }
+}
@@ -0,0 +1,71 @@
+-- Benchmark for migrations/V2__availabilities_indexes.sql.
+-- Run against a scratch database created from create.sql: it seeds @caregivers caregivers with
+-- @days days of availability each (2M rows by default, about a quarter of them booked), then
+-- times the hot queries before and after applying V2. Compare the STATISTICS IO/TIME output and
+-- the actual execution plans (enable "Include Actual Execution Plan" or SET STATISTICS XML ON).
+
+SET NOCOUNT ON;
+
+DECLARE @caregivers int = 2000;
+DECLARE @days int = 1000;
+
+INSERT INTO Vaccines (Name, Doses) VALUES ('bench_vaccine', 1000000);
+
+WITH n AS (
+    SELECT TOP (@caregivers) ROW_NUMBER() OVER (ORDER BY (SELECT NULL)) AS i
+    FROM sys.all_objects a CROSS JOIN sys.all_objects b
+)
+INSERT INTO Caregivers (Username, Salt, Hash)
+SELECT 'bench_c' + CAST(i AS varchar(10)), 0x00, 0x00 FROM n;
+
+WITH n AS (
+    SELECT TOP (@caregivers) ROW_NUMBER() OVER (ORDER BY (SELECT NULL)) AS i
+    FROM sys.all_objects a CROSS JOIN sys.all_objects b
+)
+INSERT INTO Patients (Username, Salt, Hash)
+SELECT 'bench_p' + CAST(i AS varchar(10)), 0x00, 0x00 FROM n;
+
+WITH c AS (
+    SELECT TOP (@caregivers) ROW_NUMBER() OVER (ORDER BY (SELECT NULL)) AS i
+    FROM sys.all_objects a CROSS JOIN sys.all_objects b
+), d AS (
+    SELECT TOP (@days) ROW_NUMBER() OVER (ORDER BY (SELECT NULL)) - 1 AS j
+    FROM sys.all_objects a CROSS JOIN sys.all_objects b
+)
+INSERT INTO Availabilities (Time, cUsername, pUsername, vName)
+SELECT DATEADD(day, d.j, '2022-01-01'),
+       'bench_c' + CAST(c.i AS varchar(10)),
+       CASE WHEN (c.i + d.j) % 4 = 0 THEN 'bench_p' + CAST(c.i AS varchar(10)) END,
+       CASE WHEN (c.i + d.j) % 4 = 0 THEN 'bench_vaccine' END
+FROM c CROSS JOIN d;
+GO
+
+CREATE PROCEDURE #RunHotQueries AS
+BEGIN
+    SET NOCOUNT ON;
+    DBCC DROPCLEANBUFFERS;
+    SET STATISTICS IO ON;
+    SET STATISTICS TIME ON;
+
+    SELECT cUsername FROM Availabilities
+    WHERE Time = '2023-06-01' AND vName IS NULL AND pUsername IS NULL ORDER BY cUsername;
+
+    SELECT aptId, vName, Time, pUsername FROM Availabilities
+    WHERE cUsername = 'bench_c42' ORDER BY aptId;
+
+    SELECT aptId, vName, Time, cUsername FROM Availabilities
+    WHERE pUsername = 'bench_p42' ORDER BY aptId;
+
+    SET STATISTICS TIME OFF;
+    SET STATISTICS IO OFF;
+END
+GO
+
+PRINT '--- before V2 ---';
+EXEC #RunHotQueries;
+GO
+
+-- apply migrations/V2__availabilities_indexes.sql here, then:
+PRINT '--- after V2 ---';
+EXEC #RunHotQueries;
+GO
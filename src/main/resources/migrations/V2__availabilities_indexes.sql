@@ -0,0 +1,60 @@
+-- V2: indexes and constraints for the Availabilities hot queries.
+-- V1 is the baseline schema in create.sql. Apply migrations in version order, each exactly once;
+-- applied versions are recorded in SchemaVersion.
+
+-- a failing statement rolls its migration back and leaves the version unrecorded, here and in every
+-- later migration, so a half-applied schema is never recorded as applied
+SET XACT_ABORT ON;
+
+IF OBJECT_ID('SchemaVersion') IS NULL
+    CREATE TABLE SchemaVersion (
+        Version int,
+        Description varchar(255),
+        AppliedOn datetime2 DEFAULT SYSUTCDATETIME(),
+        PRIMARY KEY (Version)
+    );
+
+IF NOT EXISTS (SELECT 1 FROM SchemaVersion WHERE Version = 1)
+    INSERT INTO SchemaVersion (Version, Description) VALUES (1, 'baseline (create.sql)');
+GO
+
+IF NOT EXISTS (SELECT 1 FROM SchemaVersion WHERE Version = 2)
+BEGIN
+    BEGIN TRANSACTION;
+
+    -- two patients booked with the same caregiver on the same date cannot be merged here,
+    -- one of them has to be cancelled and rebooked before V2 can be applied
+    IF EXISTS (SELECT 1 FROM Availabilities WHERE pUsername IS NOT NULL
+               GROUP BY Time, cUsername HAVING COUNT(*) > 1)
+        THROW 50000, 'V2 not applied: some caregivers are booked twice on the same date. List them with SELECT Time, cUsername FROM Availabilities WHERE pUsername IS NOT NULL GROUP BY Time, cUsername HAVING COUNT(*) > 1, cancel the extra appointments and apply V2 again.', 1;
+
+    -- duplicate uploads have to go before the unique constraint can be added,
+    -- keep the booked row (or the oldest one) for each caregiver and date
+    WITH ranked AS (
+        SELECT aptId, ROW_NUMBER() OVER (
+                PARTITION BY Time, cUsername
+                ORDER BY CASE WHEN pUsername IS NULL THEN 1 ELSE 0 END, aptId) AS rn
+        FROM Availabilities
+    )
+    DELETE a FROM Availabilities a JOIN ranked r ON a.aptId = r.aptId
+    WHERE r.rn > 1 AND a.pUsername IS NULL;
+
+    -- a caregiver can only offer one slot per date
+    ALTER TABLE Availabilities ADD CONSTRAINT UQ_Availabilities_Time_cUsername UNIQUE (Time, cUsername);
+
+    -- search_caregiver_schedule and reserve: open slots on a date, ordered by caregiver
+    CREATE INDEX IX_Availabilities_Open_Time_cUsername ON Availabilities (Time, cUsername)
+        INCLUDE (vName)
+        WHERE pUsername IS NULL;
+
+    -- show_appointments for patients and caregivers
+    CREATE INDEX IX_Availabilities_pUsername ON Availabilities (pUsername)
+        INCLUDE (Time, cUsername, vName);
+    CREATE INDEX IX_Availabilities_cUsername ON Availabilities (cUsername)
+        INCLUDE (Time, pUsername, vName);
+
+    INSERT INTO SchemaVersion (Version, Description) VALUES (2, 'Availabilities indexes');
+
+    COMMIT TRANSACTION;
+END
+GO
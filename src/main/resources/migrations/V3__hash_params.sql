@@ -0,0 +1,25 @@
+-- V3: per-user password hash parameters.
+-- Salt and Hash become VARBINARY so hashes are stored exactly as generated instead of zero padded,
+-- and HashParams records the algorithm and cost each hash was generated with
+-- ("algorithm:iterations:keyLengthBits"). Existing rows keep a NULL HashParams, which the
+-- application reads as the legacy PBKDF2WithHmacSHA1:10:16 and upgrades on the next login.
+
+SET XACT_ABORT ON;
+
+IF NOT EXISTS (SELECT 1 FROM SchemaVersion WHERE Version = 3)
+BEGIN
+    BEGIN TRANSACTION;
+
+    ALTER TABLE Caregivers ALTER COLUMN Salt VARBINARY(32);
+    ALTER TABLE Caregivers ALTER COLUMN Hash VARBINARY(64);
+    ALTER TABLE Caregivers ADD HashParams varchar(64) NULL;
+
+    ALTER TABLE Patients ALTER COLUMN Salt VARBINARY(32);
+    ALTER TABLE Patients ALTER COLUMN Hash VARBINARY(64);
+    ALTER TABLE Patients ADD HashParams varchar(64) NULL;
+
+    INSERT INTO SchemaVersion (Version, Description) VALUES (3, 'per-user hash parameters');
+
+    COMMIT TRANSACTION;
+END
+GO
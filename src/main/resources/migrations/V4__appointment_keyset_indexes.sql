@@ -0,0 +1,21 @@
+-- V4: key the show_appointments indexes on (user, Time) so keyset pages ordered by (Time, aptId)
+-- are read as a range seek. aptId is the clustering key, so it is part of every index key already.
+
+SET XACT_ABORT ON;
+
+IF NOT EXISTS (SELECT 1 FROM SchemaVersion WHERE Version = 4)
+BEGIN
+    BEGIN TRANSACTION;
+
+    CREATE INDEX IX_Availabilities_pUsername ON Availabilities (pUsername, Time)
+        INCLUDE (cUsername, vName)
+        WITH (DROP_EXISTING = ON);
+    CREATE INDEX IX_Availabilities_cUsername ON Availabilities (cUsername, Time)
+        INCLUDE (pUsername, vName)
+        WITH (DROP_EXISTING = ON);
+
+    INSERT INTO SchemaVersion (Version, Description) VALUES (4, 'show_appointments keyset indexes');
+
+    COMMIT TRANSACTION;
+END
+GO
@@ -0,0 +1,29 @@
+-- V5: a first come first served waitlist for fully booked dates.
+-- Patients queue for a date with the vaccine they want; when a caregiver uploads availability or
+-- an appointment is cancelled on that date, the longest waiting patients are booked into the
+-- freed slots. Id is an identity, so it orders the queue.
+
+SET XACT_ABORT ON;
+
+IF NOT EXISTS (SELECT 1 FROM SchemaVersion WHERE Version = 5)
+BEGIN
+    BEGIN TRANSACTION;
+
+    CREATE TABLE Waitlist (
+        Id int IDENTITY(1,1),
+        Time date NOT NULL,
+        pUsername varchar(255) NOT NULL REFERENCES Patients,
+        vName varchar(255) NOT NULL REFERENCES Vaccines,
+        QueuedAt datetime2 NOT NULL DEFAULT SYSUTCDATETIME(),
+        PRIMARY KEY (Id),
+        CONSTRAINT UQ_Waitlist_Time_pUsername UNIQUE (Time, pUsername)
+    );
+
+    -- the head of the queue for a date is a range seek
+    CREATE INDEX IX_Waitlist_Time ON Waitlist (Time, Id) INCLUDE (pUsername, vName);
+
+    INSERT INTO SchemaVersion (Version, Description) VALUES (5, 'waitlist');
+
+    COMMIT TRANSACTION;
+END
+GO
@@ -0,0 +1,24 @@
+-- V6: a heartbeat row for measuring read replica lag.
+-- ConnectionManager stamps BeatAtMillis on the primary every second while replicas are configured
+-- and reads it back from each replica; a replica is as far behind as its copy of the stamp is old.
+-- Run it on the primary only, the replicas receive it through replication.
+
+SET XACT_ABORT ON;
+
+IF NOT EXISTS (SELECT 1 FROM SchemaVersion WHERE Version = 6)
+BEGIN
+    BEGIN TRANSACTION;
+
+    CREATE TABLE ReplicationHeartbeat (
+        Id int NOT NULL CHECK (Id = 1),
+        BeatAtMillis bigint NOT NULL,
+        PRIMARY KEY (Id)
+    );
+
+    INSERT INTO ReplicationHeartbeat (Id, BeatAtMillis) VALUES (1, 0);
+
+    INSERT INTO SchemaVersion (Version, Description) VALUES (6, 'replication heartbeat');
+
+    COMMIT TRANSACTION;
+END
+GO
@@ -0,0 +1,32 @@
+-- V7: history table for past availabilities.
+-- The archiver moves slots older than its horizon out of Availabilities with DELETE ... OUTPUT INTO,
+-- so the hot table only holds current dates. OUTPUT INTO cannot target a table with foreign keys,
+-- so AvailabilitiesHistory has none; its rows were validated when they were in Availabilities.
+
+SET XACT_ABORT ON;
+
+IF NOT EXISTS (SELECT 1 FROM SchemaVersion WHERE Version = 7)
+BEGIN
+    BEGIN TRANSACTION;
+
+    CREATE TABLE AvailabilitiesHistory (
+        aptId int NOT NULL,
+        Time date NOT NULL,
+        cUsername varchar(255) NOT NULL,
+        pUsername varchar(255),
+        vName varchar(255),
+        ArchivedAt datetime2 NOT NULL DEFAULT SYSUTCDATETIME(),
+        PRIMARY KEY (aptId)
+    );
+
+    -- show_appointments --history, keyed like the Availabilities indexes from V4
+    CREATE INDEX IX_AvailabilitiesHistory_pUsername ON AvailabilitiesHistory (pUsername, Time)
+        INCLUDE (cUsername, vName);
+    CREATE INDEX IX_AvailabilitiesHistory_cUsername ON AvailabilitiesHistory (cUsername, Time)
+        INCLUDE (pUsername, vName);
+
+    INSERT INTO SchemaVersion (Version, Description) VALUES (7, 'availabilities history');
+
+    COMMIT TRANSACTION;
+END
+GO
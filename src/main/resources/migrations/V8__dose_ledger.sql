@@ -0,0 +1,47 @@
+-- V8: an append-only dose ledger and striped stock.
+-- Every change to a vaccine's stock is recorded as a delta in DoseEvents, in the same transaction
+-- as the change. The stock itself is split over VaccineStock rows, one per stripe, so concurrent
+-- reservations and deliveries of the same vaccine update different rows instead of queueing on
+-- its Vaccines row. The scheduler periodically compacts the stripes, writing their total to
+-- Vaccines.Doses and spreading the doses evenly over the stripes again.
+
+SET XACT_ABORT ON;
+
+IF NOT EXISTS (SELECT 1 FROM SchemaVersion WHERE Version = 8)
+BEGIN
+    BEGIN TRANSACTION;
+
+    CREATE TABLE VaccineStock (
+        vName varchar(255) NOT NULL REFERENCES Vaccines,
+        Stripe int NOT NULL,
+        Doses int NOT NULL CHECK (Doses >= 0),
+        PRIMARY KEY (vName, Stripe)
+    );
+
+    CREATE TABLE DoseEvents (
+        Id bigint IDENTITY(1,1),
+        vName varchar(255) NOT NULL REFERENCES Vaccines,
+        Delta int NOT NULL,
+        Reason varchar(16) NOT NULL,
+        aptId int,
+        CreatedAt datetime2 NOT NULL DEFAULT SYSUTCDATETIME(),
+        PRIMARY KEY (Id)
+    );
+
+    -- the history of one vaccine is a range seek
+    CREATE INDEX IX_DoseEvents_vName ON DoseEvents (vName, Id) INCLUDE (Delta, Reason, aptId);
+
+    -- eight stripes per vaccine, matching JdbcVaccineRepository.STRIPES, with the current doses
+    -- spread over them and recorded as the opening balance of the ledger
+    INSERT INTO VaccineStock (vName, Stripe, Doses)
+    SELECT v.Name, s.Stripe, ISNULL(v.Doses, 0) / 8 + CASE WHEN s.Stripe < ISNULL(v.Doses, 0) % 8 THEN 1 ELSE 0 END
+    FROM Vaccines v CROSS JOIN (VALUES (0), (1), (2), (3), (4), (5), (6), (7)) AS s (Stripe);
+
+    INSERT INTO DoseEvents (vName, Delta, Reason)
+    SELECT Name, ISNULL(Doses, 0), 'opening' FROM Vaccines;
+
+    INSERT INTO SchemaVersion (Version, Description) VALUES (8, 'dose ledger');
+
+    COMMIT TRANSACTION;
+END
+GO
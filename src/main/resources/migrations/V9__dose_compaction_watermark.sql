@@ -0,0 +1,17 @@
+-- V9: the last ledger entry each vaccine was compacted up to.
+-- The compactor only rewrites the stripes of a vaccine whose DoseEvents have grown past its
+-- CompactedEventId, so an idle vaccine is not locked or rewritten.
+
+SET XACT_ABORT ON;
+
+IF NOT EXISTS (SELECT 1 FROM SchemaVersion WHERE Version = 9)
+BEGIN
+    BEGIN TRANSACTION;
+
+    ALTER TABLE Vaccines ADD CompactedEventId bigint NULL;
+
+    INSERT INTO SchemaVersion (Version, Description) VALUES (9, 'dose compaction watermark');
+
+    COMMIT TRANSACTION;
+END
+GO
@@ -0,0 +1,307 @@
+package scheduler;
+
+import scheduler.model.Appointment;
+import scheduler.repository.Repositories;
+import scheduler.util.ConfinedDirectory;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.LinkOption;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.sql.Date;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Writes the slots of the Availabilities table between two dates to a file for the export
+ * command, open slots as well as booked appointments, in aptId order.
+ *
+ * Rows are streamed from the database and encoded into one reusable direct buffer that is
+ * written through a FileChannel whenever it fills up, so memory use does not depend on the
+ * number of rows. An export can start after a given aptId, and reports the last aptId it
+ * wrote, so that a scheduled job only exports the slots uploaded since its previous run.
+ *
+ * The csv format has a header line and one aptId,Time,cUsername,pUsername,vName line per slot,
+ * with empty fields for an open slot. The columnar format is big-endian binary:
+ *
+ * <pre>
+ *     "SCHEDCOL" int version
+ *     blocks of up to BLOCK_ROWS rows, each:
+ *         int rows                                   0 ends the file
+ *         int entries, then per entry:               dictionary entries first used in this block
+ *             byte column (0 cUsername, 1 vName), int id, int length, UTF-8 bytes
+ *         int aptId[rows]
+ *         int epochDay[rows]                         Time
+ *         int cUsernameId[rows]
+ *         per row: int length (-1 if null), UTF-8 bytes      pUsername
+ *         int vNameId[rows]                          -1 if null
+ * </pre>
+ *
+ * cUsername and vName have few distinct values, so they are dictionary encoded with ids that
+ * stay valid for the rest of the file; pUsername is not, since its dictionary would grow with
+ * every patient.
+ *
+ * The export command writes to ExportDirectory (default "exports" in the working directory), with
+ * file names relative to it.
+ */
+public class AvailabilityExporter {
+
+    public static final ConfinedDirectory EXPORT_DIRECTORY = ConfinedDirectory.fromEnv("ExportDirectory", "exports");
+
+    public enum Format {
+        CSV, COLUMNAR
+    }
+
+    private static final int BUFFER_SIZE = 1 << 20;
+    private static final int BLOCK_ROWS = 8192;
+    // the most one csv row can take: five fields of up to 255 characters, each quoted and escaped
+    private static final int MAX_CSV_ROW_BYTES = 5 * (2 + 2 * 255 * 3) + 8;
+    private static final byte[] MAGIC = "SCHEDCOL".getBytes(StandardCharsets.US_ASCII);
+    private static final int VERSION = 1;
+    private static final byte C_USERNAME = 0;
+    private static final byte V_NAME = 1;
+
+    private final Format format;
+    private final ByteBuffer buffer = ByteBuffer.allocateDirect(BUFFER_SIZE);
+    private FileChannel channel;
+    private long rows = 0;
+    private int lastAptId;
+
+    // columnar block, reused for every block
+    private final int[] aptIds = new int[BLOCK_ROWS];
+    private final int[] epochDays = new int[BLOCK_ROWS];
+    private final int[] caregiverIds = new int[BLOCK_ROWS];
+    private final String[] patients = new String[BLOCK_ROWS];
+    private final int[] vaccineIds = new int[BLOCK_ROWS];
+    private int blockRows = 0;
+    private final Map<String, Integer> caregiverDictionary = new HashMap<>();
+    private final Map<String, Integer> vaccineDictionary = new HashMap<>();
+    private final List<DictionaryEntry> newEntries = new ArrayList<>();
+
+    private static class DictionaryEntry {
+        private final byte column;
+        private final int id;
+        private final String value;
+
+        DictionaryEntry(byte column, int id, String value) {
+            this.column = column;
+            this.id = id;
+            this.value = value;
+        }
+    }
+
+    public AvailabilityExporter(Format format) {
+        this.format = format;
+    }
+
+    // Returns the format named by an export option, e.g. "csv", or null if there is none
+    public static Format parseFormat(String name) {
+        for (Format format : Format.values()) {
+            if (format.name().equalsIgnoreCase(name)) {
+                return format;
+            }
+        }
+        return null;
+    }
+
+    public long getRows() {
+        return rows;
+    }
+
+    // The aptId of the last row written, or the starting aptId if there was none
+    public int getLastAptId() {
+        return lastAptId;
+    }
+
+    /**
+     * Exports the slots between two dates whose aptId is above afterAptId, replacing the file.
+     */
+    public void run(Date from, Date to, int afterAptId, Path file) throws IOException, SQLException {
+        lastAptId = afterAptId;
+        rows = 0;
+        blockRows = 0;
+        caregiverDictionary.clear();
+        vaccineDictionary.clear();
+        newEntries.clear();
+        try (FileChannel out = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING, LinkOption.NOFOLLOW_LINKS)) {
+            channel = out;
+            buffer.clear();
+            writeHeader();
+            try {
+                Repositories.availabilities().forEachSlot(from, to, afterAptId, this::write);
+            } catch (UncheckedIOException e) {
+                throw e.getCause();
+            }
+            if (format == Format.COLUMNAR) {
+                writeBlock();
+                ensure(Integer.BYTES);
+                buffer.putInt(0);
+            }
+            flush();
+        } finally {
+            channel = null;
+        }
+    }
+
+    private void writeHeader() throws IOException {
+        if (format == Format.CSV) {
+            putAscii("aptId,Time,cUsername,pUsername,vName\n");
+        } else {
+            buffer.put(MAGIC);
+            buffer.putInt(VERSION);
+        }
+    }
+
+    private void write(Appointment slot) {
+        try {
+            if (format == Format.CSV) {
+                writeCsv(slot);
+            } else {
+                addToBlock(slot);
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        rows++;
+        lastAptId = slot.getAptId();
+    }
+
+    private void writeCsv(Appointment slot) throws IOException {
+        ensure(MAX_CSV_ROW_BYTES);
+        putAscii(Integer.toString(slot.getAptId()));
+        buffer.put((byte) ',');
+        putAscii(slot.getTime().toString());
+        buffer.put((byte) ',');
+        putCsvField(slot.getCaregiverUsername());
+        buffer.put((byte) ',');
+        putCsvField(slot.getPatientUsername());
+        buffer.put((byte) ',');
+        putCsvField(slot.getVaccineName());
+        buffer.put((byte) '\n');
+    }
+
+    private void addToBlock(Appointment slot) throws IOException {
+        int i = blockRows++;
+        aptIds[i] = slot.getAptId();
+        epochDays[i] = (int) slot.getTime().toLocalDate().toEpochDay();
+        caregiverIds[i] = dictionaryId(caregiverDictionary, C_USERNAME, slot.getCaregiverUsername());
+        patients[i] = slot.getPatientUsername();
+        vaccineIds[i] = dictionaryId(vaccineDictionary, V_NAME, slot.getVaccineName());
+        if (blockRows == BLOCK_ROWS) {
+            writeBlock();
+        }
+    }
+
+    private int dictionaryId(Map<String, Integer> dictionary, byte column, String value) {
+        if (value == null) {
+            return -1;
+        }
+        Integer id = dictionary.get(value);
+        if (id == null) {
+            id = dictionary.size();
+            dictionary.put(value, id);
+            newEntries.add(new DictionaryEntry(column, id, value));
+        }
+        return id;
+    }
+
+    private void writeBlock() throws IOException {
+        if (blockRows == 0) {
+            return;
+        }
+        ensure(2 * Integer.BYTES);
+        buffer.putInt(blockRows);
+        buffer.putInt(newEntries.size());
+        for (DictionaryEntry entry : newEntries) {
+            byte[] bytes = entry.value.getBytes(StandardCharsets.UTF_8);
+            ensure(1 + 2 * Integer.BYTES + bytes.length);
+            buffer.put(entry.column);
+            buffer.putInt(entry.id);
+            buffer.putInt(bytes.length);
+            buffer.put(bytes);
+        }
+        newEntries.clear();
+        putInts(aptIds);
+        putInts(epochDays);
+        putInts(caregiverIds);
+        for (int i = 0; i < blockRows; i++) {
+            if (patients[i] == null) {
+                ensure(Integer.BYTES);
+                buffer.putInt(-1);
+            } else {
+                byte[] bytes = patients[i].getBytes(StandardCharsets.UTF_8);
+                ensure(Integer.BYTES + bytes.length);
+                buffer.putInt(bytes.length);
+                buffer.put(bytes);
+                patients[i] = null;
+            }
+        }
+        putInts(vaccineIds);
+        blockRows = 0;
+    }
+
+    private void putInts(int[] column) throws IOException {
+        for (int i = 0; i < blockRows; i++) {
+            ensure(Integer.BYTES);
+            buffer.putInt(column[i]);
+        }
+    }
+
+    // null is an empty field; a value with a separator, quote or line break is quoted
+    private void putCsvField(String value) {
+        if (value == null) {
+            return;
+        }
+        boolean quote = false;
+        for (int i = 0; i < value.length() && !quote; i++) {
+            char c = value.charAt(i);
+            quote = c == ',' || c == '"' || c == '\n' || c == '\r';
+        }
+        if (!quote) {
+            putUtf8(value);
+            return;
+        }
+        buffer.put((byte) '"');
+        putUtf8(value.replace("\"", "\"\""));
+        buffer.put((byte) '"');
+    }
+
+    private void putUtf8(String value) {
+        for (int i = 0; i < value.length(); i++) {
+            if (value.charAt(i) >= 0x80) {
+                buffer.put(value.getBytes(StandardCharsets.UTF_8));
+                return;
+            }
+        }
+        putAscii(value);
+    }
+
+    private void putAscii(String value) {
+        for (int i = 0; i < value.length(); i++) {
+            buffer.put((byte) value.charAt(i));
+        }
+    }
+
+    // makes room for the given number of bytes, writing out what is buffered if needed
+    private void ensure(int bytes) throws IOException {
+        if (buffer.remaining() < bytes) {
+            flush();
+        }
+    }
+
+    private void flush() throws IOException {
+        buffer.flip();
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+        buffer.clear();
+    }
+}
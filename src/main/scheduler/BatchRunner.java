@@ -0,0 +1,190 @@
+package scheduler;
+
+import scheduler.metrics.Timer;
+
+import java.io.BufferedOutputStream;
+import java.io.BufferedReader;
+import java.io.ByteArrayOutputStream;
+import java.io.FileOutputStream;
+import java.io.FileDescriptor;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Runs a file of scheduler commands through the same handlers as the interactive shell, without
+ * prompts, and prints throughput and per-command latency once the file is done.
+ *
+ * The file has one command per line; lines starting with # are comments. A blank line ends a
+ * script: every script runs in a fresh session, so each one normally starts with a login or
+ * create command. Scripts are independent of each other, which is what lets --parallel N run N
+ * of them at once. Commands within a script always run in order.
+ *
+ * Usage: scheduler --batch commands.txt [--parallel N]
+ */
+public class BatchRunner {
+
+    private static final int BUFFER_SIZE = 1 << 16;
+
+    private final int parallelism;
+    private final PrintStream stdout = new PrintStream(
+            new BufferedOutputStream(new FileOutputStream(FileDescriptor.out), BUFFER_SIZE), false,
+            StandardCharsets.UTF_8);
+
+    // latency of this run only, the process-wide command timers live in MetricsRegistry
+    private final ConcurrentHashMap<String, Timer> stats = new ConcurrentHashMap<>();
+    private final AtomicLong commands = new AtomicLong();
+    private final AtomicLong failures = new AtomicLong();
+
+    public BatchRunner(int parallelism) {
+        this.parallelism = Math.max(1, parallelism);
+    }
+
+    public void run(Path file) throws IOException, InterruptedException {
+        long start = System.nanoTime();
+        try (BufferedReader in = new BufferedReader(
+                new InputStreamReader(Files.newInputStream(file), StandardCharsets.UTF_8), BUFFER_SIZE)) {
+            if (parallelism == 1) {
+                runSequential(in);
+            } else {
+                runParallel(in);
+            }
+        }
+        printSummary(System.nanoTime() - start);
+        stdout.flush();
+    }
+
+    public long getCommands() {
+        return commands.get();
+    }
+
+    public long getFailures() {
+        return failures.get();
+    }
+
+    // commands run as they are read, so the file is never held in memory
+    private void runSequential(BufferedReader in) throws IOException {
+        Session session = new Session(stdout);
+        boolean open = true;
+        String line;
+        while ((line = in.readLine()) != null) {
+            line = line.trim();
+            if (line.isEmpty()) {
+                session = new Session(stdout);
+                open = true;
+            } else if (open && !line.startsWith("#")) {
+                open = runCommand(line, session);
+            }
+        }
+    }
+
+    private void runParallel(BufferedReader in) throws IOException, InterruptedException {
+        ExecutorService workers = Executors.newFixedThreadPool(parallelism, r -> {
+            Thread t = new Thread(r, "scheduler-batch");
+            t.setDaemon(true);
+            return t;
+        });
+        // bounds how many scripts are read ahead of the workers
+        Semaphore queued = new Semaphore(parallelism * 2);
+        try {
+            List<String> script = new ArrayList<>();
+            String line;
+            while ((line = in.readLine()) != null) {
+                line = line.trim();
+                if (line.isEmpty()) {
+                    submit(workers, queued, script);
+                    script = new ArrayList<>();
+                } else if (!line.startsWith("#")) {
+                    script.add(line);
+                }
+            }
+            submit(workers, queued, script);
+        } finally {
+            workers.shutdown();
+            workers.awaitTermination(Long.MAX_VALUE, TimeUnit.NANOSECONDS);
+        }
+    }
+
+    private void submit(ExecutorService workers, Semaphore queued, List<String> script) throws InterruptedException {
+        if (script.isEmpty()) {
+            return;
+        }
+        queued.acquire();
+        workers.execute(() -> {
+            try {
+                runScript(script);
+            } finally {
+                queued.release();
+            }
+        });
+    }
+
+    // the output of a script is written in one piece so that concurrent scripts do not interleave
+    private void runScript(List<String> script) {
+        ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+        Session session = new Session(new PrintStream(buffer, false, StandardCharsets.UTF_8));
+        for (String command : script) {
+            if (!runCommand(command, session)) {
+                break;
+            }
+        }
+        session.getOut().flush();
+        synchronized (stdout) {
+            stdout.write(buffer.toByteArray(), 0, buffer.size());
+        }
+    }
+
+    private boolean runCommand(String command, Session session) {
+        int end = command.indexOf(' ');
+        String type = end < 0 ? command : command.substring(0, end);
+        boolean open = true;
+        boolean failed;
+        long start = System.nanoTime();
+        try {
+            open = Scheduler.execute(command, session);
+            failed = session.lastCommandFailed();
+        } catch (RuntimeException e) {
+            session.getOut().println("Command failed: " + e);
+            failed = true;
+        }
+        long elapsed = System.nanoTime() - start;
+
+        Timer timer = stats.computeIfAbsent(type, t -> new Timer());
+        commands.incrementAndGet();
+        if (failed) {
+            timer.recordError(elapsed);
+            failures.incrementAndGet();
+        } else {
+            timer.record(elapsed);
+        }
+        return open;
+    }
+
+    private void printSummary(long elapsedNanos) {
+        double seconds = elapsedNanos / 1e9;
+        synchronized (stdout) {
+            stdout.println();
+            stdout.println(String.format("Batch finished: %d commands in %.3f s (%.1f commands/s), %d failed",
+                    getCommands(), seconds, seconds == 0 ? 0 : getCommands() / seconds, getFailures()));
+            stdout.println(String.format("%-28s %10s %10s %10s %10s", "command", "count", "failed", "p50 ms", "p99 ms"));
+            for (Map.Entry<String, Timer> e : new TreeMap<>(stats).entrySet()) {
+                Timer timer = e.getValue();
+                stdout.println(String.format("%-28s %10d %10d %10.3f %10.3f", e.getKey(), timer.getCount(),
+                        timer.getErrors(), timer.getP50Millis(), timer.getP99Millis()));
+            }
+        }
+    }
+}
@@ -0,0 +1,279 @@
+package scheduler;
+
+import scheduler.model.Caregiver;
+import scheduler.model.Patient;
+import scheduler.model.Vaccine;
+import scheduler.util.ConfinedDirectory;
+import scheduler.util.Util;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Loads patients, caregivers or vaccines from a CSV file for the import command.
+ *
+ * The file is read in chunks of CHUNK_SIZE rows and only two chunks are held at a time: while one
+ * chunk is inserted as a single batch, the passwords of the next one are hashed on every core of
+ * the fork-join pool. Rows that cannot be imported are reported with their line number and the
+ * import carries on with the rest.
+ *
+ * Patient and caregiver files have username,password rows and vaccine files have name,doses rows.
+ * A first line naming the columns is skipped. Files are read from ImportDirectory (default
+ * "imports" in the working directory) and named relative to it.
+ */
+public class CsvImporter {
+
+    public static final ConfinedDirectory IMPORT_DIRECTORY = ConfinedDirectory.fromEnv("ImportDirectory", "imports");
+
+    public enum Type {
+        PATIENTS, CAREGIVERS, VACCINES
+    }
+
+    private static final int CHUNK_SIZE = 1000;
+    private static final int BUFFER_SIZE = 1 << 16;
+    // rows a hashing task handles itself instead of splitting further
+    private static final int HASH_TASK_ROWS = 8;
+
+    private final Type type;
+    private final PrintStream out;
+    private long imported = 0;
+    private long failed = 0;
+
+    private static class Row {
+        private final int line;
+        private final String name;
+        private String password;
+        private int doses;
+        private byte[] salt;
+        private byte[] hash;
+
+        Row(int line, String name) {
+            this.line = line;
+            this.name = name;
+        }
+    }
+
+    // Hashes the passwords of rows[from, to), splitting the range across the fork-join pool
+    private static class HashRows extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+
+        private final List<Row> rows;
+        private final int from;
+        private final int to;
+
+        HashRows(List<Row> rows, int from, int to) {
+            this.rows = rows;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from <= HASH_TASK_ROWS) {
+                for (int i = from; i < to; i++) {
+                    Row row = rows.get(i);
+                    row.salt = Util.generateSalt();
+                    row.hash = Util.generateHash(row.password, row.salt);
+                    row.password = null;
+                }
+                return;
+            }
+            int mid = (from + to) >>> 1;
+            invokeAll(new HashRows(rows, from, mid), new HashRows(rows, mid, to));
+        }
+    }
+
+    public CsvImporter(Type type, PrintStream out) {
+        this.type = type;
+        this.out = out;
+    }
+
+    // Returns the type named by an import argument, e.g. "patients", or null if there is none
+    public static Type parseType(String name) {
+        for (Type type : Type.values()) {
+            if (type.name().equalsIgnoreCase(name)) {
+                return type;
+            }
+        }
+        return null;
+    }
+
+    public long getImported() {
+        return imported;
+    }
+
+    public long getFailed() {
+        return failed;
+    }
+
+    public void run(Path file) throws IOException {
+        try (BufferedReader in = new BufferedReader(
+                new InputStreamReader(Files.newInputStream(file), StandardCharsets.UTF_8), BUFFER_SIZE)) {
+            List<Row> chunk = new ArrayList<>(CHUNK_SIZE);
+            List<Row> pending = null;
+            ForkJoinTask<?> hashing = null;
+            int lineNumber = 0;
+            String line;
+            while ((line = in.readLine()) != null) {
+                lineNumber++;
+                if (line.trim().isEmpty() || (lineNumber == 1 && isHeader(line))) {
+                    continue;
+                }
+                Row row = parse(lineNumber, line);
+                if (row != null) {
+                    chunk.add(row);
+                }
+                if (chunk.size() == CHUNK_SIZE) {
+                    // hash this chunk while the previous one is written
+                    ForkJoinTask<?> next = startHashing(chunk);
+                    if (pending != null) {
+                        insert(pending, hashing);
+                    }
+                    pending = chunk;
+                    hashing = next;
+                    chunk = new ArrayList<>(CHUNK_SIZE);
+                }
+            }
+            if (pending != null) {
+                insert(pending, hashing);
+            }
+            if (!chunk.isEmpty()) {
+                insert(chunk, startHashing(chunk));
+            }
+        }
+    }
+
+    private ForkJoinTask<?> startHashing(List<Row> rows) {
+        if (type == Type.VACCINES) {
+            return null;
+        }
+        return ForkJoinPool.commonPool().submit(new HashRows(rows, 0, rows.size()));
+    }
+
+    private void insert(List<Row> rows, ForkJoinTask<?> hashing) {
+        if (hashing != null) {
+            hashing.join();
+        }
+        boolean[] saved;
+        try {
+            if (type == Type.PATIENTS) {
+                List<Patient> patients = new ArrayList<>(rows.size());
+                for (Row row : rows) {
+                    patients.add(new Patient.PatientBuilder(row.name, row.salt, row.hash).build());
+                }
+                saved = Patient.saveAllToDB(patients);
+            } else if (type == Type.CAREGIVERS) {
+                List<Caregiver> caregivers = new ArrayList<>(rows.size());
+                for (Row row : rows) {
+                    caregivers.add(new Caregiver.CaregiverBuilder(row.name, row.salt, row.hash).build());
+                }
+                saved = Caregiver.saveAllToDB(caregivers);
+            } else {
+                List<Vaccine> vaccines = new ArrayList<>(rows.size());
+                for (Row row : rows) {
+                    vaccines.add(new Vaccine.VaccineBuilder(row.name, row.doses).build());
+                }
+                saved = Vaccine.saveAllToDB(vaccines);
+            }
+        } catch (SQLException e) {
+            for (Row row : rows) {
+                reject(row.line, "could not be saved");
+            }
+            e.printStackTrace();
+            return;
+        }
+        for (int i = 0; i < saved.length; i++) {
+            if (saved[i]) {
+                imported++;
+            } else {
+                reject(rows.get(i).line, type == Type.VACCINES ? "Vaccine already exists" : "Username taken");
+            }
+        }
+    }
+
+    // Returns the row on a line, or null after reporting why it cannot be imported
+    private Row parse(int lineNumber, String line) {
+        List<String> fields = splitFields(line);
+        if (fields.size() != 2) {
+            reject(lineNumber, "expected 2 fields but found " + fields.size());
+            return null;
+        }
+        String name = fields.get(0).trim();
+        String value = fields.get(1).trim();
+        if (name.isEmpty() || name.contains(" ")) {
+            reject(lineNumber, "name must be non-empty and without spaces");
+            return null;
+        }
+        Row row = new Row(lineNumber, name);
+        if (type == Type.VACCINES) {
+            try {
+                row.doses = Integer.parseInt(value);
+            } catch (NumberFormatException e) {
+                reject(lineNumber, "doses must be a number");
+                return null;
+            }
+            if (row.doses < 0) {
+                reject(lineNumber, "doses cannot be negative");
+                return null;
+            }
+        } else {
+            if (!Scheduler.checkStrongPw(value)) {
+                reject(lineNumber, "Password is not strong enough");
+                return null;
+            }
+            row.password = value;
+        }
+        return row;
+    }
+
+    private boolean isHeader(String line) {
+        List<String> fields = splitFields(line);
+        return !fields.isEmpty() && (fields.get(0).trim().equalsIgnoreCase("username")
+                || fields.get(0).trim().equalsIgnoreCase("name"));
+    }
+
+    private void reject(int lineNumber, String reason) {
+        failed++;
+        out.println("Line " + lineNumber + ": " + reason);
+    }
+
+    // Splits a CSV line; fields may be quoted, with "" standing for a quote inside a quoted field
+    private static List<String> splitFields(String line) {
+        List<String> fields = new ArrayList<>(2);
+        StringBuilder field = new StringBuilder();
+        boolean quoted = false;
+        for (int i = 0; i < line.length(); i++) {
+            char c = line.charAt(i);
+            if (quoted) {
+                if (c == '"' && i + 1 < line.length() && line.charAt(i + 1) == '"') {
+                    field.append('"');
+                    i++;
+                } else if (c == '"') {
+                    quoted = false;
+                } else {
+                    field.append(c);
+                }
+            } else if (c == '"') {
+                quoted = true;
+            } else if (c == ',') {
+                fields.add(field.toString());
+                field.setLength(0);
+            } else {
+                field.append(c);
+            }
+        }
+        fields.add(field.toString());
+        return fields;
+    }
+}
@@ -0,0 +1,353 @@
+package scheduler;
+
+import scheduler.cache.VaccineCache;
+import scheduler.metrics.Timer;
+import scheduler.model.Caregiver;
+import scheduler.model.Patient;
+import scheduler.model.Vaccine;
+import scheduler.repository.Repositories;
+import scheduler.util.Util;
+
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.sql.Date;
+import java.sql.SQLException;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Drives the scheduler with a synthetic population of patients and caregivers to find out how
+ * much load it can take, e.g. before a vaccination drive.
+ *
+ * Worker threads send a weighted mix of reserve, search_caregiver_schedule, upload_availability
+ * and create_patient commands through Scheduler.execute, so they exercise the same code as real
+ * sessions. Every simulated user belongs to one worker, which keeps each session single threaded
+ * like a real client. With --rate the commands arrive on a fixed schedule (open loop) and latency
+ * is measured from when a command was due, so a slow system cannot hide its queueing delay;
+ * without it every worker sends its next command as soon as the last one is answered.
+ *
+ * After the run the appointments are read back to check that every reservation the workers saw
+ * succeed was stored exactly once, per patient and per vaccine, and that the doses that left stock
+ * match the bookings. The exit status is 1 if any of these checks fails.
+ *
+ * Usage: java scheduler.LoadGenerator [--patients 1000] [--caregivers 100] [--vaccines 3]
+ *        [--doses 100000] [--days 30] [--coverage 0.5] [--threads 16] [--rate 0] [--duration 30]
+ *        [--mix reserve=60,search=30,upload=8,create=2]
+ *
+ * The storage backend is chosen as usual, so set Storage=memory to load test the application
+ * alone or point it at a scratch database to include the database.
+ */
+public class LoadGenerator {
+
+    private static final String PASSWORD = "Passw0rd!";
+    private static final String[] OPERATIONS = {"reserve", "search", "upload", "create"};
+
+    private final int patients;
+    private final int caregivers;
+    private final int vaccines;
+    private final int doses;
+    private final int days;
+    private final double coverage;
+    private final int threads;
+    private final double rate;
+    private final long durationNanos;
+    private final int[] mix = new int[OPERATIONS.length];
+    private final int mixTotal;
+
+    // usernames are unique per run so that runs against a database do not collide
+    private final String prefix = "lg" + Long.toString(System.currentTimeMillis(), 36) + "_";
+    private final LocalDate firstDay = LocalDate.now().plusDays(1);
+
+    private final Map<String, Timer> latency = new LinkedHashMap<>();
+    private final Timer overall = new Timer();
+    private final ConcurrentHashMap<String, AtomicLong> reservedByVaccine = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<String, Long> reservedByPatient = new ConcurrentHashMap<>();
+    private final AtomicLong createdPatients = new AtomicLong();
+
+    public LoadGenerator(Map<String, String> options) {
+        patients = Integer.parseInt(options.getOrDefault("patients", "1000"));
+        caregivers = Integer.parseInt(options.getOrDefault("caregivers", "100"));
+        vaccines = Integer.parseInt(options.getOrDefault("vaccines", "3"));
+        doses = Integer.parseInt(options.getOrDefault("doses", "100000"));
+        days = Integer.parseInt(options.getOrDefault("days", "30"));
+        coverage = Double.parseDouble(options.getOrDefault("coverage", "0.5"));
+        // every worker needs at least one patient and one caregiver of its own
+        threads = Math.max(1, Math.min(Integer.parseInt(options.getOrDefault("threads", "16")),
+                Math.min(patients, caregivers)));
+        rate = Double.parseDouble(options.getOrDefault("rate", "0"));
+        durationNanos = TimeUnit.SECONDS.toNanos(Long.parseLong(options.getOrDefault("duration", "30")));
+
+        int total = 0;
+        Map<String, Integer> weights = new HashMap<>();
+        for (String part : options.getOrDefault("mix", "reserve=60,search=30,upload=8,create=2").split(",")) {
+            String[] kv = part.split("=");
+            weights.put(kv[0].trim(), Integer.parseInt(kv[1].trim()));
+        }
+        for (int i = 0; i < OPERATIONS.length; i++) {
+            mix[i] = Math.max(0, weights.getOrDefault(OPERATIONS[i], 0));
+            total += mix[i];
+            latency.put(OPERATIONS[i], new Timer());
+        }
+        if (total == 0) {
+            throw new IllegalArgumentException("The command mix must have a positive weight");
+        }
+        mixTotal = total;
+    }
+
+    public static void main(String[] args) throws Exception {
+        Map<String, String> options = new HashMap<>();
+        for (int i = 0; i + 1 < args.length; i += 2) {
+            if (!args[i].startsWith("--")) {
+                throw new IllegalArgumentException("Expected an option but got " + args[i]);
+            }
+            options.put(args[i].substring(2), args[i + 1]);
+        }
+        LoadGenerator generator = new LoadGenerator(options);
+        generator.seed();
+        long elapsed = generator.run();
+        if (!generator.report(elapsed)) {
+            System.exit(1);
+        }
+    }
+
+    /**
+     * Creates the population directly through the model classes. Everyone shares one hashed
+     * password so that seeding does not spend minutes hashing.
+     */
+    public void seed() throws SQLException {
+        long start = System.nanoTime();
+        byte[] salt = Util.generateSalt();
+        byte[] hash = Util.generateHash(PASSWORD, salt);
+        for (int v = 0; v < vaccines; v++) {
+            new Vaccine.VaccineBuilder(vaccine(v), doses).build().saveToDB();
+            reservedByVaccine.put(vaccine(v), new AtomicLong());
+        }
+        for (int p = 0; p < patients; p++) {
+            new Patient.PatientBuilder(patient(p), salt, hash).build().saveToDB();
+        }
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        for (int c = 0; c < caregivers; c++) {
+            Caregiver caregiver = new Caregiver.CaregiverBuilder(caregiver(c), salt, hash).build();
+            caregiver.saveToDB();
+            List<Date> open = new ArrayList<>();
+            for (int d = 0; d < days; d++) {
+                if (random.nextDouble() < coverage) {
+                    open.add(day(d));
+                }
+            }
+            caregiver.uploadAvailabilities(open);
+        }
+        System.out.printf("Seeded %d patients, %d caregivers and %d vaccines over %d days in %.1f s%n",
+                patients, caregivers, vaccines, days, (System.nanoTime() - start) / 1e9);
+    }
+
+    /**
+     * Runs the workers for the configured duration and returns how long they ran in nanoseconds.
+     */
+    public long run() throws InterruptedException {
+        ExecutorService workers = Executors.newFixedThreadPool(threads, r -> {
+            Thread t = new Thread(r, "load-generator");
+            t.setDaemon(true);
+            return t;
+        });
+        long start = System.nanoTime();
+        long deadline = start + durationNanos;
+        for (int w = 0; w < threads; w++) {
+            int worker = w;
+            workers.execute(() -> work(worker, start, deadline));
+        }
+        workers.shutdown();
+        workers.awaitTermination(Long.MAX_VALUE, TimeUnit.NANOSECONDS);
+        return System.nanoTime() - start;
+    }
+
+    private void work(int worker, long start, long deadline) {
+        PrintStream discard = new PrintStream(OutputStream.nullOutputStream());
+        List<Session> patientSessions = new ArrayList<>();
+        for (int p = worker; p < patients; p += threads) {
+            Session session = new Session(discard);
+            session.setCurrentPatient(new Patient.PatientBuilder(patient(p), new byte[0], new byte[0]).build());
+            patientSessions.add(session);
+        }
+        List<Session> caregiverSessions = new ArrayList<>();
+        for (int c = worker; c < caregivers; c += threads) {
+            Session session = new Session(discard);
+            session.setCurrentCaregiver(new Caregiver.CaregiverBuilder(caregiver(c), new byte[0], new byte[0]).build());
+            caregiverSessions.add(session);
+        }
+
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        // each worker carries an equal share of the arrival rate
+        long interval = rate > 0 ? (long) (threads * 1e9 / rate) : 0;
+        long due = start + (interval == 0 ? 0 : random.nextLong(interval));
+        while (true) {
+            long now = System.nanoTime();
+            if (interval > 0) {
+                if (due >= deadline) {
+                    return;
+                }
+                if (now < due) {
+                    LockSupport.parkNanos(due - now);
+                }
+            } else {
+                if (now >= deadline) {
+                    return;
+                }
+                due = now;
+            }
+
+            int operation = pickOperation(random);
+            Session session;
+            String command;
+            String vaccine = null;
+            switch (OPERATIONS[operation]) {
+                case "reserve":
+                    session = patientSessions.get(random.nextInt(patientSessions.size()));
+                    vaccine = vaccine(random.nextInt(vaccines));
+                    command = "reserve " + day(random.nextInt(days)) + " " + vaccine;
+                    break;
+                case "search":
+                    session = patientSessions.get(random.nextInt(patientSessions.size()));
+                    command = "search_caregiver_schedule " + day(random.nextInt(days));
+                    break;
+                case "upload":
+                    session = caregiverSessions.get(random.nextInt(caregiverSessions.size()));
+                    command = "upload_availability " + day(random.nextInt(days));
+                    break;
+                default:
+                    session = new Session(discard);
+                    command = "create_patient " + prefix + "new" + createdPatients.incrementAndGet() + " " + PASSWORD;
+                    break;
+            }
+
+            boolean failed;
+            try {
+                Scheduler.execute(command, session);
+                failed = session.lastCommandFailed();
+            } catch (RuntimeException e) {
+                failed = true;
+            }
+            long elapsed = System.nanoTime() - due;
+            Timer timer = latency.get(OPERATIONS[operation]);
+            if (failed) {
+                timer.recordError(elapsed);
+                overall.recordError(elapsed);
+            } else {
+                timer.record(elapsed);
+                overall.record(elapsed);
+                if (vaccine != null) {
+                    reservedByVaccine.get(vaccine).incrementAndGet();
+                    reservedByPatient.merge(session.getCurrentPatient().getUsername(), 1L, Long::sum);
+                }
+            }
+            due += interval;
+        }
+    }
+
+    /**
+     * Prints throughput and latency, then reads the appointments back and checks them against
+     * the reservations the workers saw succeed and the doses left in stock. Returns false if a
+     * check failed.
+     */
+    public boolean report(long elapsedNanos) throws SQLException {
+        double seconds = elapsedNanos / 1e9;
+        System.out.println();
+        System.out.printf("%d commands in %.1f s on %d threads: %.1f commands/s%s%n", overall.getCount(), seconds,
+                threads, overall.getCount() / seconds, rate > 0 ? " (target " + rate + "/s)" : "");
+        System.out.printf("%-10s %9s %8s %9s %9s %9s %9s %9s%n", "command", "count", "failed", "mean ms", "p50 ms",
+                "p99 ms", "p99.9 ms", "max ms");
+        for (Map.Entry<String, Timer> e : latency.entrySet()) {
+            printLatency(e.getKey(), e.getValue());
+        }
+        printLatency("all", overall);
+
+        // every booking as the store sees it, read per patient; only seeded patients reserve
+        Map<String, Long> bookedByVaccine = new HashMap<>();
+        long overbookedPatients = 0;
+        long underbookedPatients = 0;
+        Date from = day(0);
+        Date to = day(days - 1);
+        for (int p = 0; p < patients; p++) {
+            long[] booked = new long[1];
+            Repositories.availabilities().forEachAppointment(patient(p), false, from, to,
+                    Session.PageCursor.START.getTime(), Session.PageCursor.START.getAptId(), 0, 0, false, appointment -> {
+                        booked[0]++;
+                        bookedByVaccine.merge(appointment.getVaccineName(), 1L, Long::sum);
+                    });
+            long reserved = reservedByPatient.getOrDefault(patient(p), 0L);
+            if (booked[0] > reserved) {
+                overbookedPatients++;
+            } else if (booked[0] < reserved) {
+                underbookedPatients++;
+            }
+        }
+
+        boolean held = overbookedPatients == 0 && underbookedPatients == 0;
+        System.out.println();
+        System.out.println("Patients with more bookings than successful reserves: " + overbookedPatients);
+        System.out.println("Patients with fewer bookings than successful reserves: " + underbookedPatients);
+        System.out.printf("%-20s %10s %10s %10s %10s %10s %10s%n", "vaccine", "reserved", "booked", "consumed",
+                "remaining", "ledger", "cache drift");
+        for (int v = 0; v < vaccines; v++) {
+            String name = vaccine(v);
+            long reserved = reservedByVaccine.get(name).get();
+            long booked = bookedByVaccine.getOrDefault(name, 0L);
+            Integer remaining = Repositories.vaccines().findDoses(name);
+            Integer ledger = Repositories.vaccines().findLedgerDoses(name);
+            Integer cached = VaccineCache.getInstance().getDoses(name);
+            long consumed = remaining == null ? -1 : doses - remaining;
+            long cacheDrift = remaining == null || cached == null ? 0 : cached - remaining;
+            System.out.printf("%-20s %10d %10d %10d %10s %10s %10d%n", name, reserved, booked, consumed, remaining,
+                    ledger, cacheDrift);
+            // every successful reserve is stored once and took exactly one dose, and is in the ledger
+            held &= reserved == booked && consumed == booked && remaining != null && remaining.equals(ledger);
+        }
+        System.out.println();
+        System.out.println(held ? "All checks passed." : "CHECKS FAILED: reservations, bookings and doses disagree.");
+        return held;
+    }
+
+    private void printLatency(String name, Timer timer) {
+        System.out.printf("%-10s %9d %8d %9.3f %9.3f %9.3f %9.3f %9.3f%n", name, timer.getCount(), timer.getErrors(),
+                timer.getMeanMillis(), timer.getP50Millis(), timer.getP99Millis(), timer.getP999Millis(),
+                timer.getMaxMillis());
+    }
+
+    private int pickOperation(ThreadLocalRandom random) {
+        int r = random.nextInt(mixTotal);
+        for (int i = 0; i < mix.length; i++) {
+            r -= mix[i];
+            if (r < 0) {
+                return i;
+            }
+        }
+        return mix.length - 1;
+    }
+
+    private String patient(int i) {
+        return prefix + "p" + i;
+    }
+
+    private String caregiver(int i) {
+        return prefix + "c" + i;
+    }
+
+    private String vaccine(int i) {
+        return prefix + "v" + i;
+    }
+
+    private Date day(int i) {
+        return Date.valueOf(firstDay.plusDays(i));
+    }
+}
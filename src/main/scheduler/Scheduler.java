@@ -1,21 +1,41 @@
 package scheduler;
 
 import com.microsoft.sqlserver.jdbc.SQLServerException;
-import scheduler.db.ConnectionManager;
+import scheduler.cache.AvailabilityIndex;
+import scheduler.cache.UsernameFilter;
+import scheduler.cache.VaccineCache;
+import scheduler.db.ReadFreshness;
+import scheduler.db.SqlExecutor;
+import scheduler.model.Appointment;
+import scheduler.model.Archiver;
 import scheduler.model.Caregiver;
+import scheduler.model.DoseCompactor;
 import scheduler.model.Patient;
 import scheduler.model.Vaccine;
+import scheduler.model.Waitlist;
+import scheduler.metrics.MetricsRegistry;
+import scheduler.metrics.Timer;
+import scheduler.repository.AsyncQueries;
+import scheduler.repository.Repositories;
 import scheduler.util.Util;
 
 import javax.management.monitor.StringMonitorMBean;
 import java.io.BufferedReader;
 import java.io.IOException;
+import java.io.BufferedWriter;
 import java.io.InputStreamReader;
-import java.sql.Connection;
-import java.sql.PreparedStatement;
-import java.sql.ResultSet;
+import java.io.OutputStreamWriter;
+import java.io.PrintStream;
+import java.io.PrintWriter;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
 import java.sql.SQLException;
 import java.sql.Date;
+import java.time.DayOfWeek;
+import java.time.LocalDate;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.BiConsumer;
 
 import java.util.*;
 import java.text.ParseException;
@@ -23,30 +43,76 @@ import java.text.SimpleDateFormat;
 
 public class Scheduler {
 
-    // objects to keep track of the currently logged-in user
-    // Note: it is always true that at most one of currentCaregiver and currentPatient is not null
-    //       since only one user can be logged-in at a time
-    private static Caregiver currentCaregiver = null;
-    private static Patient currentPatient = null;
+    // rows per page for show_appointments --page without --limit
+    private static final int DEFAULT_PAGE_SIZE = 20;
+    private static final Date MIN_DATE = Date.valueOf("0001-01-01");
+    private static final Date MAX_DATE = Date.valueOf("9999-12-31");
+
+    // latency of each command, looked up once so that timing a command does not allocate
+    private static final String[] COMMANDS = {"create_patient", "create_caregiver", "login_patient",
+            "login_caregiver", "search_caregiver_schedule", "search_range", "reserve", "waitlist", "upload_availability",
+            "upload_availability_range", "cancel", "add_doses", "import", "export", "show_appointments", "stats", "logout", "quit"};
+    private static final Map<String, Timer> COMMAND_TIMERS = new HashMap<>();
+    private static final Timer INVALID_COMMAND_TIMER = MetricsRegistry.getInstance().timer("command.invalid");
+
+    static {
+        for (String command : COMMANDS) {
+            COMMAND_TIMERS.put(command, MetricsRegistry.getInstance().timer("command." + command));
+        }
+    }
 
     public static void main(String[] args) {
-        // printing greetings text
-        System.out.println();
-        System.out.println("Welcome to the COVID-19 Vaccine Reservation Scheduling Application!");
-        System.out.println("*** Please enter one of the following commands ***");
-        System.out.println("> create_patient <username> <password>");  //TODO: implement create_patient (Part 1)
-        System.out.println("> create_caregiver <username> <password>");
-        System.out.println("> login_patient <username> <password>");  // TODO: implement login_patient (Part 1)
-        System.out.println("> login_caregiver <username> <password>");
-        System.out.println("> search_caregiver_schedule <date>");  // TODO: implement search_caregiver_schedule (Part 2)
-        System.out.println("> reserve <date> <vaccine>");  // TODO: implement reserve (Part 2)
-        System.out.println("> upload_availability <date>");
-        System.out.println("> cancel <appointment_id>");  // TODO: implement cancel (extra credit)
-        System.out.println("> add_doses <vaccine> <number>");
-        System.out.println("> show_appointments");  // TODO: implement show_appointments (Part 2)
-        System.out.println("> logout");  // TODO: implement logout (Part 2)
-        System.out.println("> quit");
-        System.out.println();
+        // scheduler --server [port] serves many sessions over TCP instead of reading stdin
+        if (args.length > 0 && args[0].equals("--server")) {
+            int port = SchedulerServer.DEFAULT_PORT;
+            if (args.length > 1) {
+                try {
+                    port = Integer.parseInt(args[1]);
+                } catch (NumberFormatException e) {
+                    port = -1;
+                }
+            }
+            if (args.length > 2 || port < 1 || port > 65535) {
+                System.out.println("Usage: scheduler --server [port], with a port from 1 to 65535");
+                return;
+            }
+            startBackgroundJobs();
+            try {
+                new SchedulerServer(port).run();
+            } catch (IOException e) {
+                System.out.println("Failed to start server: " + e.getMessage());
+            }
+            return;
+        }
+        // scheduler --batch <file> [--parallel N] runs a command file without prompts
+        if (args.length > 0 && args[0].equals("--batch")) {
+            int parallelism = 1;
+            if (args.length == 4 && args[2].equals("--parallel")) {
+                try {
+                    parallelism = Integer.parseInt(args[3]);
+                } catch (NumberFormatException e) {
+                    parallelism = 0;
+                }
+            } else if (args.length != 2) {
+                parallelism = 0;
+            }
+            if (parallelism < 1) {
+                System.out.println("Usage: scheduler --batch <file> [--parallel N], with N at least 1");
+                return;
+            }
+            try {
+                new BatchRunner(parallelism).run(Paths.get(args[1]));
+            } catch (IOException e) {
+                System.out.println("Failed to read batch file: " + e.getMessage());
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            return;
+        }
+
+        startBackgroundJobs();
+        Session session = new Session(System.out);
+        printWelcome(session.getOut());
 
         // read input from user
         BufferedReader r = new BufferedReader(new InputStreamReader(System.in));
@@ -58,147 +124,226 @@ public class Scheduler {
             } catch (IOException e) {
                 System.out.println("Please try again!");
             }
-            // split the user input by spaces
-            String[] tokens = response.split(" ");
-            // check if input exists
-            if (tokens.length == 0) {
-                System.out.println("Please try again!");
-                continue;
-            }
-            // determine which operation to perform
-            String operation = tokens[0];
-            if (operation.equals("create_patient")) {
-                createPatient(tokens);
-            } else if (operation.equals("create_caregiver")) {
-                createCaregiver(tokens);
-            } else if (operation.equals("login_patient")) {
-                loginPatient(tokens);
-            } else if (operation.equals("login_caregiver")) {
-                loginCaregiver(tokens);
-            } else if (operation.equals("search_caregiver_schedule")) {
-                searchCaregiverSchedule(tokens);
-            } else if (operation.equals("reserve")) {
-                reserve(tokens);
-            } else if (operation.equals("upload_availability")) {
-                uploadAvailability(tokens);
-            } else if (operation.equals("cancel")) {
-                cancel(tokens);
-            } else if (operation.equals("add_doses")) {
-                addDoses(tokens);
-            } else if (operation.equals("show_appointments")) {
-                showAppointments(tokens);
-            } else if (operation.equals("logout")) {
-                logout(tokens);
-            } else if (operation.equals("quit")) {
-                System.out.println("Bye!");
+            if (response == null) {
                 return;
+            }
+            if (!execute(response, session)) {
+                return;
+            }
+        }
+    }
+
+    static void printWelcome(PrintStream out) {
+        // printing greetings text
+        out.println();
+        out.println("Welcome to the COVID-19 Vaccine Reservation Scheduling Application!");
+        out.println("*** Please enter one of the following commands ***");
+        out.println("> create_patient <username> <password>");  //TODO: implement create_patient (Part 1)
+        out.println("> create_caregiver <username> <password>");
+        out.println("> login_patient <username> <password>");  // TODO: implement login_patient (Part 1)
+        out.println("> login_caregiver <username> <password>");
+        out.println("> search_caregiver_schedule <date>");  // TODO: implement search_caregiver_schedule (Part 2)
+        out.println("> search_range <start_date> <end_date> [vaccine]");
+        out.println("> reserve <date> <vaccine>");  // TODO: implement reserve (Part 2)
+        out.println("> waitlist <date> <vaccine>");
+        out.println("> upload_availability <date>");
+        out.println("> upload_availability_range <start_date> <end_date> [weekdays, e.g. MON,WED,FRI]");
+        out.println("> cancel <appointment_id>");  // TODO: implement cancel (extra credit)
+        out.println("> add_doses <vaccine> <number>");
+        out.println("> import <patients|caregivers|vaccines> <file.csv>");
+        out.println("> export <start_date> <end_date> <path> [--format csv|columnar] [--since <appointment_id>]");
+        out.println("> show_appointments [--from <date>] [--to <date>] [--page <n>] [--limit <k>] [--history]");  // TODO: implement show_appointments (Part 2)
+        out.println("> stats");
+        out.println("> logout");  // TODO: implement logout (Part 2)
+        out.println("> quit");
+        out.println();
+    }
+
+    // only for long running processes: a batch run should not archive or compact while it measures
+    private static void startBackgroundJobs() {
+        // past availabilities move to the history table in the background
+        Archiver.start();
+        // the striped vaccine stock is folded into Vaccines.Doses in the background
+        DoseCompactor.start();
+    }
+
+    /**
+     * Runs one command line on behalf of a session. Returns false once the session has quit. A
+     * command that fails unexpectedly is reported to the session, which stays open.
+     */
+    static boolean execute(String response, Session session) {
+        session.setLastCommandFailed(false);
+        // split the user input by spaces
+        String[] tokens = response.split(" ");
+        // check if input exists
+        if (tokens.length == 0) {
+            fail(session, "Please try again!");
+            return true;
+        }
+        Timer timer = COMMAND_TIMERS.getOrDefault(tokens[0], INVALID_COMMAND_TIMER);
+        long start = System.nanoTime();
+        boolean failed = true;
+        try (ReadFreshness.Scope scope = session.getReadFreshness().bind()) {
+            boolean open = dispatch(tokens, session);
+            failed = session.lastCommandFailed();
+            return open;
+        } catch (RuntimeException e) {
+            fail(session, "Error occurred when running " + tokens[0] + "!");
+            e.printStackTrace();
+            return true;
+        } finally {
+            if (failed) {
+                timer.recordError(System.nanoTime() - start);
             } else {
-                System.out.println("Invalid operation name!");
+                timer.record(System.nanoTime() - start);
             }
         }
     }
 
-    private static void createPatient(String[] tokens) {
+    private static boolean dispatch(String[] tokens, Session session) {
+        PrintStream out = session.getOut();
+        // determine which operation to perform
+        String operation = tokens[0];
+        if (operation.equals("create_patient")) {
+            createPatient(tokens, session);
+        } else if (operation.equals("create_caregiver")) {
+            createCaregiver(tokens, session);
+        } else if (operation.equals("login_patient")) {
+            loginPatient(tokens, session);
+        } else if (operation.equals("login_caregiver")) {
+            loginCaregiver(tokens, session);
+        } else if (operation.equals("search_caregiver_schedule")) {
+            searchCaregiverSchedule(tokens, session);
+        } else if (operation.equals("search_range")) {
+            searchRange(tokens, session);
+        } else if (operation.equals("reserve")) {
+            reserve(tokens, session);
+        } else if (operation.equals("waitlist")) {
+            waitlist(tokens, session);
+        } else if (operation.equals("upload_availability")) {
+            uploadAvailability(tokens, session);
+        } else if (operation.equals("upload_availability_range")) {
+            uploadAvailabilityRange(tokens, session);
+        } else if (operation.equals("cancel")) {
+            cancel(tokens, session);
+        } else if (operation.equals("add_doses")) {
+            addDoses(tokens, session);
+        } else if (operation.equals("import")) {
+            importCsv(tokens, session);
+        } else if (operation.equals("export")) {
+            export(tokens, session);
+        } else if (operation.equals("show_appointments")) {
+            showAppointments(tokens, session);
+        } else if (operation.equals("stats")) {
+            out.print(MetricsRegistry.getInstance().report());
+        } else if (operation.equals("logout")) {
+            logout(tokens, session);
+        } else if (operation.equals("quit")) {
+            out.println("Bye!");
+            return false;
+        } else {
+            fail(session, "Invalid operation name!");
+        }
+        return true;
+    }
+
+    // Reports why a command could not be carried out and marks it as failed for batch statistics
+    private static void fail(Session session, String message) {
+        session.getOut().println(message);
+        session.setLastCommandFailed(true);
+    }
+
+    private static void createPatient(String[] tokens, Session session) {
+        PrintStream out = session.getOut();
         // create_patient <username> <password>
         if (tokens.length != 3) {
-            System.out.println("Failed to create user.");
+            fail(session, "Failed to create user.");
             return;
         }
         String username = tokens[1];
         String password = tokens[2];
-        if (usernameExistsPatient(username)) {
-            System.out.println("Username taken, try again!");
+        // the filter answers for names it has never seen, the insert has the final say
+        if (UsernameFilter.patients().mightBeTaken(username) && usernameExistsPatient(username, out)) {
+            fail(session, "Username taken, try again!");
             return;
         }
         if (!checkStrongPw(password)) {
-            System.out.println("Password is not strong enough, try again!");
+            fail(session, "Password is not strong enough, try again!");
             return;
         }
         byte[] salt = Util.generateSalt();
-        byte[] hash = Util.generateHash(password, salt);
+        byte[] hash = Util.generateHashAsync(password, salt).join();
         try {
-            currentPatient = new Patient.PatientBuilder(username, salt, hash).build();
-            currentPatient.saveToDB();
-            System.out.println("Created user " + username);
+            Patient patient = new Patient.PatientBuilder(username, salt, hash).build();
+            if (!patient.saveToDB()) {
+                fail(session, "Username taken, try again!");
+                return;
+            }
+            session.setCurrentPatient(patient);
+            out.println("Created user " + username);
         } catch (SQLException e) {
-            System.out.println("Failed to create user.");
+            fail(session, "Failed to create user.");
             e.printStackTrace();
         }
     }
 
-    private static boolean usernameExistsPatient(String username) {
-        ConnectionManager cm = new ConnectionManager();
-        Connection con = cm.createConnection();
-
-        String selectUsername = "SELECT * FROM Patients WHERE Username = ?";
+    private static boolean usernameExistsPatient(String username, PrintStream out) {
         try {
-            PreparedStatement statement = con.prepareStatement(selectUsername);
-            statement.setString(1, username);
-            ResultSet resultSet = statement.executeQuery();
-            // returns false if the cursor is not before the first record or if there are no rows in the ResultSet.
-            return resultSet.isBeforeFirst();
+            return Repositories.patients().exists(username);
         } catch (SQLException e) {
-            System.out.println("Error occurred when checking username");
+            out.println("Error occurred when checking username");
             e.printStackTrace();
-        } finally {
-            cm.closeConnection();
         }
         return true;
     }
-
-    private static void createCaregiver(String[] tokens) {
+    private static void createCaregiver(String[] tokens, Session session) {
+        PrintStream out = session.getOut();
         // create_caregiver <username> <password>
         // check 1: the length for tokens need to be exactly 3 to include all information (with the operation name)
         if (tokens.length != 3) {
-            System.out.println("Failed to create user.");
+            fail(session, "Failed to create user.");
             return;
         }
         String username = tokens[1];
         String password = tokens[2];
         // check 2: check if the username has been taken already
-        if (usernameExistsCaregiver(username)) {
-            System.out.println("Username taken, try again!");
+        // the filter answers for names it has never seen, the insert has the final say
+        if (UsernameFilter.caregivers().mightBeTaken(username) && usernameExistsCaregiver(username, out)) {
+            fail(session, "Username taken, try again!");
             return;
         }
         if (!checkStrongPw(password)) {
-            System.out.println("Password is not strong enough, try again!");
+            fail(session, "Password is not strong enough, try again!");
             return;
         }
         byte[] salt = Util.generateSalt();
-        byte[] hash = Util.generateHash(password, salt);
+        byte[] hash = Util.generateHashAsync(password, salt).join();
         // create the caregiver
         try {
-            currentCaregiver = new Caregiver.CaregiverBuilder(username, salt, hash).build();
-            // save to caregiver information to our database
-            currentCaregiver.saveToDB();
-            System.out.println("Created user " + username);
+            Caregiver caregiver = new Caregiver.CaregiverBuilder(username, salt, hash).build();
+            // save to caregiver information to our database, a concurrent signup may have won the name
+            if (!caregiver.saveToDB()) {
+                fail(session, "Username taken, try again!");
+                return;
+            }
+            session.setCurrentCaregiver(caregiver);
+            out.println("Created user " + username);
         } catch (SQLException e) {
-            System.out.println("Failed to create user.");
+            fail(session, "Failed to create user.");
             e.printStackTrace();
         }
     }
 
-    private static boolean usernameExistsCaregiver(String username) {
-        ConnectionManager cm = new ConnectionManager();
-        Connection con = cm.createConnection();
-
-        String selectUsername = "SELECT * FROM Caregivers WHERE Username = ?";
+    private static boolean usernameExistsCaregiver(String username, PrintStream out) {
         try {
-            PreparedStatement statement = con.prepareStatement(selectUsername);
-            statement.setString(1, username);
-            ResultSet resultSet = statement.executeQuery();
-            // returns false if the cursor is not before the first record or if there are no rows in the ResultSet.
-            return resultSet.isBeforeFirst();
+            return Repositories.caregivers().exists(username);
         } catch (SQLException e) {
-            System.out.println("Error occurred when checking username");
+            out.println("Error occurred when checking username");
             e.printStackTrace();
-        } finally {
-            cm.closeConnection();
         }
         return true;
     }
-
-    private static boolean checkStrongPw(String pw) {
+    static boolean checkStrongPw(String pw) {
         boolean hasEight = pw.length() >= 8;
         boolean hasLower = false;
         boolean hasUpper = false;
@@ -218,13 +363,14 @@ public class Scheduler {
         return hasEight && hasLower && hasUpper && hasNumber && hasSpecial;
     }
 
-    private static void loginPatient(String[] tokens) {
-        if (currentCaregiver != null || currentPatient != null) {
-            System.out.println("User already logged in.");
+    private static void loginPatient(String[] tokens, Session session) {
+        PrintStream out = session.getOut();
+        if (session.getCurrentCaregiver() != null || session.getCurrentPatient() != null) {
+            fail(session, "User already logged in.");
             return;
         }
         if (tokens.length != 3) {
-            System.out.println("Login failed.");
+            fail(session, "Login failed.");
             return;
         }
         String username = tokens[1];
@@ -234,28 +380,29 @@ public class Scheduler {
         try {
             patient = new Patient.PatientGetter(username, password).get();
         } catch (SQLException e) {
-            System.out.println("Login failed.");
+            fail(session, "Login failed.");
             e.printStackTrace();
         }
         // check if the login was successful
         if (patient == null) {
-            System.out.println("Login failed.");
+            fail(session, "Login failed.");
         } else {
-            System.out.println("Logged in as: " + username);
-            currentPatient = patient;
+            out.println("Logged in as: " + username);
+            session.setCurrentPatient(patient);
         }
     }
 
-    private static void loginCaregiver(String[] tokens) {
+    private static void loginCaregiver(String[] tokens, Session session) {
+        PrintStream out = session.getOut();
         // login_caregiver <username> <password>
         // check 1: if someone's already logged-in, they need to log out first
-        if (currentCaregiver != null || currentPatient != null) {
-            System.out.println("User already logged in.");
+        if (session.getCurrentCaregiver() != null || session.getCurrentPatient() != null) {
+            fail(session, "User already logged in.");
             return;
         }
         // check 2: the length for tokens need to be exactly 3 to include all information (with the operation name)
         if (tokens.length != 3) {
-            System.out.println("Login failed.");
+            fail(session, "Login failed.");
             return;
         }
         String username = tokens[1];
@@ -265,265 +412,447 @@ public class Scheduler {
         try {
             caregiver = new Caregiver.CaregiverGetter(username, password).get();
         } catch (SQLException e) {
-            System.out.println("Login failed.");
+            fail(session, "Login failed.");
             e.printStackTrace();
         }
         // check if the login was successful
         if (caregiver == null) {
-            System.out.println("Login failed.");
+            fail(session, "Login failed.");
         } else {
-            System.out.println("Logged in as: " + username);
-            currentCaregiver = caregiver;
+            out.println("Logged in as: " + username);
+            session.setCurrentCaregiver(caregiver);
         }
     }
 
-    private static void searchCaregiverSchedule(String[] tokens) {
-        if (currentCaregiver == null && currentPatient == null) {
-            System.out.println("Please login first!");
+    private static void searchCaregiverSchedule(String[] tokens, Session session) {
+        PrintStream out = session.getOut();
+        if (session.getCurrentCaregiver() == null && session.getCurrentPatient() == null) {
+            fail(session, "Please login first!");
             return;
         }
 
         if (tokens.length != 2) {
-            System.out.println("Enter a valid date, please try again!");
+            fail(session, "Enter a valid date, please try again!");
             return;
         }
 
         String date = tokens[1];
-        ConnectionManager cm = new ConnectionManager();
-        Connection con = cm.createConnection();
         Date d;
         try {
             d = Date.valueOf(date);
         } catch (IllegalArgumentException e) {
-            System.out.println("Please print date in the format: yyyy-mm-dd");
+            fail(session, "Please print date in the format: yyyy-mm-dd");
             return;
         }
 
-        String getAvail = "SELECT cUsername FROM Availabilities WHERE Time = ? AND vName IS NULL AND pUsername IS NULL ORDER BY cUsername";
         try {
-            PreparedStatement statement_1 = con.prepareStatement(getAvail);
-            statement_1.setDate(1, d);
-            ResultSet resultSet_1;
-            resultSet_1 = statement_1.executeQuery();
-            if (!resultSet_1.isBeforeFirst()) {
-                System.out.println("No availabilities found on this date!");
+            // look the doses up while the caregivers are found, on another connection if it has to
+            // go to the database
+            VaccineCache cache = VaccineCache.getInstance();
+            CompletableFuture<SortedMap<String, Integer>> doses = cache.isAllFresh()
+                    ? CompletableFuture.completedFuture(cache.getAll()) : AsyncQueries.supply(cache::getAll);
+            List<String> caregivers = AvailabilityIndex.getInstance().freeCaregivers(d);
+            if (caregivers == null) {
+                caregivers = Repositories.availabilities().findFreeCaregivers(d);
+            }
+            if (caregivers.isEmpty()) {
+                out.println("No availabilities found on this date!");
                 return;
             } else {
-                StringBuffer availCaregivers = new StringBuffer();
-                while(resultSet_1.next()) {
-                    String cName = resultSet_1.getString(1);
+                StringBuilder availCaregivers = new StringBuilder();
+                for (String cName : caregivers) {
                     availCaregivers.append(cName).append(" ");
                 }
-                String getDoses = "SELECT Name, Doses FROM Vaccines";
-                PreparedStatement statement_2 = con.prepareStatement(getDoses);
-                statement_1.setDate(1, d);
-                ResultSet resultSet_2;
-                resultSet_2 = statement_2.executeQuery();
-                StringBuffer vaccineDoses = new StringBuffer();
-                while(resultSet_2.next()) {
-                    String name = resultSet_2.getString(1);
-                    int doses = resultSet_2.getInt(2);
-                    vaccineDoses.append("\n").append(name).append(": ").append(doses).append(" doses ");
+                StringBuilder vaccineDoses = new StringBuilder();
+                for (Map.Entry<String, Integer> vaccine : AsyncQueries.join(doses).entrySet()) {
+                    vaccineDoses.append("\n").append(vaccine.getKey()).append(": ").append(vaccine.getValue()).append(" doses ");
                 }
-                System.out.println("Caregivers available on " + d + ": " + availCaregivers + vaccineDoses);
+                out.println("Caregivers available on " + d + ": " + availCaregivers + vaccineDoses);
             }
         } catch (SQLException e) {
-            System.out.println("Please try again!");
+            fail(session, "Please try again!");
             e.printStackTrace();
-        } finally {
-            cm.closeConnection();
         }
 
     }
 
-    private static void reserve(String[] tokens) {
-        if (currentCaregiver != null) {
-            System.out.println("Please login as a patient!");
+    private static void searchRange(String[] tokens, Session session) {
+        // search_range <start_date> <end_date> [vaccine]
+        PrintStream out = session.getOut();
+        if (session.getCurrentCaregiver() == null && session.getCurrentPatient() == null) {
+            fail(session, "Please login first!");
+            return;
+        }
+        if (tokens.length != 3 && tokens.length != 4) {
+            fail(session, "Please enter a start date, an end date and optionally a vaccine!");
+            return;
+        }
+        Date from;
+        Date to;
+        try {
+            from = Date.valueOf(tokens[1]);
+            to = Date.valueOf(tokens[2]);
+        } catch (IllegalArgumentException e) {
+            fail(session, "Please print date in the format: yyyy-mm-dd");
+            return;
+        }
+        if (to.before(from)) {
+            fail(session, "The end date cannot be before the start date!");
+            return;
+        }
+        String vName = tokens.length == 4 ? tokens[3] : null;
+
+        // stream one line per day, counted by the availability index or by a single GROUP BY Time
+        // query, while the doses are looked up alongside
+        PrintWriter writer = new PrintWriter(new BufferedWriter(new OutputStreamWriter(out), 1 << 16));
+        try {
+            VaccineCache cache = VaccineCache.getInstance();
+            CompletableFuture<SortedMap<String, Integer>> doses = cache.isAllFresh()
+                    ? CompletableFuture.completedFuture(cache.getAll()) : AsyncQueries.supply(cache::getAll);
+            int[] days = new int[1];
+            long[] slots = new long[1];
+            BiConsumer<Date, Integer> printDay = (day, free) -> {
+                writer.print(day);
+                writer.print(": ");
+                writer.print(free);
+                writer.println(free == 1 ? " free slot" : " free slots");
+                days[0]++;
+                slots[0] += free;
+            };
+            if (!AvailabilityIndex.getInstance().forEachFreeCount(from, to, printDay)) {
+                Repositories.availabilities().forEachFreeSlotCount(from, to, printDay);
+            }
+            if (days[0] == 0) {
+                writer.println("No availabilities found between " + from + " and " + to + "!");
+            } else {
+                writer.println(slots[0] + " free slot(s) on " + days[0] + " day(s)");
+            }
+            SortedMap<String, Integer> stock = AsyncQueries.join(doses);
+            if (vName != null) {
+                Integer remaining = stock.get(vName);
+                if (remaining == null) {
+                    writer.println(vName + " is not in our inventory.");
+                    session.setLastCommandFailed(true);
+                } else {
+                    writer.println(vName + ": " + remaining + " doses");
+                }
+            } else {
+                for (Map.Entry<String, Integer> vaccine : stock.entrySet()) {
+                    writer.println(vaccine.getKey() + ": " + vaccine.getValue() + " doses");
+                }
+            }
+        } catch (SQLException e) {
+            session.setLastCommandFailed(true);
+            writer.println("Please try again!");
+            e.printStackTrace();
+        } finally {
+            writer.flush();
+        }
+    }
+
+    private static void reserve(String[] tokens, Session session) {
+        PrintStream out = session.getOut();
+        if (session.getCurrentCaregiver() != null) {
+            fail(session, "Please login as a patient!");
             return;
-        } else if (currentPatient == null) {
-            System.out.println("Please login first!");
+        } else if (session.getCurrentPatient() == null) {
+            fail(session, "Please login first!");
             return;
         }
 
         if (tokens.length != 3) {
-            System.out.println("Please enter both date and vaccine!");
+            fail(session, "Please enter both date and vaccine!");
             return;
         }
 
         String date = tokens[1];
         String vName = tokens[2];
-        Vaccine vaccine = null;
 
         Date d;
         try {
             d = Date.valueOf(date);
         } catch (IllegalArgumentException e) {
-            System.out.println("Please print date in the format: yyyy-mm-dd");
+            fail(session, "Please print date in the format: yyyy-mm-dd");
             return;
         }
 
+        Appointment.AppointmentReserver reserver =
+                new Appointment.AppointmentReserver(d, session.getCurrentPatient().getUsername(), vName);
+        Appointment appointment;
         try {
-            vaccine = new Vaccine.VaccineGetter(tokens[2]).get();
+            appointment = reserver.reserve();
         } catch (SQLException e) {
-            System.out.println("Error occurred with chosen vaccine!");
+            fail(session, "Please try again!");
             e.printStackTrace();
+            return;
         }
 
-        ConnectionManager cm = new ConnectionManager();
-        Connection con = cm.createConnection();
+        switch (reserver.getStatus()) {
+            case RESERVED:
+                out.println("Successfully scheduled:\nAppointment ID: " + appointment.getAptId() +
+                        "\nCaregiver username: " + appointment.getCaregiverUsername());
+                break;
+            case UNKNOWN_VACCINE:
+                fail(session, vName + " is not in our inventory. We currently have these vaccines in" +
+                        " our inventory: " + listVaccines());
+                break;
+            case NO_CAREGIVER:
+                fail(session, "No caregiver is available! Use waitlist " + d + " " + vName +
+                        " to be booked as soon as a slot opens.");
+                break;
+            case NO_DOSES:
+                fail(session, "Not enough available doses!");
+                break;
+        }
+    }
 
-        // Checking if vaccine is in stock
+    private static void waitlist(String[] tokens, Session session) {
+        // waitlist <date> <vaccine>
+        PrintStream out = session.getOut();
+        if (session.getCurrentCaregiver() != null) {
+            fail(session, "Please login as a patient!");
+            return;
+        } else if (session.getCurrentPatient() == null) {
+            fail(session, "Please login first!");
+            return;
+        }
+        if (tokens.length != 3) {
+            fail(session, "Please enter both date and vaccine!");
+            return;
+        }
+        String vName = tokens[2];
+        Date d;
         try {
-            PreparedStatement getAllVaccines = con.prepareStatement("SELECT Name FROM vaccines");
-            ResultSet rs = getAllVaccines.executeQuery();
-            StringBuffer availVax = new StringBuffer();
-            while (rs.next()) {
-                availVax.append("\n").append(rs.getString(1)).append(" ");
-            }
-            if (availVax.indexOf(vName) == -1) {
-                System.out.println(vName + " is not in our inventory. We currently have these vaccines in" +
-                        " our inventory: " + availVax);
-            }
-        } catch (SQLException e) {
-            e.printStackTrace();
+            d = Date.valueOf(tokens[1]);
+        } catch (IllegalArgumentException e) {
+            fail(session, "Please print date in the format: yyyy-mm-dd");
+            return;
         }
-
-        // Checking if any availabilities
-        String getAvail = "SELECT cUsername FROM Availabilities WHERE Time = ? AND vName IS NULL AND pUsername IS NULL ORDER BY cUsername";
-        String caregiver = null;
         try {
-            PreparedStatement statement_1 = con.prepareStatement(getAvail);
-            statement_1.setDate(1, d);
-            ResultSet resultSet_1;
-            resultSet_1 = statement_1.executeQuery();
-            if (!resultSet_1.isBeforeFirst()) {
-                System.out.println("No caregiver is available!");
+            if (!VaccineCache.getInstance().contains(vName)) {
+                fail(session, vName + " is not in our inventory. We currently have these vaccines in" +
+                        " our inventory: " + listVaccines());
                 return;
-            } else {
-                StringBuffer availCaregivers = new StringBuffer();
-                while (resultSet_1.next()) {
-                    String cName = resultSet_1.getString(1);
-                    availCaregivers.append(cName).append(" ");
-                }
-                caregiver = availCaregivers.substring(0, availCaregivers.indexOf(" "));
             }
-        } catch (SQLException e) {
-            e.printStackTrace();
-        }
-
-        //
-        String checkAvail = "SELECT aptId FROM Availabilities WHERE Time = ? AND vName IS NULL AND pUsername IS NULL ORDER BY cUsername";
-        int id = 0;
-        try {
-            PreparedStatement statement = con.prepareStatement(checkAvail);
-            statement.setDate(1, d);
-            ResultSet rs;
-            rs = statement.executeQuery();
-            if (!rs.next()) {
+            // a patient who already has an appointment on the date would be booked a second slot
+            String username = session.getCurrentPatient().getUsername();
+            boolean[] booked = new boolean[1];
+            Repositories.availabilities().forEachAppointment(username, false, d, d,
+                    Session.PageCursor.START.getTime(), Session.PageCursor.START.getAptId(), 0, 1, false,
+                    appointment -> booked[0] = true);
+            if (booked[0]) {
+                fail(session, "You already have an appointment on " + d + "!");
                 return;
             }
-            if (vaccine.getAvailableDoses() == 0) {
-                System.out.println("Not enough available doses!");
+            // the index may lag behind other nodes, so an open slot it reports is confirmed in the database
+            String firstFree = AvailabilityIndex.getInstance().firstFreeCaregiver(d);
+            if ((firstFree == null || !firstFree.isEmpty())
+                    && !Repositories.availabilities().findFreeCaregivers(d).isEmpty()) {
+                fail(session, "There are open slots on " + d + ", please reserve instead!");
                 return;
+            }
+            Waitlist.WaitlistJoiner joiner = new Waitlist.WaitlistJoiner(d, username, vName);
+            joiner.join();
+            // a slot the index did not know about, or one freed meanwhile, goes to the queue straight away
+            new Waitlist.WaitlistAllocator(d, d).allocate();
+            int position = Repositories.waitlist().position(d, username);
+            if (position == 0) {
+                // a slot opened and this patient was booked straight away
+                out.println("A slot opened up, see show_appointments --from " + d + " --to " + d);
+            } else if (joiner.isAdded()) {
+                out.println("Added to the waitlist for " + d + ", you are number " + position + " in line.");
             } else {
-                id = rs.getInt(1);
+                out.println("You are already on the waitlist for " + d + ", number " + position + " in line.");
             }
-        } catch(SQLException e){
+        } catch (SQLException e) {
+            fail(session, "Please try again!");
             e.printStackTrace();
         }
-        System.out.println("Successfully scheduled:\nAppointment ID: " + id + "\nCaregiver username: " + caregiver);
+    }
 
-        String updateApt = "UPDATE Availabilities SET pUsername = ?, vName = ? WHERE aptId = ?;";
+    private static String listVaccines() {
+        StringBuilder availVax = new StringBuilder();
         try {
-            PreparedStatement statement2 = con.prepareStatement(updateApt);
-            statement2.setString(1, currentPatient.getUsername());
-            statement2.setString(2, vName);
-            statement2.setInt(3, id);
-            statement2.executeUpdate();
-            vaccine.decreaseAvailableDoses(1);
+            for (String name : VaccineCache.getInstance().getAll().keySet()) {
+                availVax.append("\n").append(name).append(" ");
+            }
         } catch (SQLException e) {
             e.printStackTrace();
         }
+        return availVax.toString();
     }
 
-    private static void uploadAvailability(String[] tokens) {
+    private static void uploadAvailability(String[] tokens, Session session) {
+        PrintStream out = session.getOut();
         // upload_availability <date>
         // check 1: check if the current logged-in user is a caregiver
-        if (currentCaregiver == null) {
-            System.out.println("Please login as a caregiver first!");
+        if (session.getCurrentCaregiver() == null) {
+            fail(session, "Please login as a caregiver first!");
             return;
         }
         // check 2: the length for tokens need to be exactly 2 to include all information (with the operation name)
         if (tokens.length != 2) {
-            System.out.println("Please try again!");
+            fail(session, "Please try again!");
             return;
         }
         String date = tokens[1];
+        Date d;
+        try {
+            d = Date.valueOf(date);
+        } catch (IllegalArgumentException e) {
+            fail(session, "Please enter a valid date!");
+            return;
+        }
+        try {
+            session.getCurrentCaregiver().uploadAvailability(d);
+            out.println("Availability uploaded!");
+        } catch (SQLException e) {
+            // a caregiver can only offer one slot per date
+            if (SqlExecutor.isDuplicateKey(e)) {
+                fail(session, "Availability for " + d + " already uploaded!");
+                return;
+            }
+            fail(session, "Error occurred when uploading availability");
+            e.printStackTrace();
+        }
+    }
+
+    private static void uploadAvailabilityRange(String[] tokens, Session session) {
+        PrintStream out = session.getOut();
+        // upload_availability_range <start_date> <end_date> [weekdays]
+        if (session.getCurrentCaregiver() == null) {
+            fail(session, "Please login as a caregiver first!");
+            return;
+        }
+        if (tokens.length != 3 && tokens.length != 4) {
+            fail(session, "Please try again!");
+            return;
+        }
+        LocalDate start;
+        LocalDate end;
         try {
-            Date d = Date.valueOf(date);
-            currentCaregiver.uploadAvailability(d);
-            System.out.println("Availability uploaded!");
+            start = Date.valueOf(tokens[1]).toLocalDate();
+            end = Date.valueOf(tokens[2]).toLocalDate();
         } catch (IllegalArgumentException e) {
-            System.out.println("Please enter a valid date!");
+            fail(session, "Please enter a valid date!");
+            return;
+        }
+        if (end.isBefore(start)) {
+            fail(session, "The end date cannot be before the start date!");
+            return;
+        }
+        Set<DayOfWeek> weekdays = EnumSet.allOf(DayOfWeek.class);
+        if (tokens.length == 4) {
+            weekdays = EnumSet.noneOf(DayOfWeek.class);
+            for (String day : tokens[3].split(",")) {
+                DayOfWeek weekday = parseWeekday(day);
+                if (weekday == null) {
+                    fail(session, "Please enter weekdays as a comma separated list, e.g. MON,WED,FRI");
+                    return;
+                }
+                weekdays.add(weekday);
+            }
+        }
+        List<Date> dates = new ArrayList<>();
+        for (LocalDate day = start; !day.isAfter(end); day = day.plusDays(1)) {
+            if (weekdays.contains(day.getDayOfWeek())) {
+                dates.add(Date.valueOf(day));
+            }
+        }
+        try {
+            int inserted = session.getCurrentCaregiver().uploadAvailabilities(dates);
+            out.println("Availability uploaded for " + inserted + " day(s), " +
+                    (dates.size() - inserted) + " already uploaded.");
         } catch (SQLException e) {
-            System.out.println("Error occurred when uploading availability");
+            // one of the dates was uploaded by another session at the same time, the batch rolled back
+            if (SqlExecutor.isDuplicateKey(e)) {
+                fail(session, "Availability for some of these dates was uploaded at the same time, please try again!");
+                return;
+            }
+            fail(session, "Error occurred when uploading availability");
             e.printStackTrace();
         }
     }
 
-    private static void cancel(String[] tokens) {
-        if (currentCaregiver == null && currentPatient == null) {
-            System.out.println("Please login first!");
+    private static DayOfWeek parseWeekday(String day) {
+        String prefix = day.trim().toUpperCase();
+        if (prefix.length() < 3) {
+            return null;
+        }
+        for (DayOfWeek weekday : DayOfWeek.values()) {
+            if (weekday.name().startsWith(prefix)) {
+                return weekday;
+            }
+        }
+        return null;
+    }
+
+    private static void cancel(String[] tokens, Session session) {
+        // cancel <appointment_id>
+        PrintStream out = session.getOut();
+        if (session.getCurrentCaregiver() == null && session.getCurrentPatient() == null) {
+            fail(session, "Please login first!");
+            return;
         }
 
         if (tokens.length != 2) {
-            System.out.println("Please enter the id of the appointment you want cancelled!");
+            fail(session, "Please enter the id of the appointment you want cancelled!");
             return;
         }
 
-        ConnectionManager cm = new ConnectionManager();
-        Connection con = cm.createConnection();
-        String id = tokens[1];
-        String updateApt = "UPDATE Availabilities SET pUsername = ?, vName = ? WHERE aptId = ?;";
-        String addBackDose = "SELECT vName FROM Availabilities WHERE aptID = ?";
+        int id;
         try {
-            PreparedStatement statement2 = con.prepareStatement(updateApt);
-            statement2.setString(1, null);
-            statement2.setString(2, null);
-            statement2.setString(3, id);
-            statement2.executeUpdate();
-
-            PreparedStatement add = con.prepareStatement(addBackDose);
-            add.setString(1, id);
-            ResultSet rs = add.executeQuery();
-            String vax = rs.getString(1);
-            Vaccine vac = new Vaccine.VaccineGetter(vax).get();
-            vac.increaseAvailableDoses(1);
+            id = Integer.parseInt(tokens[1]);
+        } catch (NumberFormatException e) {
+            fail(session, "Please enter the id of the appointment you want cancelled!");
+            return;
+        }
+        String username = session.getCurrentCaregiver() != null ? session.getCurrentCaregiver().getUsername()
+                : session.getCurrentPatient().getUsername();
+        try {
+            Appointment cancelled = new Appointment.AppointmentCanceller(id, username).cancel();
+            if (cancelled == null) {
+                fail(session, "You have no appointment with this id!");
+                return;
+            }
+            out.println("Successfully cancelled");
         } catch (SQLException e) {
-            System.out.println("Successfully cancelled");
+            fail(session, "Please try again!");
+            e.printStackTrace();
         }
     }
-
-    private static void addDoses(String[] tokens) {
+    private static void addDoses(String[] tokens, Session session) {
+        PrintStream out = session.getOut();
         // add_doses <vaccine> <number>
         // check 1: check if the current logged-in user is a caregiver
-        if (currentCaregiver == null) {
-            System.out.println("Please login as a caregiver first!");
+        if (session.getCurrentCaregiver() == null) {
+            fail(session, "Please login as a caregiver first!");
             return;
         }
         // check 2: the length for tokens need to be exactly 3 to include all information (with the operation name)
         if (tokens.length != 3) {
-            System.out.println("Please try again!");
+            fail(session, "Please try again!");
             return;
         }
         String vaccineName = tokens[1];
-        int doses = Integer.parseInt(tokens[2]);
+        int doses;
+        try {
+            doses = Integer.parseInt(tokens[2]);
+        } catch (NumberFormatException e) {
+            fail(session, "Please enter a positive number of doses!");
+            return;
+        }
+        if (doses <= 0) {
+            fail(session, "Please enter a positive number of doses!");
+            return;
+        }
         Vaccine vaccine = null;
         try {
             vaccine = new Vaccine.VaccineGetter(vaccineName).get();
         } catch (SQLException e) {
-            System.out.println("Error occurred when adding doses");
+            fail(session, "Error occurred when adding doses");
             e.printStackTrace();
+            return;
         }
         // check 3: if getter returns null, it means that we need to create the vaccine and insert it into the Vaccines
         //          table
@@ -532,89 +861,234 @@ public class Scheduler {
                 vaccine = new Vaccine.VaccineBuilder(vaccineName, doses).build();
                 vaccine.saveToDB();
             } catch (SQLException e) {
-                System.out.println("Error occurred when adding doses");
+                fail(session, "Error occurred when adding doses");
                 e.printStackTrace();
+                return;
             }
         } else {
             // if the vaccine is not null, meaning that the vaccine already exists in our table
             try {
                 vaccine.increaseAvailableDoses(doses);
             } catch (SQLException e) {
-                System.out.println("Error occurred when adding doses");
+                fail(session, "Error occurred when adding doses");
                 e.printStackTrace();
+                return;
             }
         }
-        System.out.println("Doses updated!");
+        out.println("Doses updated!");
     }
 
-    private static void showAppointments(String[] tokens) {
-        if (currentCaregiver == null && currentPatient == null) {
-            System.out.println("Please login first!");
+    private static void importCsv(String[] tokens, Session session) {
+        PrintStream out = session.getOut();
+        // import <patients|caregivers|vaccines> <file.csv>
+        if (session.getCurrentCaregiver() == null) {
+            fail(session, "Please login as a caregiver first!");
+            return;
+        }
+        if (tokens.length != 3) {
+            fail(session, "Please try again!");
             return;
         }
+        CsvImporter.Type type = CsvImporter.parseType(tokens[1]);
+        if (type == null) {
+            fail(session, "Please choose patients, caregivers or vaccines to import!");
+            return;
+        }
+        CsvImporter importer = new CsvImporter(type, out);
+        long start = System.nanoTime();
+        try {
+            // clients name a file in the import directory, never an arbitrary path on the server
+            importer.run(CsvImporter.IMPORT_DIRECTORY.resolve(tokens[2]));
+        } catch (IllegalArgumentException e) {
+            fail(session, "Please name a file in the import directory!");
+            return;
+        } catch (IOException e) {
+            fail(session, "Could not read " + tokens[2]);
+            return;
+        }
+        out.println(String.format("Imported %d %s in %.1f s, %d rows failed", importer.getImported(),
+                type.name().toLowerCase(Locale.ROOT), (System.nanoTime() - start) / 1e9, importer.getFailed()));
+    }
 
-        if (tokens.length != 1) {
-            System.out.println("Please try again!");
+    private static void export(String[] tokens, Session session) {
+        PrintStream out = session.getOut();
+        // export <start_date> <end_date> <path> [--format csv|columnar] [--since <appointment_id>]
+        if (session.getCurrentCaregiver() == null) {
+            fail(session, "Please login as a caregiver first!");
             return;
         }
-        if (currentCaregiver != null) {
-            ConnectionManager cm = new ConnectionManager();
-            Connection con = cm.createConnection();
-            String getApt = "SELECT aptId, vName, Time, pUsername  FROM Availabilities WHERE cUsername = ? ORDER BY aptId";
-            try {
-                PreparedStatement statement = con.prepareStatement(getApt);
-                statement.setString(1, currentCaregiver.getUsername());
-                ResultSet rs;
-                rs = statement.executeQuery();
-                if (!rs.isBeforeFirst() ) {
-                    System.out.println("You have no appointments scheduled!");
-                } else {
-                    while (rs.next()) {
-                        System.out.println("Appointment ID: " + rs.getInt(1) + ", Vaccine Name: " +
-                                rs.getString(2) + ", Date: " + rs.getDate(3) + ", Patient Name: "
-                                + rs.getString(4));
+        if (tokens.length < 4) {
+            fail(session, "Please try again!");
+            return;
+        }
+        AvailabilityExporter.Format format = AvailabilityExporter.Format.CSV;
+        int afterAptId = -1;
+        Date from;
+        Date to;
+        try {
+            from = Date.valueOf(tokens[1]);
+            to = Date.valueOf(tokens[2]);
+            for (int i = 4; i < tokens.length; i += 2) {
+                if (i + 1 >= tokens.length) {
+                    fail(session, "Please try again!");
+                    return;
+                }
+                if (tokens[i].equals("--format")) {
+                    format = AvailabilityExporter.parseFormat(tokens[i + 1]);
+                    if (format == null) {
+                        fail(session, "Please choose csv or columnar as the format!");
+                        return;
                     }
+                } else if (tokens[i].equals("--since")) {
+                    afterAptId = Integer.parseInt(tokens[i + 1]);
+                } else {
+                    fail(session, "Please try again!");
+                    return;
                 }
-
-            } catch (SQLException e) {
-                e.printStackTrace();
-            } finally {
-                cm.closeConnection();
             }
-        } else if (currentPatient != null) {
-            ConnectionManager cm = new ConnectionManager();
-            Connection con = cm.createConnection();
-            String getApt = "SELECT aptId, vName, Time, cUsername  FROM Availabilities WHERE pUsername = ? ORDER BY aptId";
-            try {
-                PreparedStatement statement = con.prepareStatement(getApt);
-                statement.setString(1, currentPatient.getUsername());
-                ResultSet rs;
-                rs = statement.executeQuery();
-                if (!rs.isBeforeFirst() ) {
-                    System.out.println("You have no appointments scheduled!");
-                } else {
-                    while (rs.next()) {
-                        System.out.println("Appointment ID: " + rs.getInt(1) + ", Vaccine Name: " +
-                                rs.getString(2) + ", Date: " + rs.getDate(3) + ", Caregiver username: "
-                                + rs.getString(4));
-                    }
+        } catch (IllegalArgumentException e) {
+            fail(session, "Please enter valid dates and appointment ids!");
+            return;
+        }
+        if (from.after(to)) {
+            fail(session, "The start date must not be after the end date!");
+            return;
+        }
+        AvailabilityExporter exporter = new AvailabilityExporter(format);
+        long start = System.nanoTime();
+        try {
+            // clients name a file in the export directory, never an arbitrary path on the server
+            Path file = AvailabilityExporter.EXPORT_DIRECTORY.resolve(tokens[3]);
+            Files.createDirectories(file.getParent());
+            exporter.run(from, to, afterAptId, file);
+        } catch (IllegalArgumentException e) {
+            fail(session, "Please name a file in the export directory!");
+            return;
+        } catch (IOException e) {
+            fail(session, "Could not write " + tokens[3]);
+            return;
+        } catch (SQLException e) {
+            fail(session, "Error occurred when exporting");
+            e.printStackTrace();
+            return;
+        }
+        out.println(String.format("Exported %d slots to %s in %.1f s, last appointment id %d", exporter.getRows(),
+                tokens[3], (System.nanoTime() - start) / 1e9, exporter.getLastAptId()));
+    }
+
+    private static void showAppointments(String[] tokens, Session session) {
+        // show_appointments [--from <date>] [--to <date>] [--page <n>] [--limit <k>] [--history]
+        PrintStream out = session.getOut();
+        if (session.getCurrentCaregiver() == null && session.getCurrentPatient() == null) {
+            fail(session, "Please login first!");
+            return;
+        }
+
+        Date from = MIN_DATE;
+        Date to = MAX_DATE;
+        int page = 1;
+        int limit = 0;
+        boolean includeHistory = false;
+        try {
+            int i = 1;
+            while (i < tokens.length) {
+                // archived appointments are only read when asked for
+                if (tokens[i].equals("--history")) {
+                    includeHistory = true;
+                    i++;
+                    continue;
+                }
+                if (i + 1 >= tokens.length) {
+                    throw new IllegalArgumentException();
+                }
+                String value = tokens[i + 1];
+                switch (tokens[i]) {
+                    case "--from":
+                        from = Date.valueOf(value);
+                        break;
+                    case "--to":
+                        to = Date.valueOf(value);
+                        break;
+                    case "--page":
+                        page = Integer.parseInt(value);
+                        break;
+                    case "--limit":
+                        limit = Integer.parseInt(value);
+                        break;
+                    default:
+                        throw new IllegalArgumentException();
                 }
+                i += 2;
+            }
+            if (page < 1 || limit < 0) {
+                throw new IllegalArgumentException();
+            }
+        } catch (IllegalArgumentException e) {
+            fail(session, "Please try again!");
+            return;
+        }
+        if (page > 1 && limit == 0) {
+            limit = DEFAULT_PAGE_SIZE;
+        }
 
-            } catch (SQLException e) {
-                e.printStackTrace();
-            } finally {
-                cm.closeConnection();
+        boolean isCaregiver = session.getCurrentCaregiver() != null;
+        String username = isCaregiver ? session.getCurrentCaregiver().getUsername()
+                : session.getCurrentPatient().getUsername();
+        String otherLabel = isCaregiver ? ", Patient Name: " : ", Caregiver username: ";
+
+        // keyset pagination on (Time, aptId): resume after the last row of the closest page this
+        // session has already seen and only skip over the pages in between
+        String queryKey = username + " " + from + " " + to + " " + limit + " " + includeHistory;
+        Session.PageCursor cursor = session.getPageCursor(queryKey, page - 1);
+        int skip = (page - 1 - cursor.getPage()) * limit;
+
+        // stream rows straight to the output, never holding more than one fetch in memory
+        PrintWriter writer = new PrintWriter(new BufferedWriter(new OutputStreamWriter(out), 1 << 16));
+        Appointment[] last = new Appointment[1];
+        int[] rows = new int[1];
+        try {
+            Repositories.availabilities().forEachAppointment(username, isCaregiver, from, to,
+                    cursor.getTime(), cursor.getAptId(), skip, limit, includeHistory, appointment -> {
+                        writer.print("Appointment ID: ");
+                        writer.print(appointment.getAptId());
+                        writer.print(", Vaccine Name: ");
+                        writer.print(appointment.getVaccineName());
+                        writer.print(", Date: ");
+                        writer.print(appointment.getTime());
+                        writer.print(otherLabel);
+                        writer.println(isCaregiver ? appointment.getPatientUsername()
+                                : appointment.getCaregiverUsername());
+                        last[0] = appointment;
+                        rows[0]++;
+                    });
+            if (rows[0] == 0) {
+                writer.println(page == 1 ? "You have no appointments scheduled!" : "No more appointments.");
+            } else if (limit != 0 && rows[0] == limit) {
+                session.putPageCursor(queryKey, new Session.PageCursor(page, last[0].getTime(), last[0].getAptId()));
+                writer.println("More appointments: show_appointments" +
+                        (from.equals(MIN_DATE) ? "" : " --from " + from) +
+                        (to.equals(MAX_DATE) ? "" : " --to " + to) +
+                        " --page " + (page + 1) + " --limit " + limit +
+                        (includeHistory ? " --history" : ""));
             }
+        } catch (SQLException e) {
+            // the rows streamed so far go out ahead of the error
+            writer.flush();
+            fail(session, "Please try again!");
+            e.printStackTrace();
+        } finally {
+            writer.flush();
         }
     }
 
-    private static void logout(String[] tokens) {
-        if (currentCaregiver == null && currentPatient == null) {
-            System.out.println("Please login first.");
+    private static void logout(String[] tokens, Session session) {
+        PrintStream out = session.getOut();
+        if (session.getCurrentCaregiver() == null && session.getCurrentPatient() == null) {
+            fail(session, "Please login first.");
             return;
         }
-        currentCaregiver = null;
-        currentPatient = null;
-        System.out.println("Successfully logged out!");
+        session.setCurrentCaregiver(null);
+        session.setCurrentPatient(null);
+        out.println("Successfully logged out!");
     }
 }
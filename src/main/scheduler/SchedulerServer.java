@@ -0,0 +1,100 @@
+package scheduler;
+
+import scheduler.util.Env;
+
+import java.io.BufferedOutputStream;
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.PrintStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.UnknownHostException;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Serves the scheduler command grammar to many concurrent clients over TCP, one session per
+ * connection (e.g. telnet localhost 7777). Each session runs on its own virtual thread when the
+ * JVM supports them and on a platform thread otherwise.
+ *
+ * Passwords are sent in plain text, so the server only listens on the loopback interface unless
+ * ServerBindAddress names another address to bind to.
+ */
+public class SchedulerServer {
+
+    public static final int DEFAULT_PORT = 7777;
+
+    private final int port;
+    private final ExecutorService sessions = newSessionExecutor();
+    private final AtomicInteger openSessions = new AtomicInteger();
+
+    public SchedulerServer(int port) {
+        this.port = port;
+    }
+
+    public void run() throws IOException {
+        InetAddress address = bindAddress();
+        try (ServerSocket server = new ServerSocket(port, 0, address)) {
+            System.out.println("Scheduler server listening on " + address.getHostAddress() + " port " + port);
+            while (true) {
+                Socket socket = server.accept();
+                sessions.execute(() -> serve(socket));
+            }
+        } finally {
+            sessions.shutdownNow();
+        }
+    }
+
+    public int getOpenSessions() {
+        return openSessions.get();
+    }
+
+    private void serve(Socket socket) {
+        openSessions.incrementAndGet();
+        try (Socket s = socket;
+             BufferedReader in = new BufferedReader(new InputStreamReader(s.getInputStream(), StandardCharsets.UTF_8));
+             PrintStream out = new PrintStream(new BufferedOutputStream(s.getOutputStream()), false,
+                     StandardCharsets.UTF_8)) {
+            // a reply and its prompt leave in one flush; without TCP_NODELAY, Nagle would hold the
+            // last segment back until the client's delayed ACK, about 40 ms per command
+            s.setTcpNoDelay(true);
+            Session session = new Session(out);
+            Scheduler.printWelcome(out);
+            while (true) {
+                out.print("> ");
+                out.flush();
+                String line = in.readLine();
+                if (line == null || !Scheduler.execute(line.trim(), session)) {
+                    return;
+                }
+            }
+        } catch (IOException e) {
+            // the client went away, nothing to clean up beyond the socket
+        } finally {
+            openSessions.decrementAndGet();
+        }
+    }
+
+    // the loopback interface unless ServerBindAddress is set, an address that does not resolve fails the start
+    private static InetAddress bindAddress() throws UnknownHostException {
+        String address = Env.get("ServerBindAddress", null);
+        return address == null ? InetAddress.getLoopbackAddress() : InetAddress.getByName(address);
+    }
+
+    // Executors.newVirtualThreadPerTaskExecutor() is only available from Java 21 on
+    private static ExecutorService newSessionExecutor() {
+        try {
+            return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+        } catch (ReflectiveOperationException e) {
+            return Executors.newCachedThreadPool(r -> {
+                Thread t = new Thread(r, "scheduler-session");
+                t.setDaemon(true);
+                return t;
+            });
+        }
+    }
+}
@@ -0,0 +1,118 @@
+package scheduler;
+
+import scheduler.db.ReadFreshness;
+import scheduler.model.Caregiver;
+import scheduler.model.Patient;
+
+import java.io.PrintStream;
+import java.sql.Date;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Per-connection state: who is logged in and where command output goes.
+ */
+public class Session {
+
+    // objects to keep track of the currently logged-in user
+    // Note: it is always true that at most one of currentCaregiver and currentPatient is not null
+    //       since only one user can be logged-in at a time in a session
+    private Caregiver currentCaregiver = null;
+    private Patient currentPatient = null;
+    private final PrintStream out;
+    // whether the last command run in this session was rejected or hit an error
+    private boolean lastCommandFailed = false;
+    // when this session last wrote, so that its reads see its writes
+    private final ReadFreshness readFreshness = ReadFreshness.newSession();
+
+    // where each page of the last paginated show_appointments ended, keyed by page number
+    private String pagedQuery = null;
+    private final TreeMap<Integer, PageCursor> pageCursors = new TreeMap<>();
+
+    public Session(PrintStream out) {
+        this.out = out;
+    }
+
+    // Getters
+    public Caregiver getCurrentCaregiver() {
+        return currentCaregiver;
+    }
+
+    public Patient getCurrentPatient() {
+        return currentPatient;
+    }
+
+    public ReadFreshness getReadFreshness() {
+        return readFreshness;
+    }
+
+    public PrintStream getOut() {
+        return out;
+    }
+
+    public boolean lastCommandFailed() {
+        return lastCommandFailed;
+    }
+
+    // Setters
+    public void setCurrentCaregiver(Caregiver currentCaregiver) {
+        this.currentCaregiver = currentCaregiver;
+    }
+
+    public void setCurrentPatient(Patient currentPatient) {
+        this.currentPatient = currentPatient;
+    }
+
+    public void setLastCommandFailed(boolean lastCommandFailed) {
+        this.lastCommandFailed = lastCommandFailed;
+    }
+
+    // Returns the end of the latest page up to maxPage seen for the query, or the start of the results
+    public PageCursor getPageCursor(String query, int maxPage) {
+        if (query.equals(pagedQuery)) {
+            Map.Entry<Integer, PageCursor> entry = pageCursors.floorEntry(maxPage);
+            if (entry != null) {
+                return entry.getValue();
+            }
+        }
+        return PageCursor.START;
+    }
+
+    public void putPageCursor(String query, PageCursor cursor) {
+        if (!query.equals(pagedQuery)) {
+            pagedQuery = query;
+            pageCursors.clear();
+        }
+        pageCursors.put(cursor.getPage(), cursor);
+    }
+
+    /**
+     * The (Time, aptId) key of the last appointment on a page of show_appointments.
+     */
+    public static class PageCursor {
+        public static final PageCursor START = new PageCursor(0, Date.valueOf("0001-01-01"), -1);
+
+        private final int page;
+        private final Date time;
+        private final int aptId;
+
+        public PageCursor(int page, Date time, int aptId) {
+            this.page = page;
+            this.time = time;
+            this.aptId = aptId;
+        }
+
+        // Getters
+        public int getPage() {
+            return page;
+        }
+
+        public Date getTime() {
+            return time;
+        }
+
+        public int getAptId() {
+            return aptId;
+        }
+    }
+}
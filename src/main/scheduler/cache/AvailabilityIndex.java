@@ -0,0 +1,260 @@
+package scheduler.cache;
+
+import scheduler.db.ReadFreshness;
+import scheduler.metrics.MetricsRegistry;
+import scheduler.repository.Repositories;
+import scheduler.util.Env;
+import scheduler.util.ScheduledJob;
+
+import java.sql.Date;
+import java.sql.SQLException;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableSet;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.ConcurrentSkipListSet;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.BiConsumer;
+
+/**
+ * In-process index of open availabilities from today on: for each date, the caregivers that are
+ * still free, ordered by username.
+ *
+ * It is loaded when first used, kept current by uploads, reservations and cancellations made by
+ * this process, and rebuilt from the Availabilities table every AvailabilityIndexRefreshSeconds
+ * (default 30) so that several scheduler nodes converge. Dates before the day the index was last
+ * loaded are not indexed; lookups for them return null so callers fall back to the database.
+ *
+ * The index can lag behind other nodes, so its answers are hints: a caller that acts on "nobody is
+ * free" or "someone is free" must confirm it with the database.
+ */
+public class AvailabilityIndex {
+
+    private static final AvailabilityIndex INSTANCE = new AvailabilityIndex();
+
+    private final ConcurrentSkipListMap<LocalDate, NavigableSet<String>> freeByDate = new ConcurrentSkipListMap<>();
+    private volatile LocalDate indexedFrom = null;
+    private final ScheduledJob reconciler;
+
+    // updates take the read lock and run concurrently; a reload takes the write lock to replay the
+    // updates made while it was reading and swap in what it read, with no update in between
+    private final ReadWriteLock swapLock = new ReentrantReadWriteLock();
+    // updates made since the running reload started, or null when no reload is running
+    private volatile Queue<Update> updatesDuringReload = null;
+
+    // metrics
+    private final AtomicLong lookups = new AtomicLong();
+    private final AtomicLong fallbacks = new AtomicLong();
+    private final AtomicLong reconciles = new AtomicLong();
+
+    public static AvailabilityIndex getInstance() {
+        return INSTANCE;
+    }
+
+    private AvailabilityIndex() {
+        long period = Env.positiveInt("AvailabilityIndexRefreshSeconds", 30);
+        reconciler = new ScheduledJob("availability-index-reconciler", "Reloading the availability index",
+                period, period, this::reload);
+        reconciler.start();
+
+        MetricsRegistry metrics = MetricsRegistry.getInstance();
+        metrics.gauge("index.availability.dates", this::getIndexedDates);
+        metrics.gauge("index.availability.lookups", this::getLookups);
+        metrics.gauge("index.availability.fallbacks", this::getFallbacks);
+        metrics.gauge("index.availability.reconciles", this::getReconciles);
+    }
+
+    /**
+     * Returns the caregivers free on a date ordered by username, or null if the date is not indexed.
+     */
+    public List<String> freeCaregivers(Date time) {
+        NavigableSet<String> free = lookup(time);
+        return free == null ? null : new ArrayList<>(free);
+    }
+
+    /**
+     * Returns the first free caregiver on a date, "" if there is none, or null if the date is not indexed.
+     */
+    public String firstFreeCaregiver(Date time) {
+        NavigableSet<String> free = lookup(time);
+        if (free == null) {
+            return null;
+        }
+        String first = free.ceiling("");
+        return first == null ? "" : first;
+    }
+
+    /**
+     * Streams the number of free caregivers on each date between two dates that has any, in date
+     * order. Returns false without streaming anything if the start of the range is not indexed.
+     */
+    public boolean forEachFreeCount(Date from, Date to, BiConsumer<Date, Integer> consumer) {
+        if (indexedFrom == null) {
+            try {
+                reload();
+            } catch (SQLException e) {
+                fallbacks.incrementAndGet();
+                return false;
+            }
+        }
+        if (!isIndexed(from.toLocalDate())) {
+            fallbacks.incrementAndGet();
+            return false;
+        }
+        lookups.incrementAndGet();
+        if (from.after(to)) {
+            return true;
+        }
+        for (Map.Entry<LocalDate, NavigableSet<String>> e :
+                freeByDate.subMap(from.toLocalDate(), true, to.toLocalDate(), true).entrySet()) {
+            int free = e.getValue().size();
+            if (free > 0) {
+                consumer.accept(Date.valueOf(e.getKey()), free);
+            }
+        }
+        return true;
+    }
+
+    // a caregiver became free on a date: an upload or a cancellation
+    public void markFree(Date time, String caregiverUsername) {
+        update(new Update(time.toLocalDate(), caregiverUsername, true));
+    }
+
+    // a caregiver is no longer free on a date: a reservation
+    public void markBooked(Date time, String caregiverUsername) {
+        update(new Update(time.toLocalDate(), caregiverUsername, false));
+    }
+
+    /**
+     * Rebuilds the index from the database. Updates made by this process while the rebuild reads
+     * are replayed on top of what it read, so they are not lost.
+     */
+    public synchronized void reload() throws SQLException {
+        LocalDate today = LocalDate.now();
+        Queue<Update> updates = new ConcurrentLinkedQueue<>();
+        updatesDuringReload = updates;
+        ConcurrentSkipListMap<LocalDate, NavigableSet<String>> loaded = new ConcurrentSkipListMap<>();
+        // a lagging replica would undo bookings this node already knows about
+        try (ReadFreshness.Scope scope = ReadFreshness.PRIMARY.bind()) {
+            Repositories.availabilities().forEachOpenSlot(Date.valueOf(today), (time, caregiver) ->
+                    loaded.computeIfAbsent(time.toLocalDate(), d -> new ConcurrentSkipListSet<>()).add(caregiver));
+        } catch (SQLException | RuntimeException e) {
+            updatesDuringReload = null;
+            throw e;
+        }
+        swapLock.writeLock().lock();
+        try {
+            updatesDuringReload = null;
+            for (Update update : updates) {
+                update.applyTo(loaded, today);
+            }
+            freeByDate.headMap(today).clear();
+            freeByDate.keySet().retainAll(loaded.keySet());
+            freeByDate.putAll(loaded);
+            indexedFrom = today;
+        } finally {
+            swapLock.writeLock().unlock();
+        }
+        reconciles.incrementAndGet();
+    }
+
+    // Metrics
+    public long getLookups() {
+        return lookups.get();
+    }
+
+    public long getFallbacks() {
+        return fallbacks.get();
+    }
+
+    public long getReconciles() {
+        return reconciles.get();
+    }
+
+    public int getIndexedDates() {
+        return freeByDate.size();
+    }
+
+    @Override
+    public String toString() {
+        return "AvailabilityIndex{" +
+                "dates=" + getIndexedDates() +
+                ", lookups=" + getLookups() +
+                ", fallbacks=" + getFallbacks() +
+                ", reconciles=" + getReconciles() +
+                '}';
+    }
+
+    private NavigableSet<String> lookup(Date time) {
+        LocalDate date = time.toLocalDate();
+        if (indexedFrom == null) {
+            try {
+                reload();
+            } catch (SQLException e) {
+                fallbacks.incrementAndGet();
+                return null;
+            }
+        }
+        if (!isIndexed(date)) {
+            fallbacks.incrementAndGet();
+            return null;
+        }
+        lookups.incrementAndGet();
+        NavigableSet<String> free = freeByDate.get(date);
+        return free == null ? new ConcurrentSkipListSet<>() : free;
+    }
+
+    private void update(Update update) {
+        swapLock.readLock().lock();
+        try {
+            LocalDate from = indexedFrom;
+            if (from != null) {
+                update.applyTo(freeByDate, from);
+            }
+            Queue<Update> updates = updatesDuringReload;
+            if (updates != null) {
+                updates.add(update);
+            }
+        } finally {
+            swapLock.readLock().unlock();
+        }
+    }
+
+    private boolean isIndexed(LocalDate date) {
+        LocalDate from = indexedFrom;
+        return from != null && !date.isBefore(from);
+    }
+
+    // one markFree or markBooked
+    private static class Update {
+        private final LocalDate date;
+        private final String caregiverUsername;
+        private final boolean free;
+
+        Update(LocalDate date, String caregiverUsername, boolean free) {
+            this.date = date;
+            this.caregiverUsername = caregiverUsername;
+            this.free = free;
+        }
+
+        // dates before indexedFrom are not indexed
+        void applyTo(ConcurrentSkipListMap<LocalDate, NavigableSet<String>> index, LocalDate indexedFrom) {
+            if (free) {
+                if (!date.isBefore(indexedFrom)) {
+                    index.computeIfAbsent(date, d -> new ConcurrentSkipListSet<>()).add(caregiverUsername);
+                }
+            } else {
+                NavigableSet<String> caregivers = index.get(date);
+                if (caregivers != null) {
+                    caregivers.remove(caregiverUsername);
+                }
+            }
+        }
+    }
+}
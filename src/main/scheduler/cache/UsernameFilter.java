@@ -0,0 +1,102 @@
+package scheduler.cache;
+
+import scheduler.metrics.Counter;
+import scheduler.metrics.MetricsRegistry;
+import scheduler.repository.Repositories;
+import scheduler.util.BloomFilter;
+import scheduler.util.Env;
+
+import java.sql.SQLException;
+import java.util.Locale;
+import java.util.function.Consumer;
+
+/**
+ * In-process Bloom filter of the usernames of one account table, so that signing up with a free
+ * name, the common case, does not have to look the name up before hashing the password.
+ *
+ * The filter is loaded from the table on first use and every account created by this process
+ * is added to it. Names created by other scheduler nodes are not, so a negative answer is only
+ * a hint: the insert itself still relies on the primary key and reports a taken name. Names are
+ * lowercased because the database compares usernames case-insensitively.
+ *
+ * UsernameFilterCapacity (default 1000000) sets how many names the filter is sized for at a 1%
+ * false positive rate.
+ */
+public class UsernameFilter {
+
+    // Streams every stored username to the consumer
+    private interface Loader {
+        void forEachUsername(Consumer<String> consumer) throws SQLException;
+    }
+
+    private static final double FALSE_POSITIVE_RATE = 0.01;
+
+    private static final UsernameFilter PATIENTS = new UsernameFilter("patients",
+            consumer -> Repositories.patients().forEachUsername(consumer));
+    private static final UsernameFilter CAREGIVERS = new UsernameFilter("caregivers",
+            consumer -> Repositories.caregivers().forEachUsername(consumer));
+
+    private final Loader loader;
+
+    private final BloomFilter filter = new BloomFilter(Env.positiveInt("UsernameFilterCapacity", 1_000_000),
+            FALSE_POSITIVE_RATE);
+    private volatile boolean loaded = false;
+
+    // metrics
+    private final Counter negatives;
+    private final Counter positives;
+
+    public static UsernameFilter patients() {
+        return PATIENTS;
+    }
+
+    public static UsernameFilter caregivers() {
+        return CAREGIVERS;
+    }
+
+    private UsernameFilter(String table, Loader loader) {
+        this.loader = loader;
+        MetricsRegistry metrics = MetricsRegistry.getInstance();
+        negatives = metrics.counter("cache.usernames." + table + ".negatives");
+        positives = metrics.counter("cache.usernames." + table + ".positives");
+        metrics.gauge("cache.usernames." + table + ".bytes", filter::sizeInBytes);
+    }
+
+    /**
+     * Returns false if no account with the username is known, true if there may be one. Until the
+     * filter could be loaded every name may be taken.
+     */
+    public boolean mightBeTaken(String username) {
+        if (!loaded && !load()) {
+            return true;
+        }
+        if (filter.mightContain(key(username))) {
+            positives.increment();
+            return true;
+        }
+        negatives.increment();
+        return false;
+    }
+
+    public void add(String username) {
+        filter.add(key(username));
+    }
+
+    // Names added while loading are kept, a failed load is retried on the next lookup
+    private synchronized boolean load() {
+        if (loaded) {
+            return true;
+        }
+        try {
+            loader.forEachUsername(this::add);
+            loaded = true;
+        } catch (SQLException e) {
+            System.out.println("Could not load usernames: " + e.getMessage());
+        }
+        return loaded;
+    }
+
+    private static String key(String username) {
+        return username.toLowerCase(Locale.ROOT);
+    }
+}
@@ -0,0 +1,201 @@
+package scheduler.cache;
+
+import scheduler.db.ReadFreshness;
+import scheduler.metrics.MetricsRegistry;
+import scheduler.repository.Repositories;
+import scheduler.util.Env;
+
+import java.sql.SQLException;
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * In-process cache of the Vaccines table, keyed by vaccine name.
+ *
+ * Writes made by this process go through the cache so it stays current locally. Entries expire
+ * after VaccineCacheTtlSeconds (default 5) so that changes made by other scheduler nodes are
+ * picked up within that bound.
+ */
+public class VaccineCache {
+
+    private static final VaccineCache INSTANCE = new VaccineCache();
+
+    // 0 turns expiry off between writes of this process, i.e. every read goes to the database
+    private final long ttlNanos = TimeUnit.SECONDS.toNanos(Env.intValue("VaccineCacheTtlSeconds", 5, 0));
+
+    private final ConcurrentHashMap<String, Entry> entries = new ConcurrentHashMap<>();
+    // when the whole table was last loaded, only meaningful while tableLoaded is set
+    private volatile boolean tableLoaded = false;
+    private volatile long tableLoadedAt;
+
+    // metrics
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong staleReads = new AtomicLong();
+    private final AtomicLong loads = new AtomicLong();
+
+    private static class Entry {
+        private final AtomicInteger doses;
+        private volatile long loadedAt;
+
+        Entry(int doses) {
+            this.doses = new AtomicInteger(doses);
+            this.loadedAt = System.nanoTime();
+        }
+    }
+
+    public static VaccineCache getInstance() {
+        return INSTANCE;
+    }
+
+    private VaccineCache() {
+        MetricsRegistry metrics = MetricsRegistry.getInstance();
+        metrics.gauge("cache.vaccines.size", entries::size);
+        metrics.gauge("cache.vaccines.hits", this::getHits);
+        metrics.gauge("cache.vaccines.misses", this::getMisses);
+        metrics.gauge("cache.vaccines.staleReads", this::getStaleReads);
+        metrics.gauge("cache.vaccines.loads", this::getLoads);
+        metrics.gauge("cache.vaccines.hitRatio", this::getHitRatio);
+    }
+
+    /**
+     * Returns the available doses of a vaccine, or null if there is no such vaccine.
+     */
+    public Integer getDoses(String vaccineName) throws SQLException {
+        Entry entry = entries.get(vaccineName);
+        if (entry != null) {
+            if (isFresh(entry.loadedAt)) {
+                hits.incrementAndGet();
+                return entry.doses.get();
+            }
+            staleReads.incrementAndGet();
+        }
+        misses.incrementAndGet();
+        return load(vaccineName);
+    }
+
+    /**
+     * Returns the available doses of every vaccine, ordered by name.
+     */
+    public SortedMap<String, Integer> getAll() throws SQLException {
+        if (tableLoaded && isFresh(tableLoadedAt)) {
+            hits.incrementAndGet();
+        } else {
+            if (tableLoaded) {
+                staleReads.incrementAndGet();
+            }
+            misses.incrementAndGet();
+            loadAll();
+        }
+        SortedMap<String, Integer> result = new TreeMap<>();
+        for (Map.Entry<String, Entry> e : entries.entrySet()) {
+            result.put(e.getKey(), e.getValue().doses.get());
+        }
+        return result;
+    }
+
+    // whether getAll() can answer without going to the database
+    public boolean isAllFresh() {
+        return tableLoaded && isFresh(tableLoadedAt);
+    }
+
+    public boolean contains(String vaccineName) throws SQLException {
+        return getDoses(vaccineName) != null;
+    }
+
+    // Write-through: record the value just written to the database
+    public void put(String vaccineName, int doses) {
+        entries.put(vaccineName, new Entry(doses));
+    }
+
+    // Write-through: apply a change just committed to the database
+    public void adjust(String vaccineName, int delta) {
+        Entry entry = entries.get(vaccineName);
+        if (entry != null) {
+            entry.doses.addAndGet(delta);
+        }
+    }
+
+    public void invalidate(String vaccineName) {
+        entries.remove(vaccineName);
+        tableLoaded = false;
+    }
+
+    public void invalidateAll() {
+        entries.clear();
+        tableLoaded = false;
+    }
+
+    // Metrics
+    public long getHits() {
+        return hits.get();
+    }
+
+    public long getMisses() {
+        return misses.get();
+    }
+
+    public long getStaleReads() {
+        return staleReads.get();
+    }
+
+    public long getLoads() {
+        return loads.get();
+    }
+
+    public double getHitRatio() {
+        long h = hits.get();
+        long total = h + misses.get();
+        return total == 0 ? 0 : (double) h / total;
+    }
+
+    @Override
+    public String toString() {
+        return "VaccineCache{" +
+                "size=" + entries.size() +
+                ", hits=" + getHits() +
+                ", misses=" + getMisses() +
+                ", staleReads=" + getStaleReads() +
+                ", loads=" + getLoads() +
+                '}';
+    }
+
+    private boolean isFresh(long loadedAt) {
+        return System.nanoTime() - loadedAt < ttlNanos;
+    }
+
+    // loads read from the primary, a lagging replica would undo doses this node already took
+    private Integer load(String vaccineName) throws SQLException {
+        Integer doses;
+        try (ReadFreshness.Scope scope = ReadFreshness.PRIMARY.bind()) {
+            doses = Repositories.vaccines().findDoses(vaccineName);
+        }
+        loads.incrementAndGet();
+        if (doses == null) {
+            entries.remove(vaccineName);
+            return null;
+        }
+        put(vaccineName, doses);
+        return doses;
+    }
+
+    private void loadAll() throws SQLException {
+        long start = System.nanoTime();
+        Map<String, Integer> loaded;
+        try (ReadFreshness.Scope scope = ReadFreshness.PRIMARY.bind()) {
+            loaded = Repositories.vaccines().findAll();
+        }
+        loads.incrementAndGet();
+        entries.keySet().retainAll(loaded.keySet());
+        for (Map.Entry<String, Integer> e : loaded.entrySet()) {
+            put(e.getKey(), e.getValue());
+        }
+        tableLoadedAt = start;
+        tableLoaded = true;
+    }
+}
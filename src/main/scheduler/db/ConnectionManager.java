@@ -1,41 +1,552 @@
 package scheduler.db;
 
+import scheduler.metrics.Counter;
+import scheduler.metrics.MetricsRegistry;
+import scheduler.metrics.Timer;
+import scheduler.util.Env;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
 import java.sql.Connection;
 import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
 import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingDeque;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 
+/**
+ * Bounded pools of JDBC connections to the scheduler database, one for the primary and one for
+ * each read replica.
+ *
+ * Connections are opened once and handed out again after they are closed by the borrower, so
+ * the driver handshake is only paid when a pool grows. Borrowers should always use
+ * try-with-resources:
+ *
+ * <pre>
+ *     try (Connection con = ConnectionManager.getInstance().getConnection()) {
+ *         ...
+ *     }
+ * </pre>
+ *
+ * getConnection() always goes to the primary. Queries that only read may use getReadConnection()
+ * instead, which picks the least busy replica that is at most ReplicaMaxLagSeconds (default 5)
+ * behind the primary, and falls back to the primary when there is none. A session sees its own
+ * writes: while its ReadFreshness is bound, only replicas that have caught up to its last write
+ * on the primary are picked. Replica lag is measured through the ReplicationHeartbeat table,
+ * which is updated on the primary every second while replicas are configured.
+ *
+ * Pool settings can be tuned with the PoolMaxSize, PoolMinIdle, PoolIdleTimeoutSeconds and
+ * PoolWaitTimeoutSeconds environment variables. Replicas are listed in ReplicaServers (Azure
+ * server names) or ReplicaJdbcUrls, both comma separated; a local setup can point JdbcUrl and
+ * ReplicaJdbcUrls at two embedded databases.
+ */
 public class ConnectionManager {
 
-    private final String driverName = "com.microsoft.sqlserver.jdbc.SQLServerDriver";
-    private final String connectionUrl = "jdbc:sqlserver://" + System.getenv("Server") +
-            ".database.windows.net:1433;database=" + System.getenv("DBName");
+    private static final String DRIVER_NAME = "com.microsoft.sqlserver.jdbc.SQLServerDriver";
+
+    // how long a connection may sit idle before it is re-validated on borrow
+    private static final long VALIDATE_AFTER_IDLE_MILLIS = 5_000;
+    private static final int VALIDATION_TIMEOUT_SECONDS = 2;
+    private static final long HEARTBEAT_MILLIS = 1_000;
+
+    // JdbcUrl overrides the Azure SQL Server url, e.g. to point at an embedded database
+    private final String connectionUrl = System.getenv("JdbcUrl") != null ? System.getenv("JdbcUrl") :
+            azureUrl(System.getenv("Server"));
     private final String userName = System.getenv("UserID");
     private final String userPass = System.getenv("Password");
 
-    private Connection con = null;
+    private final int maxSize = Env.positiveInt("PoolMaxSize", 10);
+    private final int minIdle = Math.min(Env.positiveInt("PoolMinIdle", 2), maxSize);
+    private final long idleTimeoutMillis = TimeUnit.SECONDS.toMillis(Env.positiveInt("PoolIdleTimeoutSeconds", 300));
+    private final long waitTimeoutMillis = TimeUnit.SECONDS.toMillis(Env.positiveInt("PoolWaitTimeoutSeconds", 30));
+    private final long maxLagMillis = TimeUnit.SECONDS.toMillis(Env.positiveInt("ReplicaMaxLagSeconds", 5));
+
+    private final Pool primary;
+    private final List<Pool> replicas;
+    private final ScheduledExecutorService evictor;
 
-    public ConnectionManager() {
+    private final AtomicInteger nextReplica = new AtomicInteger();
+
+    // metrics
+    private final Counter replicaReads = MetricsRegistry.getInstance().counter("db.reads.replica");
+    private final Counter primaryReads = MetricsRegistry.getInstance().counter("db.reads.primary");
+    private final Counter fallbackReads = MetricsRegistry.getInstance().counter("db.reads.fallback");
+
+    private static class Holder {
+        private static final ConnectionManager INSTANCE = new ConnectionManager();
+    }
+
+    public static ConnectionManager getInstance() {
+        return Holder.INSTANCE;
+    }
+
+    private ConnectionManager() {
         try {
-            Class.forName(driverName);
+            Class.forName(DRIVER_NAME);
         } catch (ClassNotFoundException e) {
             System.out.println(e.toString());
         }
+        primary = new Pool("primary", connectionUrl, "db");
+        List<Pool> configured = new ArrayList<>();
+        List<String> replicaUrls = replicaUrls();
+        for (int i = 0; i < replicaUrls.size(); i++) {
+            configured.add(new Pool("replica" + i, replicaUrls.get(i), "db.replica" + i));
+        }
+        replicas = Collections.unmodifiableList(configured);
+
+        evictor = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "connection-pool-evictor");
+            t.setDaemon(true);
+            return t;
+        });
+        long period = Math.max(1_000, idleTimeoutMillis / 2);
+        evictor.scheduleWithFixedDelay(this::evictIdle, period, period, TimeUnit.MILLISECONDS);
+        primary.warmUp();
+        for (Pool replica : replicas) {
+            replica.warmUp();
+        }
+        if (!replicas.isEmpty()) {
+            evictor.scheduleWithFixedDelay(this::heartbeat, 0, HEARTBEAT_MILLIS, TimeUnit.MILLISECONDS);
+        }
     }
 
-    public Connection createConnection() {
-        try {
-            con = DriverManager.getConnection(connectionUrl, userName, userPass);
-        } catch (SQLException e) {
-            e.printStackTrace();
+    /**
+     * Borrows a connection to the primary, waiting up to the configured wait timeout when every
+     * connection is in use. Closing the returned connection hands it back to the pool.
+     *
+     * The borrow counts as a write of the bound ReadFreshness, so it is only for statements that
+     * write. A read that has to see the primary binds ReadFreshness.PRIMARY around getReadConnection().
+     */
+    public Connection getConnection() throws SQLException {
+        ReadFreshness writer = ReadFreshness.current();
+        if (writer != null) {
+            writer.recordWrite(System.currentTimeMillis());
         }
-        return con;
+        return primary.borrow(writer);
     }
 
-    public void closeConnection() {
-        try {
-            this.con.close();
+    /**
+     * Borrows a connection for queries that do not write. It may be to a replica that is up to
+     * ReplicaMaxLagSeconds behind the primary, but has the writes of the bound ReadFreshness.
+     */
+    public Connection getReadConnection() throws SQLException {
+        if (replicas.isEmpty()) {
+            return primary.borrow(null);
+        }
+        // read your own writes: a replica must have caught up to the session's last commit
+        ReadFreshness reader = ReadFreshness.current();
+        long mustInclude = reader == null ? Long.MIN_VALUE : reader.getLastWriteMillis();
+        Pool replica = pickReplica(mustInclude);
+        if (replica == null && mustInclude != Long.MIN_VALUE) {
+            primaryReads.increment();
+            return primary.borrow(null);
+        }
+        if (replica != null) {
+            try {
+                Connection con = replica.borrow(null);
+                replicaReads.increment();
+                return con;
+            } catch (SQLException e) {
+                // out of rotation until the next heartbeat reaches it
+                replica.healthy = false;
+            }
+        }
+        fallbackReads.increment();
+        return primary.borrow(null);
+    }
+
+    // Metrics, of the primary pool
+    public int getActiveConnections() {
+        return primary.active.get();
+    }
+
+    public int getIdleConnections() {
+        return primary.idle.size();
+    }
+
+    public int getMaxSize() {
+        return maxSize;
+    }
+
+    public int getThreadsAwaitingConnection() {
+        return primary.permits.getQueueLength();
+    }
+
+    public long getBorrowCount() {
+        return primary.borrowCount.get();
+    }
+
+    public long getCreatedCount() {
+        return primary.createdCount.get();
+    }
+
+    public long getEvictedCount() {
+        return primary.evictedCount.get();
+    }
+
+    public double getAverageWaitMillis() {
+        long borrows = primary.borrowCount.get();
+        return borrows == 0 ? 0 : primary.totalWaitNanos.get() / 1e6 / borrows;
+    }
+
+    public double getMaxWaitMillis() {
+        return primary.maxWaitNanos.get() / 1e6;
+    }
+
+    public int getReplicaCount() {
+        return replicas.size();
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder("ConnectionManager{" +
+                "active=" + getActiveConnections() +
+                ", idle=" + getIdleConnections() +
+                ", maxSize=" + maxSize +
+                ", waiting=" + getThreadsAwaitingConnection() +
+                ", borrows=" + getBorrowCount() +
+                ", avgWaitMs=" + String.format("%.3f", getAverageWaitMillis()) +
+                ", maxWaitMs=" + String.format("%.3f", getMaxWaitMillis()));
+        for (Pool replica : replicas) {
+            sb.append(", ").append(replica.name)
+                    .append("={active=").append(replica.active.get())
+                    .append(", lagMs=").append(replica.lagMillis)
+                    .append(", healthy=").append(replica.healthy)
+                    .append('}');
+        }
+        return sb.append('}').toString();
+    }
+
+    // the least busy replica within the staleness bound that has the writes made up to mustInclude;
+    // the scan starts at the next replica in turn so that ties are spread round robin
+    private Pool pickReplica(long mustInclude) {
+        int n = replicas.size();
+        int start = Math.floorMod(nextReplica.getAndIncrement(), n);
+        Pool best = null;
+        for (int i = 0; i < n; i++) {
+            Pool replica = replicas.get((start + i) % n);
+            if (replica.healthy && replica.lagMillis <= maxLagMillis && replica.caughtUpToMillis >= mustInclude
+                    && (best == null || replica.active.get() < best.active.get())) {
+                best = replica;
+            }
+        }
+        return best;
+    }
+
+    // stamps the current time on the primary and measures how far behind each replica is
+    private void heartbeat() {
+        long now = System.currentTimeMillis();
+        try (Connection con = primary.borrow(null);
+             PreparedStatement statement = con.prepareStatement(
+                     "UPDATE ReplicationHeartbeat SET BeatAtMillis = ? WHERE Id = 1 AND BeatAtMillis < ?")) {
+            statement.setLong(1, now);
+            statement.setLong(2, now);
+            statement.executeUpdate();
         } catch (SQLException e) {
-            e.printStackTrace();
+            // the replicas' lag grows past the bound and reads fall back to the primary
+        }
+        for (Pool replica : replicas) {
+            try (Connection con = replica.borrow(null);
+                 PreparedStatement statement = con.prepareStatement(
+                         "SELECT BeatAtMillis FROM ReplicationHeartbeat WHERE Id = 1")) {
+                ResultSet resultSet = statement.executeQuery();
+                if (resultSet.next()) {
+                    // a stamp is written after everything committed before it was taken, so the
+                    // replica has every write committed up to the stamp it shows
+                    long beatAt = resultSet.getLong("BeatAtMillis");
+                    replica.caughtUpToMillis = beatAt;
+                    replica.lagMillis = Math.max(0, System.currentTimeMillis() - beatAt);
+                } else {
+                    replica.caughtUpToMillis = Long.MIN_VALUE;
+                    replica.lagMillis = Long.MAX_VALUE;
+                }
+                replica.healthy = true;
+            } catch (SQLException e) {
+                replica.healthy = false;
+            }
+        }
+    }
+
+    private void evictIdle() {
+        primary.evictIdle();
+        for (Pool replica : replicas) {
+            replica.evictIdle();
+        }
+    }
+
+    private static String azureUrl(String server) {
+        return "jdbc:sqlserver://" + server + ".database.windows.net:1433;database=" + System.getenv("DBName");
+    }
+
+    private static List<String> replicaUrls() {
+        List<String> urls = new ArrayList<>();
+        String servers = System.getenv("ReplicaServers");
+        if (servers != null) {
+            for (String server : servers.split(",")) {
+                if (!server.trim().isEmpty()) {
+                    urls.add(azureUrl(server.trim()));
+                }
+            }
+        }
+        String jdbcUrls = System.getenv("ReplicaJdbcUrls");
+        if (jdbcUrls != null) {
+            for (String url : jdbcUrls.split(",")) {
+                if (!url.trim().isEmpty()) {
+                    urls.add(url.trim());
+                }
+            }
+        }
+        return urls;
+    }
+
+    /**
+     * The connections to one database server.
+     */
+    private class Pool {
+        private final String name;
+        private final String url;
+
+        private final LinkedBlockingDeque<PooledConnection> idle = new LinkedBlockingDeque<>();
+        private final Semaphore permits = new Semaphore(maxSize, true);
+
+        // replicas only, kept up to date by the heartbeat
+        private volatile long lagMillis = Long.MAX_VALUE;
+        private volatile long caughtUpToMillis = Long.MIN_VALUE;
+        private volatile boolean healthy = false;
+
+        // metrics
+        private final AtomicInteger active = new AtomicInteger();
+        private final AtomicLong borrowCount = new AtomicLong();
+        private final AtomicLong totalWaitNanos = new AtomicLong();
+        private final AtomicLong maxWaitNanos = new AtomicLong();
+        private final AtomicLong createdCount = new AtomicLong();
+        private final AtomicLong evictedCount = new AtomicLong();
+        private final Timer waitTimer;
+        private final Timer openTimer;
+
+        Pool(String name, String url, String metricPrefix) {
+            this.name = name;
+            this.url = url;
+            MetricsRegistry metrics = MetricsRegistry.getInstance();
+            waitTimer = metrics.timer(metricPrefix + ".connection.wait");
+            openTimer = metrics.timer(metricPrefix + ".connection.open");
+            metrics.gauge(metricPrefix + ".pool.active", active::get);
+            metrics.gauge(metricPrefix + ".pool.idle", idle::size);
+            metrics.gauge(metricPrefix + ".pool.maxSize", () -> maxSize);
+            metrics.gauge(metricPrefix + ".pool.waiting", permits::getQueueLength);
+            metrics.gauge(metricPrefix + ".pool.created", createdCount::get);
+            metrics.gauge(metricPrefix + ".pool.evicted", evictedCount::get);
+            if (!name.equals("primary")) {
+                metrics.gauge(metricPrefix + ".lagMillis", () -> lagMillis == Long.MAX_VALUE ? -1 : lagMillis);
+                metrics.gauge(metricPrefix + ".healthy", () -> healthy ? 1 : 0);
+            }
+        }
+
+        // writer, if not null, is stamped again when the connection is returned
+        Connection borrow(ReadFreshness writer) throws SQLException {
+            long start = System.nanoTime();
+            try {
+                if (!permits.tryAcquire(waitTimeoutMillis, TimeUnit.MILLISECONDS)) {
+                    throw new SQLException("Timed out waiting for a database connection");
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new SQLException("Interrupted while waiting for a database connection");
+            }
+            recordWait(System.nanoTime() - start);
+
+            try {
+                PooledConnection pooled = takeValidIdle();
+                if (pooled == null) {
+                    pooled = new PooledConnection(this, openPhysical());
+                }
+                active.incrementAndGet();
+                return pooled.lease(writer);
+            } catch (SQLException | RuntimeException e) {
+                permits.release();
+                throw e;
+            }
+        }
+
+        private Connection openPhysical() throws SQLException {
+            long start = System.nanoTime();
+            Connection con;
+            try {
+                con = DriverManager.getConnection(url, userName, userPass);
+            } catch (SQLException e) {
+                openTimer.recordError(System.nanoTime() - start);
+                throw e;
+            }
+            openTimer.record(System.nanoTime() - start);
+            createdCount.incrementAndGet();
+            return con;
+        }
+
+        private PooledConnection takeValidIdle() {
+            PooledConnection pooled;
+            // most recently used first, so the tail of the deque is what ages out
+            while ((pooled = idle.pollFirst()) != null) {
+                if (System.currentTimeMillis() - pooled.lastUsed < VALIDATE_AFTER_IDLE_MILLIS || pooled.isValid()) {
+                    return pooled;
+                }
+                pooled.closePhysical();
+                evictedCount.incrementAndGet();
+            }
+            return null;
+        }
+
+        private void release(PooledConnection pooled) {
+            active.decrementAndGet();
+            if (pooled.reset()) {
+                pooled.lastUsed = System.currentTimeMillis();
+                idle.offerFirst(pooled);
+            } else {
+                pooled.closePhysical();
+                evictedCount.incrementAndGet();
+            }
+            permits.release();
+        }
+
+        private void warmUp() {
+            for (int i = 0; i < minIdle; i++) {
+                try {
+                    PooledConnection pooled = new PooledConnection(this, openPhysical());
+                    pooled.lastUsed = System.currentTimeMillis();
+                    idle.offerLast(pooled);
+                } catch (SQLException e) {
+                    // the database may not be reachable yet, connections will be opened on demand
+                    System.out.println("Could not pre-open database connection to " + name + ": " + e.getMessage());
+                    return;
+                }
+            }
+        }
+
+        private void evictIdle() {
+            long now = System.currentTimeMillis();
+            Iterator<PooledConnection> it = idle.descendingIterator();
+            while (it.hasNext() && idle.size() > minIdle) {
+                PooledConnection pooled = it.next();
+                if (now - pooled.lastUsed >= idleTimeoutMillis && idle.removeLastOccurrence(pooled)) {
+                    pooled.closePhysical();
+                    evictedCount.incrementAndGet();
+                }
+            }
+        }
+
+        private void recordWait(long nanos) {
+            waitTimer.record(nanos);
+            borrowCount.incrementAndGet();
+            totalWaitNanos.addAndGet(nanos);
+            maxWaitNanos.accumulateAndGet(nanos, Math::max);
+        }
+    }
+
+    /**
+     * A physical connection owned by a pool. Each lease hands out a fresh proxy so that a
+     * borrower closing its connection twice cannot return it to the pool twice.
+     */
+    private static class PooledConnection {
+        private final Pool pool;
+        private final Connection physical;
+        private volatile long lastUsed;
+
+        PooledConnection(Pool pool, Connection physical) {
+            this.pool = pool;
+            this.physical = physical;
+        }
+
+        Connection lease(ReadFreshness writer) {
+            return (Connection) Proxy.newProxyInstance(
+                    ConnectionManager.class.getClassLoader(),
+                    new Class<?>[]{Connection.class},
+                    new Lease(this, writer));
+        }
+
+        boolean isValid() {
+            try {
+                return physical.isValid(VALIDATION_TIMEOUT_SECONDS);
+            } catch (SQLException e) {
+                return false;
+            }
+        }
+
+        // undo anything a borrower may have left behind, returns false if the connection is unusable
+        boolean reset() {
+            try {
+                if (physical.isClosed()) {
+                    return false;
+                }
+                if (!physical.getAutoCommit()) {
+                    physical.rollback();
+                    physical.setAutoCommit(true);
+                }
+                physical.clearWarnings();
+                return true;
+            } catch (SQLException e) {
+                return false;
+            }
+        }
+
+        void closePhysical() {
+            try {
+                physical.close();
+            } catch (SQLException e) {
+                e.printStackTrace();
+            }
+        }
+    }
+
+    private static class Lease implements InvocationHandler {
+        private PooledConnection pooled;
+        private final ReadFreshness writer;
+
+        Lease(PooledConnection pooled, ReadFreshness writer) {
+            this.pooled = pooled;
+            this.writer = writer;
+        }
+
+        @Override
+        public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+            String name = method.getName();
+            PooledConnection current;
+            synchronized (this) {
+                if (name.equals("close")) {
+                    if (pooled != null) {
+                        PooledConnection returned = pooled;
+                        pooled = null;
+                        returned.pool.release(returned);
+                        // whatever was committed on the connection is committed by now
+                        if (writer != null) {
+                            writer.recordWrite(System.currentTimeMillis());
+                        }
+                    }
+                    return null;
+                }
+                if (name.equals("isClosed")) {
+                    return pooled == null || pooled.physical.isClosed();
+                }
+                if (pooled == null) {
+                    throw new SQLException("Connection has been returned to the pool");
+                }
+                current = pooled;
+            }
+            try {
+                return method.invoke(current.physical, args);
+            } catch (InvocationTargetException e) {
+                throw e.getCause();
+            }
         }
     }
 }
@@ -0,0 +1,77 @@
+package scheduler.db;
+
+/**
+ * How fresh the data a reader gets must be, so that a client session sees its own writes even
+ * when its reads go to a replica.
+ *
+ * Each session owns one and binds it to the thread running its command:
+ *
+ * <pre>
+ *     try (ReadFreshness.Scope scope = session.getReadFreshness().bind()) {
+ *         ... repository calls ...
+ *     }
+ * </pre>
+ *
+ * ConnectionManager stamps the bound instance whenever a connection to the primary is borrowed
+ * and returned, i.e. after the writes made on it were committed, and getReadConnection() only
+ * picks a replica that has caught up to that stamp. Work handed to another thread, e.g. through
+ * AsyncQueries, must bind the same instance there. Threads with nothing bound read from any
+ * replica within the lag bound; PRIMARY makes every read go to the primary.
+ */
+public class ReadFreshness {
+
+    // for readers that must see every committed write, e.g. caches rebuilding from the database
+    public static final ReadFreshness PRIMARY = new ReadFreshness(Long.MAX_VALUE);
+
+    private static final ThreadLocal<ReadFreshness> CURRENT = new ThreadLocal<>();
+
+    // when the owner last committed on the primary, in milliseconds of the heartbeat clock
+    private volatile long lastWriteMillis;
+
+    /**
+     * Ends a bind(), restoring what was bound to the thread before it.
+     */
+    public interface Scope extends AutoCloseable {
+        @Override
+        void close();
+    }
+
+    private ReadFreshness(long lastWriteMillis) {
+        this.lastWriteMillis = lastWriteMillis;
+    }
+
+    // For a new client session, which has not written anything yet
+    public static ReadFreshness newSession() {
+        return new ReadFreshness(Long.MIN_VALUE);
+    }
+
+    // What is bound to the current thread, or null
+    public static ReadFreshness current() {
+        return CURRENT.get();
+    }
+
+    public Scope bind() {
+        ReadFreshness previous = CURRENT.get();
+        CURRENT.set(this);
+        return () -> {
+            if (previous == null) {
+                CURRENT.remove();
+            } else {
+                CURRENT.set(previous);
+            }
+        };
+    }
+
+    public long getLastWriteMillis() {
+        return lastWriteMillis;
+    }
+
+    void recordWrite(long millis) {
+        // PRIMARY stays at Long.MAX_VALUE; concurrent stamps of one session only move forward
+        synchronized (this) {
+            if (millis > lastWriteMillis) {
+                lastWriteMillis = millis;
+            }
+        }
+    }
+}
@@ -0,0 +1,214 @@
+package scheduler.db;
+
+import scheduler.metrics.Counter;
+import scheduler.metrics.MetricsRegistry;
+import scheduler.util.Env;
+
+import java.sql.SQLException;
+import java.sql.SQLRecoverableException;
+import java.sql.SQLTransientConnectionException;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Runs data-access calls and retries the ones that fail for a reason that is expected to pass:
+ *
+ * <pre>
+ *     return SqlExecutor.query(() -&gt; { ... read with a connection from ConnectionManager ... });
+ * </pre>
+ *
+ * A failure is classified by its SQL Server error number and SQLState. A call made with query()
+ * must be safe to repeat and is retried after a deadlock, throttling or a dropped connection. A
+ * call made with transaction() is retried only when SQL Server is known to have rolled it back,
+ * i.e. after a deadlock or throttling; after a dropped connection the commit may or may not have
+ * happened, so the failure is reported instead.
+ *
+ * Attempts are spaced by an exponential backoff with jitter, starting at SqlRetryBaseDelayMillis
+ * (default 20) and capped at SqlRetryMaxDelayMillis (default 1000), for at most
+ * SqlRetryMaxAttempts (default 4) attempts. Retries across the process are further limited to a
+ * budget of SqlRetryBudgetPercent (default 10) of calls, so that an outage does not multiply the
+ * load on the database.
+ */
+public class SqlExecutor {
+
+    public enum Failure {
+        DEADLOCK, THROTTLED, CONNECTION, PERMANENT
+    }
+
+    /**
+     * A data-access call, e.g. the body of a repository method.
+     */
+    public interface Call<T> {
+        T run() throws SQLException;
+    }
+
+    // SQL Server error numbers
+    private static final int DEADLOCK_VICTIM = 1205;
+    private static final int SNAPSHOT_UPDATE_CONFLICT = 3960;
+    // a duplicate primary key or unique key; SQLState 23000 also covers foreign key and check
+    // violations, which are real errors
+    private static final int DUPLICATE_KEY = 2627;
+    private static final int DUPLICATE_INDEX_KEY = 2601;
+    // the service is busy, has too many requests or has reached a resource limit
+    private static final int[] THROTTLING = {40501, 49918, 49919, 49920, 10928, 10929};
+    // the network connection was closed or timed out, or the database is failing over
+    private static final int[] CONNECTION_LOST = {64, 233, 10053, 10054, 10060, 4060, 4221, 40197, 40613};
+
+    private static final int MAX_ATTEMPTS = Env.positiveInt("SqlRetryMaxAttempts", 4);
+    private static final int BASE_DELAY_MILLIS = Env.positiveInt("SqlRetryBaseDelayMillis", 20);
+    private static final int MAX_DELAY_MILLIS = Env.positiveInt("SqlRetryMaxDelayMillis", 1000);
+    private static final int BUDGET_PERCENT = Env.positiveInt("SqlRetryBudgetPercent", 10);
+
+    // the budget in hundredths of a retry: every call earns BUDGET_PERCENT, every retry costs 100,
+    // and at most BUDGET_CAP may be saved up, so a burst of failures can use ten retries at once
+    private static final long RETRY_COST = 100;
+    private static final long BUDGET_CAP = 10 * RETRY_COST;
+    private static final AtomicLong BUDGET = new AtomicLong(BUDGET_CAP);
+
+    private static final Counter DEADLOCK_RETRIES = counter("db.retry.deadlock");
+    private static final Counter THROTTLED_RETRIES = counter("db.retry.throttled");
+    private static final Counter CONNECTION_RETRIES = counter("db.retry.connection");
+    private static final Counter RECOVERED = counter("db.retry.recovered");
+    private static final Counter EXHAUSTED = counter("db.retry.exhausted");
+    private static final Counter OVER_BUDGET = counter("db.retry.overBudget");
+
+    static {
+        MetricsRegistry.getInstance().gauge("db.retry.budget", () -> BUDGET.get() / RETRY_COST);
+    }
+
+    private SqlExecutor() {
+    }
+
+    /**
+     * Runs a call that can be repeated without changing its outcome, e.g. a lookup.
+     */
+    public static <T> T query(Call<T> call) throws SQLException {
+        return run(call, true);
+    }
+
+    /**
+     * Runs a call that makes its changes in one transaction, e.g. a reservation batch.
+     */
+    public static <T> T transaction(Call<T> call) throws SQLException {
+        return run(call, false);
+    }
+
+    /**
+     * Returns why a call failed, looking through the chained exceptions SQL Server reports.
+     */
+    public static Failure classify(SQLException e) {
+        for (Throwable t = e; t != null; t = t.getCause()) {
+            if (t instanceof SQLException) {
+                for (SQLException s = (SQLException) t; s != null; s = s.getNextException()) {
+                    Failure failure = classifyOne(s);
+                    if (failure != Failure.PERMANENT) {
+                        return failure;
+                    }
+                }
+            }
+        }
+        return Failure.PERMANENT;
+    }
+
+    /**
+     * Returns whether a statement failed because a row with the same primary or unique key exists.
+     */
+    public static boolean isDuplicateKey(SQLException e) {
+        return e.getErrorCode() == DUPLICATE_KEY || e.getErrorCode() == DUPLICATE_INDEX_KEY;
+    }
+
+    private static Failure classifyOne(SQLException e) {
+        int code = e.getErrorCode();
+        if (code == DEADLOCK_VICTIM || code == SNAPSHOT_UPDATE_CONFLICT) {
+            return Failure.DEADLOCK;
+        }
+        if (contains(THROTTLING, code)) {
+            return Failure.THROTTLED;
+        }
+        String state = e.getSQLState();
+        if (contains(CONNECTION_LOST, code) || (state != null && state.startsWith("08"))
+                || e instanceof SQLTransientConnectionException || e instanceof SQLRecoverableException) {
+            return Failure.CONNECTION;
+        }
+        return Failure.PERMANENT;
+    }
+
+    private static <T> T run(Call<T> call, boolean idempotent) throws SQLException {
+        BUDGET.accumulateAndGet(BUDGET_PERCENT, (budget, earned) -> Math.min(BUDGET_CAP, budget + earned));
+        for (int attempt = 1; ; attempt++) {
+            try {
+                T result = call.run();
+                if (attempt > 1) {
+                    RECOVERED.increment();
+                }
+                return result;
+            } catch (SQLException e) {
+                Failure failure = classify(e);
+                if (failure == Failure.PERMANENT || (failure == Failure.CONNECTION && !idempotent)) {
+                    throw e;
+                }
+                if (attempt >= MAX_ATTEMPTS) {
+                    EXHAUSTED.increment();
+                    throw e;
+                }
+                if (!takeFromBudget()) {
+                    OVER_BUDGET.increment();
+                    throw e;
+                }
+                retryCounter(failure).increment();
+                if (!backOff(attempt)) {
+                    throw e;
+                }
+            }
+        }
+    }
+
+    private static boolean takeFromBudget() {
+        long budget;
+        do {
+            budget = BUDGET.get();
+            if (budget < RETRY_COST) {
+                return false;
+            }
+        } while (!BUDGET.compareAndSet(budget, budget - RETRY_COST));
+        return true;
+    }
+
+    // equal jitter: half of the exponential delay is kept and the other half is random, so that
+    // sessions that failed together, e.g. both sides of a deadlock, do not retry together
+    private static boolean backOff(int attempt) {
+        long ceiling = Math.min(MAX_DELAY_MILLIS, (long) BASE_DELAY_MILLIS << Math.min(attempt - 1, 20));
+        long delay = ceiling / 2 + ThreadLocalRandom.current().nextLong(ceiling / 2 + 1);
+        try {
+            Thread.sleep(delay);
+            return true;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+    }
+
+    private static Counter retryCounter(Failure failure) {
+        switch (failure) {
+            case DEADLOCK:
+                return DEADLOCK_RETRIES;
+            case THROTTLED:
+                return THROTTLED_RETRIES;
+            default:
+                return CONNECTION_RETRIES;
+        }
+    }
+
+    private static boolean contains(int[] codes, int code) {
+        for (int c : codes) {
+            if (c == code) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static Counter counter(String name) {
+        return MetricsRegistry.getInstance().counter(name);
+    }
+}
@@ -0,0 +1,29 @@
+package scheduler.metrics;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A count of events, e.g. reservations that found no caregiver.
+ */
+public class Counter implements CounterMBean {
+
+    private final AtomicLong value = new AtomicLong();
+
+    public void increment() {
+        value.incrementAndGet();
+    }
+
+    public void add(long delta) {
+        value.addAndGet(delta);
+    }
+
+    @Override
+    public long getValue() {
+        return value.get();
+    }
+
+    @Override
+    public String toString() {
+        return Long.toString(getValue());
+    }
+}
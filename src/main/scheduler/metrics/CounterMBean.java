@@ -0,0 +1,9 @@
+package scheduler.metrics;
+
+/**
+ * JMX view of a Counter.
+ */
+public interface CounterMBean {
+
+    long getValue();
+}
@@ -0,0 +1,26 @@
+package scheduler.metrics;
+
+import java.util.function.DoubleSupplier;
+
+/**
+ * A value read on demand from the component that owns it, e.g. the number of idle connections.
+ */
+public class Gauge implements GaugeMBean {
+
+    private final DoubleSupplier supplier;
+
+    public Gauge(DoubleSupplier supplier) {
+        this.supplier = supplier;
+    }
+
+    @Override
+    public double getValue() {
+        return supplier.getAsDouble();
+    }
+
+    @Override
+    public String toString() {
+        double value = getValue();
+        return value == Math.rint(value) ? Long.toString((long) value) : String.format("%.3f", value);
+    }
+}
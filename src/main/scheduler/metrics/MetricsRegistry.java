@@ -0,0 +1,136 @@
+package scheduler.metrics;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.DoubleSupplier;
+
+/**
+ * Process-wide registry of named timers, counters and gauges.
+ *
+ * Every metric is also registered as an MBean under the "scheduler" JMX domain, e.g.
+ * scheduler:type=Timer,name=command.reserve, so it can be watched with jconsole or any JMX
+ * agent. The stats command prints the same values.
+ *
+ * Look metrics up once and keep the reference on hot paths; recording into them is lock-free.
+ */
+public class MetricsRegistry {
+
+    private static final MetricsRegistry INSTANCE = new MetricsRegistry();
+    private static final String DOMAIN = "scheduler";
+
+    private final ConcurrentHashMap<String, Timer> timers = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<String, Counter> counters = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<String, Gauge> gauges = new ConcurrentHashMap<>();
+    private final MBeanServer mbeans = ManagementFactory.getPlatformMBeanServer();
+
+    public static MetricsRegistry getInstance() {
+        return INSTANCE;
+    }
+
+    private MetricsRegistry() {
+    }
+
+    public Timer timer(String name) {
+        Timer timer = timers.get(name);
+        return timer != null ? timer : timers.computeIfAbsent(name, n -> register("Timer", n, new Timer()));
+    }
+
+    public Counter counter(String name) {
+        Counter counter = counters.get(name);
+        return counter != null ? counter : counters.computeIfAbsent(name, n -> register("Counter", n, new Counter()));
+    }
+
+    // Registers a value owned by another component, replacing any gauge of the same name
+    public void gauge(String name, DoubleSupplier supplier) {
+        Gauge gauge = new Gauge(supplier);
+        unregister("Gauge", name);
+        gauges.put(name, register("Gauge", name, gauge));
+    }
+
+    /**
+     * Wraps an implementation of an interface so that every call made through the interface is
+     * timed under prefix.methodName, with calls that throw counted as errors.
+     */
+    public <T> T timed(Class<T> type, T target, String prefix) {
+        Map<Method, Timer> methodTimers = new HashMap<>();
+        for (Method method : type.getMethods()) {
+            methodTimers.put(method, timer(prefix + "." + method.getName()));
+        }
+        Object proxy = Proxy.newProxyInstance(type.getClassLoader(), new Class<?>[]{type}, (p, method, args) -> {
+            Timer timer = methodTimers.get(method);
+            if (timer == null) {
+                // Object methods such as toString
+                return method.invoke(target, args);
+            }
+            long start = System.nanoTime();
+            try {
+                Object result = method.invoke(target, args);
+                timer.record(System.nanoTime() - start);
+                return result;
+            } catch (InvocationTargetException e) {
+                timer.recordError(System.nanoTime() - start);
+                throw e.getCause();
+            }
+        });
+        return type.cast(proxy);
+    }
+
+    /**
+     * A table of every metric that has been used, ordered by name.
+     */
+    public String report() {
+        StringBuilder sb = new StringBuilder();
+        sb.append(String.format("%-40s %9s %7s %9s %9s %9s %9s%n", "timer", "count", "errors", "mean ms", "p50 ms",
+                "p99 ms", "max ms"));
+        for (Map.Entry<String, Timer> e : new TreeMap<>(timers).entrySet()) {
+            Timer t = e.getValue();
+            if (t.getCount() > 0) {
+                sb.append(String.format("%-40s %9d %7d %9.3f %9.3f %9.3f %9.3f%n", e.getKey(), t.getCount(),
+                        t.getErrors(), t.getMeanMillis(), t.getP50Millis(), t.getP99Millis(), t.getMaxMillis()));
+            }
+        }
+        sb.append(String.format("%n%-40s %9s%n", "counter", "value"));
+        for (Map.Entry<String, Counter> e : new TreeMap<>(counters).entrySet()) {
+            sb.append(String.format("%-40s %9s%n", e.getKey(), e.getValue()));
+        }
+        sb.append(String.format("%n%-40s %9s%n", "gauge", "value"));
+        for (Map.Entry<String, Gauge> e : new TreeMap<>(gauges).entrySet()) {
+            sb.append(String.format("%-40s %9s%n", e.getKey(), e.getValue()));
+        }
+        return sb.toString();
+    }
+
+    private <M> M register(String type, String name, M mbean) {
+        try {
+            mbeans.registerMBean(mbean, objectName(type, name));
+        } catch (JMException e) {
+            // the metric still works, it just cannot be seen over JMX
+            System.out.println("Could not register " + type + " " + name + " with JMX: " + e.getMessage());
+        }
+        return mbean;
+    }
+
+    private void unregister(String type, String name) {
+        try {
+            ObjectName objectName = objectName(type, name);
+            if (mbeans.isRegistered(objectName)) {
+                mbeans.unregisterMBean(objectName);
+            }
+        } catch (JMException e) {
+            // nothing was registered under this name
+        }
+    }
+
+    private static ObjectName objectName(String type, String name) throws JMException {
+        return new ObjectName(DOMAIN + ":type=" + type + ",name=" + name);
+    }
+}
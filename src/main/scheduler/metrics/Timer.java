@@ -0,0 +1,72 @@
+package scheduler.metrics;
+
+/**
+ * Latency and error count of one kind of operation. Recording a sample takes a few atomic
+ * increments and never locks or allocates.
+ */
+public class Timer implements TimerMBean {
+
+    private final LatencyHistogram latency = new LatencyHistogram();
+    private final Counter errors = new Counter();
+
+    public void record(long nanos) {
+        latency.record(nanos);
+    }
+
+    // an operation that took this long and then failed
+    public void recordError(long nanos) {
+        latency.record(nanos);
+        errors.increment();
+    }
+
+    @Override
+    public long getCount() {
+        return latency.getCount();
+    }
+
+    @Override
+    public long getErrors() {
+        return errors.getValue();
+    }
+
+    @Override
+    public double getErrorRate() {
+        long n = getCount();
+        return n == 0 ? 0 : (double) getErrors() / n;
+    }
+
+    @Override
+    public double getMeanMillis() {
+        return latency.getMeanMillis();
+    }
+
+    @Override
+    public double getP50Millis() {
+        return latency.getPercentileMillis(0.50);
+    }
+
+    @Override
+    public double getP99Millis() {
+        return latency.getPercentileMillis(0.99);
+    }
+
+    @Override
+    public double getP999Millis() {
+        return latency.getPercentileMillis(0.999);
+    }
+
+    @Override
+    public double getMaxMillis() {
+        return latency.getMaxMillis();
+    }
+
+    @Override
+    public String toString() {
+        return "Timer{" +
+                "count=" + getCount() +
+                ", errors=" + getErrors() +
+                ", p50Ms=" + String.format("%.3f", getP50Millis()) +
+                ", p99Ms=" + String.format("%.3f", getP99Millis()) +
+                '}';
+    }
+}
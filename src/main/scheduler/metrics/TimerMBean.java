@@ -0,0 +1,23 @@
+package scheduler.metrics;
+
+/**
+ * JMX view of a Timer.
+ */
+public interface TimerMBean {
+
+    long getCount();
+
+    long getErrors();
+
+    double getErrorRate();
+
+    double getMeanMillis();
+
+    double getP50Millis();
+
+    double getP99Millis();
+
+    double getP999Millis();
+
+    double getMaxMillis();
+}
@@ -0,0 +1,158 @@
+package scheduler.model;
+
+import scheduler.cache.AvailabilityIndex;
+import scheduler.cache.VaccineCache;
+import scheduler.metrics.Counter;
+import scheduler.metrics.MetricsRegistry;
+import scheduler.repository.Repositories;
+
+import java.sql.*;
+import java.util.EnumMap;
+import java.util.Map;
+
+public class Appointment {
+    private final int aptId;
+    private final Date time;
+    private final String caregiverUsername;
+    private final String patientUsername;
+    private final String vaccineName;
+
+    public enum ReserveStatus { RESERVED, UNKNOWN_VACCINE, NO_CAREGIVER, NO_DOSES }
+
+    private Appointment(AppointmentBuilder builder) {
+        this.aptId = builder.aptId;
+        this.time = builder.time;
+        this.caregiverUsername = builder.caregiverUsername;
+        this.patientUsername = builder.patientUsername;
+        this.vaccineName = builder.vaccineName;
+    }
+
+    // Getters
+    public int getAptId() {
+        return aptId;
+    }
+
+    public Date getTime() {
+        return time;
+    }
+
+    public String getCaregiverUsername() {
+        return caregiverUsername;
+    }
+
+    public String getPatientUsername() {
+        return patientUsername;
+    }
+
+    public String getVaccineName() {
+        return vaccineName;
+    }
+
+    public static class AppointmentBuilder {
+        private final int aptId;
+        private final Date time;
+        private final String caregiverUsername;
+        private final String patientUsername;
+        private final String vaccineName;
+
+        public AppointmentBuilder(int aptId, Date time, String caregiverUsername, String patientUsername,
+                                  String vaccineName) {
+            this.aptId = aptId;
+            this.time = time;
+            this.caregiverUsername = caregiverUsername;
+            this.patientUsername = patientUsername;
+            this.vaccineName = vaccineName;
+        }
+
+        public Appointment build() {
+            return new Appointment(this);
+        }
+    }
+
+    // The outcome of a reservation, the appointment is only set if it was RESERVED
+    public static class Reservation {
+        private final ReserveStatus status;
+        private final Appointment appointment;
+
+        public Reservation(ReserveStatus status, Appointment appointment) {
+            this.status = status;
+            this.appointment = appointment;
+        }
+
+        public ReserveStatus getStatus() {
+            return status;
+        }
+
+        public Appointment getAppointment() {
+            return appointment;
+        }
+    }
+
+    /**
+     * Claims the first open slot on a date and takes one dose of the vaccine atomically, so that
+     * concurrent reservations on the same date can never book a slot twice or lose a dose update.
+     */
+    public static class AppointmentReserver {
+        // reservations by outcome, e.g. reserve.NO_CAREGIVER
+        private static final Map<ReserveStatus, Counter> OUTCOMES = new EnumMap<>(ReserveStatus.class);
+
+        static {
+            for (ReserveStatus status : ReserveStatus.values()) {
+                OUTCOMES.put(status, MetricsRegistry.getInstance().counter("reserve." + status));
+            }
+        }
+
+        private final Date time;
+        private final String patientUsername;
+        private final String vaccineName;
+        private ReserveStatus status;
+
+        public AppointmentReserver(Date time, String patientUsername, String vaccineName) {
+            this.time = time;
+            this.patientUsername = patientUsername;
+            this.vaccineName = vaccineName;
+        }
+
+        // Always asks the database: the index may not know yet about slots uploaded or freed on other nodes
+        public Appointment reserve() throws SQLException {
+            Reservation reservation = Repositories.availabilities().reserve(this.time, this.patientUsername,
+                    this.vaccineName);
+            this.status = reservation.getStatus();
+            OUTCOMES.get(this.status).increment();
+            if (this.status == ReserveStatus.RESERVED) {
+                VaccineCache.getInstance().adjust(this.vaccineName, -1);
+                AvailabilityIndex.getInstance().markBooked(this.time, reservation.getAppointment().getCaregiverUsername());
+            }
+            return reservation.getAppointment();
+        }
+
+        // the outcome of the last call to reserve()
+        public ReserveStatus getStatus() {
+            return status;
+        }
+    }
+
+    /**
+     * Frees a booked appointment of a patient or caregiver and returns its dose to stock.
+     */
+    public static class AppointmentCanceller {
+        private final int aptId;
+        private final String username;
+
+        public AppointmentCanceller(int aptId, String username) {
+            this.aptId = aptId;
+            this.username = username;
+        }
+
+        // Returns the appointment as it was before cancelling, or null if the user has no such booking
+        public Appointment cancel() throws SQLException {
+            Appointment cancelled = Repositories.availabilities().cancel(this.aptId, this.username);
+            if (cancelled != null) {
+                VaccineCache.getInstance().adjust(cancelled.getVaccineName(), 1);
+                AvailabilityIndex.getInstance().markFree(cancelled.getTime(), cancelled.getCaregiverUsername());
+                Waitlist.serveFreedSlots(cancelled.getTime(), cancelled.getTime());
+            }
+            return cancelled;
+        }
+    }
+}
@@ -0,0 +1,78 @@
+package scheduler.model;
+
+import scheduler.metrics.Counter;
+import scheduler.metrics.MetricsRegistry;
+import scheduler.metrics.Timer;
+import scheduler.repository.Repositories;
+import scheduler.util.Env;
+import scheduler.util.ScheduledJob;
+
+import java.sql.Date;
+import java.sql.SQLException;
+import java.time.LocalDate;
+
+/**
+ * Background job that moves slots dated more than ArchiveHorizonDays (default 30) ago, booked or
+ * not, from Availabilities to AvailabilitiesHistory, so that the table reserve and search read
+ * stays the size of the dates still ahead.
+ *
+ * Rows move in transactions of ArchiveBatchSize (default 500) with a short pause in between, so
+ * a reservation never waits on more than one small batch. A pass runs every
+ * ArchiveIntervalSeconds (default 300) and stops once nothing is left to move.
+ */
+public class Archiver {
+
+    // between batches, so that the archiver does not hold a connection and the table continuously
+    private static final long PAUSE_MILLIS = 20;
+
+    private static final int HORIZON_DAYS = Env.positiveInt("ArchiveHorizonDays", 30);
+    private static final int BATCH_SIZE = Env.positiveInt("ArchiveBatchSize", 500);
+    private static final int INTERVAL_SECONDS = Env.positiveInt("ArchiveIntervalSeconds", 300);
+
+    private static final Counter ARCHIVED = MetricsRegistry.getInstance().counter("archive.moved");
+    private static final Timer BATCH_TIMER = MetricsRegistry.getInstance().timer("archive.batch");
+
+    // a failed pass, e.g. before the history table exists, is retried with backoff
+    private static final ScheduledJob JOB = new ScheduledJob("availability-archiver",
+            "Archiving past availabilities", 0, INTERVAL_SECONDS, Archiver::archiveOnce);
+
+    private Archiver() {
+    }
+
+    // Starts the periodic passes, the first one right away; later calls do nothing
+    public static void start() {
+        JOB.start();
+    }
+
+    /**
+     * Moves every slot older than the horizon to the history, one batch at a time, and returns how
+     * many slots were moved.
+     */
+    public static long archiveOnce() throws SQLException {
+        Date before = Date.valueOf(LocalDate.now().minusDays(HORIZON_DAYS));
+        long total = 0;
+        while (true) {
+            long start = System.nanoTime();
+            int moved;
+            try {
+                moved = Repositories.availabilities().archive(before, BATCH_SIZE);
+            } catch (SQLException e) {
+                BATCH_TIMER.recordError(System.nanoTime() - start);
+                throw e;
+            }
+            BATCH_TIMER.record(System.nanoTime() - start);
+            ARCHIVED.add(moved);
+            total += moved;
+            if (moved < BATCH_SIZE) {
+                return total;
+            }
+            try {
+                Thread.sleep(PAUSE_MILLIS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return total;
+            }
+        }
+    }
+
+}
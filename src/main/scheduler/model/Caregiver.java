@@ -1,26 +1,33 @@
 package scheduler.model;
 
-import scheduler.db.ConnectionManager;
+import scheduler.cache.AvailabilityIndex;
+import scheduler.cache.UsernameFilter;
+import scheduler.repository.Repositories;
+import scheduler.util.HashParams;
 import scheduler.util.Util;
 
 import java.sql.*;
-import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
 
 public class Caregiver {
     private final String username;
     private final byte[] salt;
     private final byte[] hash;
+    private final HashParams hashParams;
 
     private Caregiver(CaregiverBuilder builder) {
         this.username = builder.username;
         this.salt = builder.salt;
         this.hash = builder.hash;
+        this.hashParams = builder.hashParams;
     }
 
     private Caregiver(CaregiverGetter getter) {
         this.username = getter.username;
         this.salt = getter.salt;
         this.hash = getter.hash;
+        this.hashParams = getter.hashParams;
     }
 
     // Getters
@@ -36,50 +43,62 @@ public class Caregiver {
         return hash;
     }
 
-    public void saveToDB() throws SQLException {
-        ConnectionManager cm = new ConnectionManager();
-        Connection con = cm.createConnection();
-
-        String addCaregiver = "INSERT INTO Caregivers VALUES (? , ?, ?)";
-        try {
-            PreparedStatement statement = con.prepareStatement(addCaregiver);
-            statement.setString(1, this.username);
-            statement.setBytes(2, this.salt);
-            statement.setBytes(3, this.hash);
-            statement.executeUpdate();
-        } catch (SQLException e) {
-            throw new SQLException();
-        } finally {
-            cm.closeConnection();
+    public HashParams getHashParams() {
+        return hashParams;
+    }
+
+    // Inserts the caregiver, returns false if the username is taken
+    public boolean saveToDB() throws SQLException {
+        boolean saved = Repositories.caregivers().save(this);
+        // either way the name is in use now
+        UsernameFilter.caregivers().add(username);
+        return saved;
+    }
+
+    // Inserts the caregivers in one batch, result i is false if the username of caregivers.get(i) was taken
+    public static boolean[] saveAllToDB(List<Caregiver> caregivers) throws SQLException {
+        boolean[] saved = Repositories.caregivers().saveAll(caregivers);
+        for (Caregiver caregiver : caregivers) {
+            UsernameFilter.caregivers().add(caregiver.username);
         }
+        return saved;
     }
 
     public void uploadAvailability(Date d) throws SQLException {
-        ConnectionManager cm = new ConnectionManager();
-        Connection con = cm.createConnection();
-        String addAvailability = "INSERT INTO Availabilities (Time, cUsername) VALUES (? , ?)";
-        try {
-            PreparedStatement statement = con.prepareStatement(addAvailability);
-            statement.setDate(1, d);
-            statement.setString(2, this.username);
-            statement.executeUpdate();
-        } catch (SQLException e) {
-            System.out.println("oop");
-            throw new SQLException();
-        } finally {
-            cm.closeConnection();
+        Repositories.availabilities().add(this.username, d);
+        AvailabilityIndex.getInstance().markFree(d, this.username);
+        Waitlist.serveFreedSlots(d, d);
+    }
+
+    // Uploads all dates in one batched transaction, skipping dates that are already uploaded.
+    // Returns the number of availabilities inserted.
+    public int uploadAvailabilities(Collection<Date> dates) throws SQLException {
+        List<Date> inserted = Repositories.availabilities().addAll(this.username, dates);
+        for (Date d : inserted) {
+            AvailabilityIndex.getInstance().markFree(d, this.username);
+        }
+        if (!inserted.isEmpty()) {
+            Waitlist.serveFreedSlots(inserted.get(0), inserted.get(inserted.size() - 1));
         }
+        return inserted.size();
     }
 
     public static class CaregiverBuilder {
         private final String username;
         private final byte[] salt;
         private final byte[] hash;
+        private final HashParams hashParams;
 
+        // for a hash generated with the current parameters, see Util.generateHash(String, byte[])
         public CaregiverBuilder(String username, byte[] salt, byte[] hash) {
+            this(username, salt, hash, HashParams.current());
+        }
+
+        public CaregiverBuilder(String username, byte[] salt, byte[] hash, HashParams hashParams) {
             this.username = username;
             this.salt = salt;
             this.hash = hash;
+            this.hashParams = hashParams;
         }
 
         public Caregiver build() {
@@ -92,6 +111,7 @@ public class Caregiver {
         private final String password;
         private byte[] salt;
         private byte[] hash;
+        private HashParams hashParams;
 
         public CaregiverGetter(String username, String password) {
             this.username = username;
@@ -99,34 +119,37 @@ public class Caregiver {
         }
 
         public Caregiver get() throws SQLException {
-            ConnectionManager cm = new ConnectionManager();
-            Connection con = cm.createConnection();
+            Caregiver stored = Repositories.caregivers().find(this.username);
+            if (stored == null) {
+                return null;
+            }
+            // check if the password matches, after the connection is back in the pool
+            if (!Util.verifyPassword(password, stored.getSalt(), stored.getHash(), stored.getHashParams())) {
+                return null;
+            }
+            this.salt = stored.getSalt();
+            this.hash = stored.getHash();
+            this.hashParams = stored.getHashParams();
+            if (!this.hashParams.equals(HashParams.current())) {
+                rehash();
+            }
+            return new Caregiver(this);
+        }
 
-            String getCaregiver = "SELECT Salt, Hash FROM Caregivers WHERE Username = ?";
+        // Upgrades the stored hash to the current parameters now that we know the password.
+        // Failing to do so does not fail the login, it will be tried again next time.
+        private void rehash() {
+            HashParams newParams = HashParams.current();
+            byte[] newSalt = Util.generateSalt();
+            byte[] newHash = Util.generateHashAsync(password, newSalt, newParams).join();
             try {
-                PreparedStatement statement = con.prepareStatement(getCaregiver);
-                statement.setString(1, this.username);
-                ResultSet resultSet = statement.executeQuery();
-                while (resultSet.next()) {
-                    byte[] salt = resultSet.getBytes("Salt");
-                    // we need to call Util.trim() to get rid of the paddings,
-                    // try to remove the use of Util.trim() and you'll see :)
-                    byte[] hash = Util.trim(resultSet.getBytes("Hash"));
-                    // check if the password matches
-                    byte[] calculatedHash = Util.generateHash(password, salt);
-                    if (!Arrays.equals(hash, calculatedHash)) {
-                        return null;
-                    } else {
-                        this.salt = salt;
-                        this.hash = hash;
-                        return new Caregiver(this);
-                    }
+                if (Repositories.caregivers().updateCredentials(this.username, this.hash, newSalt, newHash, newParams)) {
+                    this.salt = newSalt;
+                    this.hash = newHash;
+                    this.hashParams = newParams;
                 }
-                return null;
             } catch (SQLException e) {
-                throw new SQLException();
-            } finally {
-                cm.closeConnection();
+                e.printStackTrace();
             }
         }
     }
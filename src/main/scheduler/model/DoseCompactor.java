@@ -0,0 +1,53 @@
+package scheduler.model;
+
+import scheduler.metrics.MetricsRegistry;
+import scheduler.metrics.Timer;
+import scheduler.repository.Repositories;
+import scheduler.util.Env;
+import scheduler.util.ScheduledJob;
+
+import java.sql.SQLException;
+
+/**
+ * Background job that compacts the striped stock of the vaccines whose DoseEvents ledger has grown
+ * since their last compaction, every DoseCompactionIntervalSeconds (default 10): the stripes' total
+ * is written to Vaccines.Doses for anything that reads that column directly, and the doses are
+ * spread evenly over the stripes again so that reservations keep finding stock in their own stripe.
+ * Each vaccine is compacted in its own transaction that locks only its rows.
+ *
+ * Reservations, cancellations and deliveries never wait for a compaction to see current stock;
+ * they read and update the stripes, and every change is in the DoseEvents ledger.
+ */
+public class DoseCompactor {
+
+    private static final int INTERVAL_SECONDS = Env.positiveInt("DoseCompactionIntervalSeconds", 10);
+
+    private static final Timer COMPACTION_TIMER = MetricsRegistry.getInstance().timer("doses.compaction");
+
+    // a failed compaction, e.g. before the stock table exists, is retried with backoff
+    private static final ScheduledJob JOB = new ScheduledJob("dose-compactor", "Compacting vaccine stock",
+            INTERVAL_SECONDS, INTERVAL_SECONDS, DoseCompactor::compactOnce);
+
+    private DoseCompactor() {
+    }
+
+    // Starts the periodic compactions, the first one after one interval; later calls do nothing
+    public static void start() {
+        JOB.start();
+    }
+
+    /**
+     * Compacts the stock of every vaccine whose ledger has grown and returns how many it compacted.
+     */
+    public static int compactOnce() throws SQLException {
+        long start = System.nanoTime();
+        try {
+            int vaccines = Repositories.vaccines().compact();
+            COMPACTION_TIMER.record(System.nanoTime() - start);
+            return vaccines;
+        } catch (SQLException e) {
+            COMPACTION_TIMER.recordError(System.nanoTime() - start);
+            throw e;
+        }
+    }
+}
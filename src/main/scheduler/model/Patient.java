@@ -1,26 +1,31 @@
 package scheduler.model;
 
-import scheduler.db.ConnectionManager;
+import scheduler.cache.UsernameFilter;
+import scheduler.repository.Repositories;
+import scheduler.util.HashParams;
 import scheduler.util.Util;
 
 import java.sql.*;
-import java.util.Arrays;
+import java.util.List;
 
 public class Patient {
     private final String username;
     private final byte[] salt;
     private final byte[] hash;
+    private final HashParams hashParams;
 
     private Patient(PatientBuilder builder) {
         this.username = builder.username;
         this.salt = builder.salt;
         this.hash = builder.hash;
+        this.hashParams = builder.hashParams;
     }
 
     private Patient(PatientGetter getter) {
         this.username = getter.username;
         this.salt = getter.salt;
         this.hash = getter.hash;
+        this.hashParams = getter.hashParams;
     }
 
     // Getters
@@ -36,33 +41,43 @@ public class Patient {
         return hash;
     }
 
-    public void saveToDB() throws SQLException {
-        ConnectionManager cm = new ConnectionManager();
-        Connection con = cm.createConnection();
-
-        String addPatient = "INSERT INTO Patients VALUES (? , ?, ?)";
-        try {
-            PreparedStatement statement = con.prepareStatement(addPatient);
-            statement.setString(1, this.username);
-            statement.setBytes(2, this.salt);
-            statement.setBytes(3, this.hash);
-            statement.executeUpdate();
-        } catch (SQLException e) {
-            throw new SQLException();
-        } finally {
-            cm.closeConnection();
+    public HashParams getHashParams() {
+        return hashParams;
+    }
+
+    // Inserts the patient, returns false if the username is taken
+    public boolean saveToDB() throws SQLException {
+        boolean saved = Repositories.patients().save(this);
+        // either way the name is in use now
+        UsernameFilter.patients().add(username);
+        return saved;
+    }
+
+    // Inserts the patients in one batch, result i is false if the username of patients.get(i) was taken
+    public static boolean[] saveAllToDB(List<Patient> patients) throws SQLException {
+        boolean[] saved = Repositories.patients().saveAll(patients);
+        for (Patient patient : patients) {
+            UsernameFilter.patients().add(patient.username);
         }
+        return saved;
     }
 
     public static class PatientBuilder {
         private final String username;
         private final byte[] salt;
         private final byte[] hash;
+        private final HashParams hashParams;
 
+        // for a hash generated with the current parameters, see Util.generateHash(String, byte[])
         public PatientBuilder(String username, byte[] salt, byte[] hash) {
+            this(username, salt, hash, HashParams.current());
+        }
+
+        public PatientBuilder(String username, byte[] salt, byte[] hash, HashParams hashParams) {
             this.username = username;
             this.salt = salt;
             this.hash = hash;
+            this.hashParams = hashParams;
         }
 
         public Patient build() {
@@ -75,6 +90,7 @@ public class Patient {
         private final String password;
         private byte[] salt;
         private byte[] hash;
+        private HashParams hashParams;
 
         public PatientGetter(String username, String password) {
             this.username = username;
@@ -82,31 +98,37 @@ public class Patient {
         }
 
         public Patient get() throws SQLException {
-            ConnectionManager cm = new ConnectionManager();
-            Connection con = cm.createConnection();
+            Patient stored = Repositories.patients().find(this.username);
+            if (stored == null) {
+                return null;
+            }
+            // check if the password matches, after the connection is back in the pool
+            if (!Util.verifyPassword(password, stored.getSalt(), stored.getHash(), stored.getHashParams())) {
+                return null;
+            }
+            this.salt = stored.getSalt();
+            this.hash = stored.getHash();
+            this.hashParams = stored.getHashParams();
+            if (!this.hashParams.equals(HashParams.current())) {
+                rehash();
+            }
+            return new Patient(this);
+        }
 
-            String getPatient = "SELECT Salt, Hash FROM Patients WHERE Username = ?";
+        // Upgrades the stored hash to the current parameters now that we know the password.
+        // Failing to do so does not fail the login, it will be tried again next time.
+        private void rehash() {
+            HashParams newParams = HashParams.current();
+            byte[] newSalt = Util.generateSalt();
+            byte[] newHash = Util.generateHashAsync(password, newSalt, newParams).join();
             try {
-                PreparedStatement statement = con.prepareStatement(getPatient);
-                statement.setString(1, this.username);
-                ResultSet resultSet = statement.executeQuery();
-                while (resultSet.next()) {
-                    byte[] salt = resultSet.getBytes("Salt");
-                    byte[] hash = Util.trim(resultSet.getBytes("Hash"));
-                    byte[] calculatedHash = Util.generateHash(password, salt);
-                    if (!Arrays.equals(hash, calculatedHash)) {
-                        return null;
-                    } else {
-                        this.salt = salt;
-                        this.hash = hash;
-                        return new Patient(this);
-                    }
+                if (Repositories.patients().updateCredentials(this.username, this.hash, newSalt, newHash, newParams)) {
+                    this.salt = newSalt;
+                    this.hash = newHash;
+                    this.hashParams = newParams;
                 }
-                return null;
             } catch (SQLException e) {
-                throw new SQLException();
-            } finally {
-                cm.closeConnection();
+                e.printStackTrace();
             }
         }
     }
@@ -1,11 +1,10 @@
 package scheduler.model;
 
-import scheduler.db.ConnectionManager;
+import scheduler.cache.VaccineCache;
+import scheduler.repository.Repositories;
 
-import java.sql.Connection;
-import java.sql.PreparedStatement;
-import java.sql.ResultSet;
 import java.sql.SQLException;
+import java.util.List;
 
 public class Vaccine {
     private final String vaccineName;
@@ -31,20 +30,19 @@ public class Vaccine {
     }
 
     public void saveToDB() throws SQLException {
-        ConnectionManager cm = new ConnectionManager();
-        Connection con = cm.createConnection();
+        Repositories.vaccines().save(this);
+        VaccineCache.getInstance().put(this.vaccineName, this.availableDoses);
+    }
 
-        String addDoses = "INSERT INTO vaccines VALUES (?, ?)";
-        try {
-            PreparedStatement statement = con.prepareStatement(addDoses);
-            statement.setString(1, this.vaccineName);
-            statement.setInt(2, this.availableDoses);
-            statement.executeUpdate();
-        } catch (SQLException e) {
-            throw new SQLException();
-        } finally {
-            cm.closeConnection();
+    // Inserts the vaccines in one batch, result i is false if vaccines.get(i) already existed
+    public static boolean[] saveAllToDB(List<Vaccine> vaccines) throws SQLException {
+        boolean[] saved = Repositories.vaccines().saveAll(vaccines);
+        for (int i = 0; i < saved.length; i++) {
+            if (saved[i]) {
+                VaccineCache.getInstance().put(vaccines.get(i).vaccineName, vaccines.get(i).availableDoses);
+            }
         }
+        return saved;
     }
 
     // Increment the available doses
@@ -52,44 +50,34 @@ public class Vaccine {
         if (num <= 0) {
             throw new IllegalArgumentException("Argument cannot be negative!");
         }
-        this.availableDoses += num;
-
-        ConnectionManager cm = new ConnectionManager();
-        Connection con = cm.createConnection();
-
-        String removeAvailability  = "UPDATE Vaccines SET Doses = ? WHERE name = ?;";
         try {
-            PreparedStatement statement = con.prepareStatement(removeAvailability);
-            statement.setInt(1, this.availableDoses);
-            statement.setString(2, this.vaccineName);
-            statement.executeUpdate();
+            Repositories.vaccines().addDoses(this.vaccineName, num);
         } catch (SQLException e) {
-            throw new SQLException();
-        } finally {
-            cm.closeConnection();
+            VaccineCache.getInstance().invalidate(this.vaccineName);
+            throw e;
         }
+        this.availableDoses += num;
+        VaccineCache.getInstance().adjust(this.vaccineName, num);
+        Waitlist.serveNewDoses();
     }
 
     // Decrement the available doses
     public void decreaseAvailableDoses(int num) throws SQLException {
-        if (this.availableDoses - num < 0) {
-            throw new IllegalArgumentException("Not enough available doses!");
+        if (num <= 0) {
+            throw new IllegalArgumentException("Argument cannot be negative!");
         }
-        this.availableDoses -= num;
-        ConnectionManager cm = new ConnectionManager();
-        Connection con = cm.createConnection();
-
-        String removeAvailability  = "UPDATE Vaccines SET Doses = ? WHERE name = ?;";
+        boolean removed;
         try {
-            PreparedStatement statement = con.prepareStatement(removeAvailability);
-            statement.setInt(1, this.availableDoses);
-            statement.setString(2, this.vaccineName);
-            statement.executeUpdate();
+            removed = Repositories.vaccines().removeDoses(this.vaccineName, num);
         } catch (SQLException e) {
-            throw new SQLException();
-        } finally {
-            cm.closeConnection();
+            VaccineCache.getInstance().invalidate(this.vaccineName);
+            throw e;
         }
+        if (!removed) {
+            throw new IllegalArgumentException("Not enough available doses!");
+        }
+        this.availableDoses -= num;
+        VaccineCache.getInstance().adjust(this.vaccineName, -num);
     }
 
     @Override
@@ -123,24 +111,13 @@ public class Vaccine {
         }
 
         public Vaccine get() throws SQLException {
-            ConnectionManager cm = new ConnectionManager();
-            Connection con = cm.createConnection();
-
-            String getVaccine = "SELECT Name, Doses FROM Vaccines WHERE Name = ?";
-            try {
-                PreparedStatement statement = con.prepareStatement(getVaccine);
-                statement.setString(1, this.vaccineName);
-                ResultSet resultSet = statement.executeQuery();
-                while (resultSet.next()) {
-                    this.availableDoses = resultSet.getInt("Doses");
-                    return new Vaccine(this);
-                }
+            Integer doses = Repositories.vaccines().findDoses(this.vaccineName);
+            if (doses == null) {
                 return null;
-            } catch (SQLException e) {
-                throw new SQLException();
-            } finally {
-                cm.closeConnection();
             }
+            this.availableDoses = doses;
+            VaccineCache.getInstance().put(this.vaccineName, this.availableDoses);
+            return new Vaccine(this);
         }
     }
 }
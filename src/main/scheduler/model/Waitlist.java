@@ -0,0 +1,105 @@
+package scheduler.model;
+
+import scheduler.cache.AvailabilityIndex;
+import scheduler.cache.VaccineCache;
+import scheduler.metrics.Counter;
+import scheduler.metrics.MetricsRegistry;
+import scheduler.repository.Repositories;
+
+import java.sql.Date;
+import java.sql.SQLException;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Patients waiting for a slot on a fully booked date. Whenever a slot may have opened up (an
+ * upload, a cancellation or new doses) one allocation pass books the patients that have waited
+ * longest, so patients do not have to keep retrying reserve.
+ */
+public class Waitlist {
+
+    // patients booked per allocation round trip
+    private static final int ASSIGN_BATCH_SIZE = 100;
+    private static final Date FAR_FUTURE = Date.valueOf("9999-12-31");
+
+    private static final Counter ASSIGNED = MetricsRegistry.getInstance().counter("waitlist.assigned");
+    private static final Counter JOINED = MetricsRegistry.getInstance().counter("waitlist.joined");
+
+    private Waitlist() {
+    }
+
+    // Serves the waitlist after slots were freed between two dates. A failure leaves the slots open
+    // for reserve and the next pass, so it must not fail the command that freed them.
+    static void serveFreedSlots(Date from, Date to) {
+        try {
+            new WaitlistAllocator(from, to).allocate();
+        } catch (SQLException e) {
+            e.printStackTrace();
+        }
+    }
+
+    // Serves patients that were waiting for doses rather than for a caregiver
+    static void serveNewDoses() {
+        serveFreedSlots(Date.valueOf(LocalDate.now()), FAR_FUTURE);
+    }
+
+    /**
+     * Puts a patient in line for a date.
+     */
+    public static class WaitlistJoiner {
+        private final Date time;
+        private final String patientUsername;
+        private final String vaccineName;
+        private boolean added;
+
+        public WaitlistJoiner(Date time, String patientUsername, String vaccineName) {
+            this.time = time;
+            this.patientUsername = patientUsername;
+            this.vaccineName = vaccineName;
+        }
+
+        // Returns the patient's place in line, counting from 1
+        public int join() throws SQLException {
+            this.added = Repositories.waitlist().enqueue(this.time, this.patientUsername, this.vaccineName);
+            if (this.added) {
+                JOINED.increment();
+            }
+            return Repositories.waitlist().position(this.time, this.patientUsername);
+        }
+
+        // false if the last call to join() found the patient already waiting
+        public boolean isAdded() {
+            return added;
+        }
+    }
+
+    /**
+     * Books open slots between two dates for waiting patients, first come first served.
+     */
+    public static class WaitlistAllocator {
+        private final Date from;
+        private final Date to;
+
+        public WaitlistAllocator(Date from, Date to) {
+            this.from = from;
+            this.to = to;
+        }
+
+        // Returns the appointments booked for waiting patients
+        public List<Appointment> allocate() throws SQLException {
+            List<Appointment> assigned = new ArrayList<>();
+            List<Appointment> batch;
+            do {
+                batch = Repositories.waitlist().assign(this.from, this.to, ASSIGN_BATCH_SIZE);
+                for (Appointment appointment : batch) {
+                    VaccineCache.getInstance().adjust(appointment.getVaccineName(), -1);
+                    AvailabilityIndex.getInstance().markBooked(appointment.getTime(), appointment.getCaregiverUsername());
+                }
+                assigned.addAll(batch);
+                ASSIGNED.add(batch.size());
+            } while (batch.size() == ASSIGN_BATCH_SIZE);
+            return assigned;
+        }
+    }
+}
@@ -0,0 +1,86 @@
+package scheduler.repository;
+
+import scheduler.db.ReadFreshness;
+import scheduler.util.Env;
+
+import java.sql.SQLException;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Runs data-access calls in the background so that a handler can issue independent lookups at
+ * the same time, each on its own pooled connection, and join them when it renders the result:
+ *
+ * <pre>
+ *     CompletableFuture&lt;Integer&gt; doses = AsyncQueries.supply(() -&gt; Repositories.vaccines().findDoses(name));
+ *     List&lt;String&gt; caregivers = Repositories.availabilities().findFreeCaregivers(date);
+ *     ... AsyncQueries.join(doses) ...
+ * </pre>
+ *
+ * A query runs with the ReadFreshness of the thread that supplied it, so a session's background
+ * lookups see its writes too.
+ *
+ * There is one query thread per connection the pool may open (PoolMaxSize, default 10); when all
+ * of them are busy and the queue is full the caller runs the query itself.
+ */
+public class AsyncQueries {
+
+    private static final ExecutorService QUERY_EXECUTOR = newQueryExecutor();
+
+    /**
+     * A data-access call, e.g. a repository method.
+     */
+    public interface Query<T> {
+        T run() throws SQLException;
+    }
+
+    private AsyncQueries() {
+    }
+
+    public static <T> CompletableFuture<T> supply(Query<T> query) {
+        ReadFreshness freshness = ReadFreshness.current();
+        return CompletableFuture.supplyAsync(() -> {
+            try (ReadFreshness.Scope scope = freshness == null ? null : freshness.bind()) {
+                return query.run();
+            } catch (SQLException e) {
+                throw new CompletionException(e);
+            }
+        }, QUERY_EXECUTOR);
+    }
+
+    /**
+     * Waits for a query started with supply and returns its result, rethrowing the SQLException
+     * it failed with.
+     */
+    public static <T> T join(CompletableFuture<T> future) throws SQLException {
+        try {
+            return future.join();
+        } catch (CompletionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof SQLException) {
+                throw (SQLException) cause;
+            }
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            throw e;
+        }
+    }
+
+    private static ExecutorService newQueryExecutor() {
+        // one per connection the primary pool may open, see ConnectionManager
+        int threads = Env.positiveInt("PoolMaxSize", 10);
+        ThreadPoolExecutor executor = new ThreadPoolExecutor(threads, threads, 60, TimeUnit.SECONDS,
+                new ArrayBlockingQueue<>(threads * 64), r -> {
+                    Thread t = new Thread(r, "async-query");
+                    t.setDaemon(true);
+                    return t;
+                }, new ThreadPoolExecutor.CallerRunsPolicy());
+        executor.allowCoreThreadTimeOut(true);
+        return executor;
+    }
+}
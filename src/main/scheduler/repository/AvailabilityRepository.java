@@ -0,0 +1,49 @@
+package scheduler.repository;
+
+import scheduler.model.Appointment;
+
+import java.sql.Date;
+import java.sql.SQLException;
+import java.util.Collection;
+import java.util.List;
+import java.util.function.BiConsumer;
+import java.util.function.Consumer;
+
+public interface AvailabilityRepository {
+
+    void add(String caregiverUsername, Date time) throws SQLException;
+
+    // Adds every date the caregiver has not uploaded yet in one transaction, returns the dates added
+    List<Date> addAll(String caregiverUsername, Collection<Date> times) throws SQLException;
+
+    // Caregivers with an open slot on a date, ordered by username
+    List<String> findFreeCaregivers(Date time) throws SQLException;
+
+    // Streams the number of open slots on each date between two dates that has any, in date order
+    void forEachFreeSlotCount(Date from, Date to, BiConsumer<Date, Integer> consumer) throws SQLException;
+
+    // Streams the (Time, cUsername) of every open slot on or after a date
+    void forEachOpenSlot(Date from, BiConsumer<Date, String> consumer) throws SQLException;
+
+    // Streams every slot, open or booked, between two dates whose aptId is above afterAptId, in aptId order
+    void forEachSlot(Date from, Date to, int afterAptId, Consumer<Appointment> consumer) throws SQLException;
+
+    // Books the first open slot on a date and takes one dose of the vaccine, atomically
+    Appointment.Reservation reserve(Date time, String patientUsername, String vaccineName) throws SQLException;
+
+    // Frees a booked appointment of the given patient or caregiver and returns its dose to stock.
+    // Returns the appointment as it was before cancelling, or null if there is no such booking.
+    Appointment cancel(int aptId, String username) throws SQLException;
+
+    /**
+     * Streams the appointments of a patient or caregiver between two dates, ordered by (Time, aptId).
+     * Starts after the appointment (afterTime, afterAptId), skips the first skip rows and stops after
+     * limit rows, or at the end if limit is 0. Archived appointments are only included on request.
+     */
+    void forEachAppointment(String username, boolean isCaregiver, Date from, Date to,
+                            Date afterTime, int afterAptId, int skip, int limit, boolean includeHistory,
+                            Consumer<Appointment> consumer) throws SQLException;
+
+    // Moves up to max slots dated before a date to the history in one transaction, returns how many moved
+    int archive(Date before, int max) throws SQLException;
+}
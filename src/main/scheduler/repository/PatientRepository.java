@@ -0,0 +1,29 @@
+package scheduler.repository;
+
+import scheduler.model.Patient;
+import scheduler.util.HashParams;
+
+import java.sql.SQLException;
+import java.util.List;
+import java.util.function.Consumer;
+
+public interface PatientRepository {
+
+    // Inserts a new patient in one statement, returns false if the username is taken
+    boolean save(Patient patient) throws SQLException;
+
+    // Inserts the patients in one batch, result i is false if the username of patients.get(i) was taken
+    boolean[] saveAll(List<Patient> patients) throws SQLException;
+
+    // Returns the stored patient with its salt, hash and hash parameters, or null if there is none
+    Patient find(String username) throws SQLException;
+
+    boolean exists(String username) throws SQLException;
+
+    // Streams every username, in no particular order
+    void forEachUsername(Consumer<String> consumer) throws SQLException;
+
+    // Replaces the credentials if the stored hash is still expectedHash, returns whether it did
+    boolean updateCredentials(String username, byte[] expectedHash, byte[] salt, byte[] hash,
+                              HashParams hashParams) throws SQLException;
+}
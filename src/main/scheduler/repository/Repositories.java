@@ -0,0 +1,77 @@
+package scheduler.repository;
+
+import scheduler.metrics.MetricsRegistry;
+import scheduler.repository.jdbc.JdbcAvailabilityRepository;
+import scheduler.repository.jdbc.JdbcCaregiverRepository;
+import scheduler.repository.jdbc.JdbcPatientRepository;
+import scheduler.repository.jdbc.JdbcVaccineRepository;
+import scheduler.repository.jdbc.JdbcWaitlistRepository;
+import scheduler.repository.memory.InMemoryStore;
+import scheduler.util.Env;
+
+/**
+ * The storage backend used by the model classes and the scheduler.
+ *
+ * Set the Storage environment variable to "memory" to run entirely in process, e.g. for load
+ * tests and simulations; anything else uses the database configured for ConnectionManager.
+ */
+public class Repositories {
+
+    private static volatile PatientRepository patients;
+    private static volatile CaregiverRepository caregivers;
+    private static volatile VaccineRepository vaccines;
+    private static volatile AvailabilityRepository availabilities;
+    private static volatile WaitlistRepository waitlist;
+
+    static {
+        if ("memory".equalsIgnoreCase(Env.get("Storage", ""))) {
+            useInMemory();
+        } else {
+            useJdbc();
+        }
+    }
+
+    private Repositories() {
+    }
+
+    // every database call is timed as repository.<table>.<method>
+    public static void useJdbc() {
+        MetricsRegistry metrics = MetricsRegistry.getInstance();
+        patients = metrics.timed(PatientRepository.class, new JdbcPatientRepository(), "repository.patients");
+        caregivers = metrics.timed(CaregiverRepository.class, new JdbcCaregiverRepository(), "repository.caregivers");
+        vaccines = metrics.timed(VaccineRepository.class, new JdbcVaccineRepository(), "repository.vaccines");
+        availabilities = metrics.timed(AvailabilityRepository.class, new JdbcAvailabilityRepository(),
+                "repository.availabilities");
+        waitlist = metrics.timed(WaitlistRepository.class, new JdbcWaitlistRepository(), "repository.waitlist");
+    }
+
+    // Switches to a fresh, empty in-memory store
+    public static void useInMemory() {
+        InMemoryStore store = new InMemoryStore();
+        patients = store.patients();
+        caregivers = store.caregivers();
+        vaccines = store.vaccines();
+        availabilities = store.availabilities();
+        waitlist = store.waitlist();
+    }
+
+    public static PatientRepository patients() {
+        return patients;
+    }
+
+    public static CaregiverRepository caregivers() {
+        return caregivers;
+    }
+
+    public static VaccineRepository vaccines() {
+        return vaccines;
+    }
+
+    public static AvailabilityRepository availabilities() {
+        return availabilities;
+    }
+
+    public static WaitlistRepository waitlist() {
+        return waitlist;
+    }
+}
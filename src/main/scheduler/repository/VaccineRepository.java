@@ -0,0 +1,35 @@
+package scheduler.repository;
+
+import scheduler.model.Vaccine;
+
+import java.sql.SQLException;
+import java.util.List;
+import java.util.SortedMap;
+
+public interface VaccineRepository {
+
+    // Inserts a new vaccine, fails if it already exists
+    void save(Vaccine vaccine) throws SQLException;
+
+    // Inserts the vaccines in one batch, result i is false if vaccines.get(i) already existed
+    boolean[] saveAll(List<Vaccine> vaccines) throws SQLException;
+
+    // Returns the available doses of a vaccine, or null if there is no such vaccine
+    Integer findDoses(String vaccineName) throws SQLException;
+
+    // Returns the available doses of every vaccine, ordered by name
+    SortedMap<String, Integer> findAll() throws SQLException;
+
+    // Adds delivered doses to the stock of a vaccine and records them in the dose ledger
+    void addDoses(String vaccineName, int doses) throws SQLException;
+
+    // Takes doses out of stock and records them in the dose ledger, false if fewer are in stock
+    boolean removeDoses(String vaccineName, int doses) throws SQLException;
+
+    // Returns the sum of a vaccine's dose ledger, which equals its stock, or null if it has no entries
+    Integer findLedgerDoses(String vaccineName) throws SQLException;
+
+    // Writes the current stock of every vaccine whose ledger has grown since its last compaction to
+    // its Doses column, returns the number of vaccines compacted
+    int compact() throws SQLException;
+}
@@ -0,0 +1,24 @@
+package scheduler.repository;
+
+import scheduler.model.Appointment;
+
+import java.sql.Date;
+import java.sql.SQLException;
+import java.util.List;
+
+public interface WaitlistRepository {
+
+    // Queues a patient for a slot on a date, returns false if they are already waiting for that date
+    boolean enqueue(Date time, String patientUsername, String vaccineName) throws SQLException;
+
+    // The patient's place in the queue for a date starting at 1, or 0 if they are not waiting
+    int position(Date time, String patientUsername) throws SQLException;
+
+    /**
+     * Books open slots between two dates for the patients that have waited longest for them, first
+     * come first served per date, taking one dose each, and removes them from the waitlist. Patients
+     * whose vaccine is out of stock keep their place, patients who already have an appointment on the
+     * date lose theirs. Books at most max patients and returns their appointments.
+     */
+    List<Appointment> assign(Date from, Date to, int max) throws SQLException;
+}
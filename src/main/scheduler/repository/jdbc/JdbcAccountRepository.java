@@ -0,0 +1,169 @@
+package scheduler.repository.jdbc;
+
+import scheduler.db.ConnectionManager;
+import scheduler.db.SqlExecutor;
+import scheduler.util.HashParams;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.List;
+import java.util.function.Consumer;
+
+/**
+ * Accounts stored in one SQL Server table with the columns Username, Salt, Hash and HashParams.
+ * Patients and caregivers are both kept this way; a subclass names the table and converts between
+ * its account type and the columns.
+ */
+public abstract class JdbcAccountRepository<T> {
+
+    // usernames are streamed, not held in one result buffer
+    private static final int USERNAME_FETCH_SIZE = 1000;
+
+    private final String insert;
+    private final String insertIfAbsent;
+    private final String select;
+    private final String selectUsername;
+    private final String selectUsernames;
+    private final String updateCredentials;
+
+    protected JdbcAccountRepository(String table) {
+        this.insert = "INSERT INTO " + table + " (Username, Salt, Hash, HashParams) VALUES (?, ?, ?, ?)";
+        this.insertIfAbsent = "INSERT INTO " + table + " (Username, Salt, Hash, HashParams) SELECT ?, ?, ?, ? " +
+                "WHERE NOT EXISTS (SELECT 1 FROM " + table + " WHERE Username = ?)";
+        this.select = "SELECT Salt, Hash, HashParams FROM " + table + " WHERE Username = ?";
+        this.selectUsername = "SELECT 1 FROM " + table + " WHERE Username = ?";
+        this.selectUsernames = "SELECT Username FROM " + table;
+        this.updateCredentials = "UPDATE " + table + " SET Salt = ?, Hash = ?, HashParams = ? " +
+                "WHERE Username = ? AND Hash = ?";
+    }
+
+    protected abstract String getUsername(T account);
+
+    protected abstract byte[] getSalt(T account);
+
+    protected abstract byte[] getHash(T account);
+
+    protected abstract HashParams getHashParams(T account);
+
+    // Builds the account read from one row
+    protected abstract T build(String username, byte[] salt, byte[] hash, HashParams hashParams);
+
+    public boolean save(T account) throws SQLException {
+        return SqlExecutor.transaction(() -> {
+            try (Connection con = ConnectionManager.getInstance().getConnection();
+                 PreparedStatement statement = con.prepareStatement(insert)) {
+                setColumns(statement, account);
+                statement.executeUpdate();
+                return true;
+            } catch (SQLException e) {
+                // the primary key decides whether the name is free, even under concurrent signups
+                if (SqlExecutor.isDuplicateKey(e)) {
+                    return false;
+                }
+                throw e;
+            }
+        });
+    }
+
+    public boolean[] saveAll(List<T> accounts) throws SQLException {
+        boolean[] saved = SqlExecutor.transaction(() -> {
+            try (Connection con = ConnectionManager.getInstance().getConnection();
+                 PreparedStatement statement = con.prepareStatement(insertIfAbsent)) {
+                con.setAutoCommit(false);
+                try {
+                    for (T account : accounts) {
+                        setColumns(statement, account);
+                        statement.setString(5, getUsername(account));
+                        statement.addBatch();
+                    }
+                    int[] counts = statement.executeBatch();
+                    con.commit();
+                    boolean[] inserted = new boolean[counts.length];
+                    for (int i = 0; i < counts.length; i++) {
+                        inserted[i] = counts[i] > 0;
+                    }
+                    return inserted;
+                } catch (SQLException e) {
+                    con.rollback();
+                    throw e;
+                }
+            } catch (SQLException e) {
+                // a concurrent signup took a name between the check and the insert
+                if (SqlExecutor.isDuplicateKey(e)) {
+                    return null;
+                }
+                throw e;
+            }
+        });
+        if (saved == null) {
+            // go row by row once the batch has been rolled back, each row in a transaction of its own
+            saved = new boolean[accounts.size()];
+            for (int i = 0; i < saved.length; i++) {
+                saved[i] = save(accounts.get(i));
+            }
+        }
+        return saved;
+    }
+
+    public T find(String username) throws SQLException {
+        return SqlExecutor.query(() -> {
+            try (Connection con = ConnectionManager.getInstance().getReadConnection();
+                 PreparedStatement statement = con.prepareStatement(select)) {
+                statement.setString(1, username);
+                ResultSet resultSet = statement.executeQuery();
+                if (!resultSet.next()) {
+                    return null;
+                }
+                return build(username, resultSet.getBytes("Salt"), resultSet.getBytes("Hash"),
+                        HashParams.parse(resultSet.getString("HashParams")));
+            }
+        });
+    }
+
+    // names are never deleted, so a lagging replica can only miss a brand new one, which the insert rejects
+    public boolean exists(String username) throws SQLException {
+        return SqlExecutor.query(() -> {
+            try (Connection con = ConnectionManager.getInstance().getReadConnection();
+                 PreparedStatement statement = con.prepareStatement(selectUsername)) {
+                statement.setString(1, username);
+                return statement.executeQuery().next();
+            }
+        });
+    }
+
+    public void forEachUsername(Consumer<String> consumer) throws SQLException {
+        try (Connection con = ConnectionManager.getInstance().getReadConnection();
+             PreparedStatement statement = con.prepareStatement(selectUsernames)) {
+            statement.setFetchSize(USERNAME_FETCH_SIZE);
+            ResultSet resultSet = statement.executeQuery();
+            while (resultSet.next()) {
+                consumer.accept(resultSet.getString(1));
+            }
+        }
+    }
+
+    public boolean updateCredentials(String username, byte[] expectedHash, byte[] salt, byte[] hash,
+                                     HashParams hashParams) throws SQLException {
+        return SqlExecutor.transaction(() -> {
+            try (Connection con = ConnectionManager.getInstance().getConnection();
+                 PreparedStatement statement = con.prepareStatement(updateCredentials)) {
+                statement.setBytes(1, salt);
+                statement.setBytes(2, hash);
+                statement.setString(3, hashParams.encode());
+                statement.setString(4, username);
+                statement.setBytes(5, expectedHash);
+                return statement.executeUpdate() == 1;
+            }
+        });
+    }
+
+    // Sets Username, Salt, Hash and HashParams as parameters 1 to 4
+    private void setColumns(PreparedStatement statement, T account) throws SQLException {
+        statement.setString(1, getUsername(account));
+        statement.setBytes(2, getSalt(account));
+        statement.setBytes(3, getHash(account));
+        statement.setString(4, getHashParams(account).encode());
+    }
+}
@@ -0,0 +1,324 @@
+package scheduler.repository.jdbc;
+
+import scheduler.db.ConnectionManager;
+import scheduler.db.SqlExecutor;
+import scheduler.model.Appointment;
+import scheduler.repository.AvailabilityRepository;
+
+import java.sql.Connection;
+import java.sql.Date;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.TreeSet;
+import java.util.function.BiConsumer;
+import java.util.function.Consumer;
+
+/**
+ * Availabilities stored in SQL Server. Reservations and cancellations are sent as single T-SQL
+ * batches so each is one round trip and one transaction; both touch Availabilities before
+ * VaccineStock and DoseEvents so they always take their locks in the same order.
+ */
+public class JdbcAvailabilityRepository implements AvailabilityRepository {
+
+    // rows fetched from the database per round trip when streaming rows
+    private static final int APPOINTMENT_FETCH_SIZE = 500;
+    private static final int EXPORT_FETCH_SIZE = 10_000;
+
+    // The slot is picked with UPDLOCK/READPAST so concurrent reservations on the same date skip rows
+    // that are already being claimed instead of blocking on them or booking them twice. The dose is
+    // taken with a conditional decrement of one VaccineStock stripe, so stock can never go negative
+    // or lose an update: first the session's own stripe, then any stocked stripe no one else is
+    // updating, and only if both are empty any stocked stripe at all, waiting for it if need be.
+    // Status codes are the ordinals of Appointment.ReserveStatus.
+    private static final String RESERVE =
+            "SET NOCOUNT ON; " +
+            "SET XACT_ABORT ON; " +
+            "DECLARE @vName varchar(255) = ?; " +
+            "DECLARE @status int = 0; " +
+            "DECLARE @taken int; " +
+            "DECLARE @apt TABLE (aptId int, cUsername varchar(255)); " +
+            "BEGIN TRANSACTION; " +
+            "IF NOT EXISTS (SELECT 1 FROM Vaccines WHERE Name = @vName) " +
+            "    SET @status = 1; " +
+            "ELSE " +
+            "BEGIN " +
+            "    WITH slot AS (" +
+            "        SELECT TOP (1) aptId, cUsername, pUsername, vName " +
+            "        FROM Availabilities WITH (UPDLOCK, READPAST, ROWLOCK) " +
+            "        WHERE Time = ? AND pUsername IS NULL AND vName IS NULL " +
+            "        ORDER BY cUsername) " +
+            "    UPDATE slot SET pUsername = ?, vName = @vName " +
+            "    OUTPUT inserted.aptId, inserted.cUsername INTO @apt; " +
+            "    IF @@ROWCOUNT = 0 " +
+            "        SET @status = 2; " +
+            "    ELSE " +
+            "    BEGIN " +
+            "        UPDATE VaccineStock WITH (READPAST, ROWLOCK) SET Doses = Doses - 1 " +
+            "        WHERE vName = @vName AND Stripe = @@SPID % " + JdbcVaccineRepository.STRIPES + " AND Doses > 0; " +
+            "        SET @taken = @@ROWCOUNT; " +
+            "        IF @taken = 0 " +
+            "        BEGIN " +
+            "            UPDATE TOP (1) VaccineStock WITH (READPAST, ROWLOCK) SET Doses = Doses - 1 " +
+            "            WHERE vName = @vName AND Doses > 0; " +
+            "            SET @taken = @@ROWCOUNT; " +
+            "        END " +
+            "        IF @taken = 0 " +
+            "        BEGIN " +
+            "            UPDATE TOP (1) VaccineStock WITH (ROWLOCK) SET Doses = Doses - 1 " +
+            "            WHERE vName = @vName AND Doses > 0; " +
+            "            SET @taken = @@ROWCOUNT; " +
+            "        END " +
+            "        IF @taken = 0 " +
+            "            SET @status = 3; " +
+            "        ELSE " +
+            "            INSERT INTO DoseEvents (vName, Delta, Reason, aptId) " +
+            "            SELECT @vName, -1, 'reserve', aptId FROM @apt; " +
+            "    END " +
+            "END " +
+            "IF @status = 0 COMMIT TRANSACTION; ELSE ROLLBACK TRANSACTION; " +
+            "SELECT @status AS Status, a.aptId, a.cUsername " +
+            "FROM (SELECT 1 AS one) s LEFT JOIN @apt a ON @status = 0;";
+
+    // Moves one batch of past slots in one short transaction. The rows are read from the Time side
+    // of UQ_Availabilities_Time_cUsername, and READPAST skips any a reservation or cancellation
+    // still holds, so archiving never waits on them.
+    private static final String ARCHIVE =
+            "SET NOCOUNT ON; " +
+            "SET XACT_ABORT ON; " +
+            "DECLARE @moved int; " +
+            "BEGIN TRANSACTION; " +
+            "DELETE TOP (?) FROM Availabilities WITH (READPAST, ROWLOCK) " +
+            "OUTPUT deleted.aptId, deleted.Time, deleted.cUsername, deleted.pUsername, deleted.vName " +
+            "INTO AvailabilitiesHistory (aptId, Time, cUsername, pUsername, vName) " +
+            "WHERE Time < ?; " +
+            "SET @moved = @@ROWCOUNT; " +
+            "COMMIT TRANSACTION; " +
+            "SELECT @moved;";
+
+    private static final String CANCEL =
+            "SET NOCOUNT ON; " +
+            "SET XACT_ABORT ON; " +
+            "DECLARE @apt TABLE (aptId int, Time date, cUsername varchar(255), pUsername varchar(255), " +
+            "    vName varchar(255)); " +
+            "BEGIN TRANSACTION; " +
+            "UPDATE Availabilities SET pUsername = NULL, vName = NULL " +
+            "OUTPUT deleted.aptId, deleted.Time, deleted.cUsername, deleted.pUsername, deleted.vName INTO @apt " +
+            "WHERE aptId = ? AND pUsername IS NOT NULL AND (pUsername = ? OR cUsername = ?); " +
+            "UPDATE s SET Doses = s.Doses + 1 FROM VaccineStock s JOIN @apt a ON s.vName = a.vName " +
+            "WHERE s.Stripe = @@SPID % " + JdbcVaccineRepository.STRIPES + "; " +
+            "INSERT INTO DoseEvents (vName, Delta, Reason, aptId) SELECT vName, 1, 'cancel', aptId FROM @apt; " +
+            "COMMIT TRANSACTION; " +
+            "SELECT aptId, Time, cUsername, pUsername, vName FROM @apt;";
+
+    @Override
+    public void add(String caregiverUsername, Date time) throws SQLException {
+        String addAvailability = "INSERT INTO Availabilities (Time, cUsername) VALUES (? , ?)";
+        SqlExecutor.transaction(() -> {
+            try (Connection con = ConnectionManager.getInstance().getConnection();
+                 PreparedStatement statement = con.prepareStatement(addAvailability)) {
+                statement.setDate(1, time);
+                statement.setString(2, caregiverUsername);
+                statement.executeUpdate();
+            }
+            return null;
+        });
+    }
+
+    @Override
+    public List<Date> addAll(String caregiverUsername, Collection<Date> times) throws SQLException {
+        String addAvailability = "INSERT INTO Availabilities (Time, cUsername) SELECT ?, ? " +
+                "WHERE NOT EXISTS (SELECT 1 FROM Availabilities WHERE Time = ? AND cUsername = ?)";
+        return SqlExecutor.transaction(() -> {
+            try (Connection con = ConnectionManager.getInstance().getConnection();
+                 PreparedStatement statement = con.prepareStatement(addAvailability)) {
+                con.setAutoCommit(false);
+                try {
+                    List<Date> sorted = new ArrayList<>(new TreeSet<>(times));
+                    for (Date d : sorted) {
+                        statement.setDate(1, d);
+                        statement.setString(2, caregiverUsername);
+                        statement.setDate(3, d);
+                        statement.setString(4, caregiverUsername);
+                        statement.addBatch();
+                    }
+                    int[] counts = statement.executeBatch();
+                    List<Date> inserted = new ArrayList<>();
+                    for (int i = 0; i < counts.length; i++) {
+                        if (counts[i] > 0) {
+                            inserted.add(sorted.get(i));
+                        }
+                    }
+                    con.commit();
+                    return inserted;
+                } catch (SQLException e) {
+                    con.rollback();
+                    throw e;
+                }
+            }
+        });
+    }
+
+    @Override
+    public List<String> findFreeCaregivers(Date time) throws SQLException {
+        String getAvail = "SELECT cUsername FROM Availabilities WHERE Time = ? AND vName IS NULL AND pUsername IS NULL ORDER BY cUsername";
+        return SqlExecutor.query(() -> {
+            try (Connection con = ConnectionManager.getInstance().getReadConnection();
+                 PreparedStatement statement = con.prepareStatement(getAvail)) {
+                statement.setDate(1, time);
+                ResultSet resultSet = statement.executeQuery();
+                List<String> caregivers = new ArrayList<>();
+                while (resultSet.next()) {
+                    caregivers.add(resultSet.getString(1));
+                }
+                return caregivers;
+            }
+        });
+    }
+
+    @Override
+    public void forEachFreeSlotCount(Date from, Date to, BiConsumer<Date, Integer> consumer) throws SQLException {
+        // a range scan of the filtered open-slot index, already in Time order for the aggregate
+        String countOpen = "SELECT Time, COUNT(*) FROM Availabilities " +
+                "WHERE Time >= ? AND Time <= ? AND pUsername IS NULL GROUP BY Time ORDER BY Time";
+        try (Connection con = ConnectionManager.getInstance().getReadConnection();
+             PreparedStatement statement = con.prepareStatement(countOpen)) {
+            statement.setDate(1, from);
+            statement.setDate(2, to);
+            statement.setFetchSize(APPOINTMENT_FETCH_SIZE);
+            ResultSet resultSet = statement.executeQuery();
+            while (resultSet.next()) {
+                consumer.accept(resultSet.getDate(1), resultSet.getInt(2));
+            }
+        }
+    }
+
+    @Override
+    public void forEachOpenSlot(Date from, BiConsumer<Date, String> consumer) throws SQLException {
+        String getOpen = "SELECT Time, cUsername FROM Availabilities WHERE Time >= ? AND pUsername IS NULL";
+        try (Connection con = ConnectionManager.getInstance().getReadConnection();
+             PreparedStatement statement = con.prepareStatement(getOpen)) {
+            statement.setDate(1, from);
+            statement.setFetchSize(APPOINTMENT_FETCH_SIZE);
+            ResultSet resultSet = statement.executeQuery();
+            while (resultSet.next()) {
+                consumer.accept(resultSet.getDate(1), resultSet.getString(2));
+            }
+        }
+    }
+
+    @Override
+    public void forEachSlot(Date from, Date to, int afterAptId, Consumer<Appointment> consumer) throws SQLException {
+        // a range seek on the clustered key, so an export resumes cheaply from its last aptId
+        String getSlots = "SELECT aptId, Time, cUsername, pUsername, vName FROM Availabilities " +
+                "WHERE aptId > ? AND Time >= ? AND Time <= ? ORDER BY aptId";
+        try (Connection con = ConnectionManager.getInstance().getReadConnection();
+             PreparedStatement statement = con.prepareStatement(getSlots)) {
+            statement.setInt(1, afterAptId);
+            statement.setDate(2, from);
+            statement.setDate(3, to);
+            statement.setFetchSize(EXPORT_FETCH_SIZE);
+            ResultSet resultSet = statement.executeQuery();
+            while (resultSet.next()) {
+                consumer.accept(readAppointment(resultSet));
+            }
+        }
+    }
+
+    @Override
+    public Appointment.Reservation reserve(Date time, String patientUsername, String vaccineName) throws SQLException {
+        return SqlExecutor.transaction(() -> {
+            try (Connection con = ConnectionManager.getInstance().getConnection();
+                 PreparedStatement statement = con.prepareStatement(RESERVE)) {
+                statement.setString(1, vaccineName);
+                statement.setDate(2, time);
+                statement.setString(3, patientUsername);
+                ResultSet resultSet = statement.executeQuery();
+                if (!resultSet.next()) {
+                    throw new SQLException("The reservation returned no status");
+                }
+                Appointment.ReserveStatus status = Appointment.ReserveStatus.values()[resultSet.getInt("Status")];
+                if (status != Appointment.ReserveStatus.RESERVED) {
+                    return new Appointment.Reservation(status, null);
+                }
+                Appointment appointment = new Appointment.AppointmentBuilder(resultSet.getInt("aptId"), time,
+                        resultSet.getString("cUsername"), patientUsername, vaccineName).build();
+                return new Appointment.Reservation(status, appointment);
+            }
+        });
+    }
+
+    @Override
+    public Appointment cancel(int aptId, String username) throws SQLException {
+        return SqlExecutor.transaction(() -> {
+            try (Connection con = ConnectionManager.getInstance().getConnection();
+                 PreparedStatement statement = con.prepareStatement(CANCEL)) {
+                statement.setInt(1, aptId);
+                statement.setString(2, username);
+                statement.setString(3, username);
+                ResultSet resultSet = statement.executeQuery();
+                if (!resultSet.next()) {
+                    return null;
+                }
+                return readAppointment(resultSet);
+            }
+        });
+    }
+
+    @Override
+    public void forEachAppointment(String username, boolean isCaregiver, Date from, Date to,
+                                   Date afterTime, int afterAptId, int skip, int limit, boolean includeHistory,
+                                   Consumer<Appointment> consumer) throws SQLException {
+        String where = "WHERE " + (isCaregiver ? "cUsername" : "pUsername") + " = ? AND Time >= ? AND Time <= ? " +
+                "AND (Time > ? OR (Time = ? AND aptId > ?)) ";
+        String getApt = includeHistory
+                ? "SELECT aptId, Time, cUsername, pUsername, vName FROM (" +
+                  "SELECT aptId, Time, cUsername, pUsername, vName FROM Availabilities " + where +
+                  "UNION ALL " +
+                  "SELECT aptId, Time, cUsername, pUsername, vName FROM AvailabilitiesHistory " + where +
+                  ") a ORDER BY Time, aptId OFFSET ? ROWS FETCH NEXT ? ROWS ONLY"
+                : "SELECT aptId, Time, cUsername, pUsername, vName FROM Availabilities " + where +
+                  "ORDER BY Time, aptId OFFSET ? ROWS FETCH NEXT ? ROWS ONLY";
+        try (Connection con = ConnectionManager.getInstance().getReadConnection();
+             PreparedStatement statement = con.prepareStatement(getApt)) {
+            int parameter = 1;
+            for (int table = 0; table < (includeHistory ? 2 : 1); table++) {
+                statement.setString(parameter++, username);
+                statement.setDate(parameter++, from);
+                statement.setDate(parameter++, to);
+                statement.setDate(parameter++, afterTime);
+                statement.setDate(parameter++, afterTime);
+                statement.setInt(parameter++, afterAptId);
+            }
+            statement.setInt(parameter++, skip);
+            statement.setInt(parameter, limit == 0 ? Integer.MAX_VALUE : limit);
+            statement.setFetchSize(limit == 0 ? APPOINTMENT_FETCH_SIZE : Math.min(limit, APPOINTMENT_FETCH_SIZE));
+            ResultSet resultSet = statement.executeQuery();
+            while (resultSet.next()) {
+                consumer.accept(readAppointment(resultSet));
+            }
+        }
+    }
+
+    @Override
+    public int archive(Date before, int max) throws SQLException {
+        return SqlExecutor.transaction(() -> {
+            try (Connection con = ConnectionManager.getInstance().getConnection();
+                 PreparedStatement statement = con.prepareStatement(ARCHIVE)) {
+                statement.setInt(1, max);
+                statement.setDate(2, before);
+                ResultSet resultSet = statement.executeQuery();
+                return resultSet.next() ? resultSet.getInt(1) : 0;
+            }
+        });
+    }
+
+    private static Appointment readAppointment(ResultSet resultSet) throws SQLException {
+        return new Appointment.AppointmentBuilder(resultSet.getInt("aptId"), resultSet.getDate("Time"),
+                resultSet.getString("cUsername"), resultSet.getString("pUsername"),
+                resultSet.getString("vName")).build();
+    }
+}
@@ -0,0 +1,40 @@
+package scheduler.repository.jdbc;
+
+import scheduler.model.Caregiver;
+import scheduler.repository.CaregiverRepository;
+import scheduler.util.HashParams;
+
+/**
+ * Caregivers stored in SQL Server, in the Caregivers table.
+ */
+public class JdbcCaregiverRepository extends JdbcAccountRepository<Caregiver> implements CaregiverRepository {
+
+    public JdbcCaregiverRepository() {
+        super("Caregivers");
+    }
+
+    @Override
+    protected String getUsername(Caregiver account) {
+        return account.getUsername();
+    }
+
+    @Override
+    protected byte[] getSalt(Caregiver account) {
+        return account.getSalt();
+    }
+
+    @Override
+    protected byte[] getHash(Caregiver account) {
+        return account.getHash();
+    }
+
+    @Override
+    protected HashParams getHashParams(Caregiver account) {
+        return account.getHashParams();
+    }
+
+    @Override
+    protected Caregiver build(String username, byte[] salt, byte[] hash, HashParams hashParams) {
+        return new Caregiver.CaregiverBuilder(username, salt, hash, hashParams).build();
+    }
+}
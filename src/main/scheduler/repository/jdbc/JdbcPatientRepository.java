@@ -0,0 +1,40 @@
+package scheduler.repository.jdbc;
+
+import scheduler.model.Patient;
+import scheduler.repository.PatientRepository;
+import scheduler.util.HashParams;
+
+/**
+ * Patients stored in SQL Server, in the Patients table.
+ */
+public class JdbcPatientRepository extends JdbcAccountRepository<Patient> implements PatientRepository {
+
+    public JdbcPatientRepository() {
+        super("Patients");
+    }
+
+    @Override
+    protected String getUsername(Patient account) {
+        return account.getUsername();
+    }
+
+    @Override
+    protected byte[] getSalt(Patient account) {
+        return account.getSalt();
+    }
+
+    @Override
+    protected byte[] getHash(Patient account) {
+        return account.getHash();
+    }
+
+    @Override
+    protected HashParams getHashParams(Patient account) {
+        return account.getHashParams();
+    }
+
+    @Override
+    protected Patient build(String username, byte[] salt, byte[] hash, HashParams hashParams) {
+        return new Patient.PatientBuilder(username, salt, hash, hashParams).build();
+    }
+}
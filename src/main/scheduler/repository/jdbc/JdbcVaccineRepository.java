@@ -0,0 +1,288 @@
+package scheduler.repository.jdbc;
+
+import scheduler.db.ConnectionManager;
+import scheduler.db.ReadFreshness;
+import scheduler.db.SqlExecutor;
+import scheduler.model.Vaccine;
+import scheduler.repository.VaccineRepository;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.SortedMap;
+import java.util.TreeMap;
+
+/**
+ * Vaccines stored in SQL Server. A vaccine's stock is spread over STRIPES rows of VaccineStock and
+ * every change to it is appended to the DoseEvents ledger in the same transaction; Vaccines.Doses
+ * holds the total as of the last compaction and Vaccines.CompactedEventId the ledger entry it
+ * includes.
+ */
+public class JdbcVaccineRepository implements VaccineRepository {
+
+    // VaccineStock rows per vaccine, as created by the V8 migration
+    static final int STRIPES = 8;
+
+    // Creates the stock rows of a new vaccine with its doses spread evenly over them
+    private static final String ADD_STOCK =
+            "INSERT INTO VaccineStock (vName, Stripe, Doses) " +
+            "SELECT ?, s.Stripe, ? / " + STRIPES + " + CASE WHEN s.Stripe < ? % " + STRIPES + " THEN 1 ELSE 0 END " +
+            "FROM (VALUES " + stripeValues() + ") AS s (Stripe)";
+
+    private static final String ADD_EVENT = "INSERT INTO DoseEvents (vName, Delta, Reason) VALUES (?, ?, ?)";
+
+    // A delivery goes to the stripe of the session, so concurrent ones update different rows
+    private static final String ADD_DOSES =
+            "SET NOCOUNT ON; " +
+            "SET XACT_ABORT ON; " +
+            "BEGIN TRANSACTION; " +
+            "UPDATE VaccineStock SET Doses = Doses + ? WHERE vName = ? AND Stripe = @@SPID % " + STRIPES + "; " +
+            "INSERT INTO DoseEvents (vName, Delta, Reason) VALUES (?, ?, 'delivery'); " +
+            "COMMIT TRANSACTION;";
+
+    // Takes doses from the stripes in order once all of them are locked and hold enough in total
+    private static final String REMOVE_DOSES =
+            "SET NOCOUNT ON; " +
+            "SET XACT_ABORT ON; " +
+            "DECLARE @vName varchar(255) = ?; " +
+            "DECLARE @n int = ?; " +
+            "DECLARE @removed bit = 0; " +
+            "BEGIN TRANSACTION; " +
+            "IF (SELECT SUM(Doses) FROM VaccineStock WITH (UPDLOCK, HOLDLOCK) WHERE vName = @vName) >= @n " +
+            "BEGIN " +
+            "    UPDATE s SET Doses = s.Doses - t.n " +
+            "    FROM VaccineStock s JOIN (" +
+            "        SELECT Stripe, CASE WHEN @n - before < Doses THEN @n - before ELSE Doses END AS n " +
+            "        FROM (SELECT Stripe, Doses, " +
+            "                  SUM(Doses) OVER (ORDER BY Stripe ROWS UNBOUNDED PRECEDING) - Doses AS before " +
+            "              FROM VaccineStock WHERE vName = @vName) r " +
+            "        WHERE before < @n AND Doses > 0) t ON s.vName = @vName AND s.Stripe = t.Stripe; " +
+            "    INSERT INTO DoseEvents (vName, Delta, Reason) VALUES (@vName, -@n, 'removal'); " +
+            "    SET @removed = 1; " +
+            "END " +
+            "COMMIT TRANSACTION; " +
+            "SELECT @removed;";
+
+    // The vaccines with ledger entries newer than their last compaction, a seek per vaccine on
+    // IX_DoseEvents_vName
+    private static final String FIND_GROWN =
+            "SELECT v.Name FROM Vaccines v WHERE EXISTS (SELECT 1 FROM DoseEvents e " +
+            "WHERE e.vName = v.Name AND e.Id > ISNULL(v.CompactedEventId, 0))";
+
+    // Writes the total of one vaccine's stripes to Vaccines.Doses and spreads it evenly over the
+    // stripes again, so that reservations keep finding doses in their own stripe. Only that
+    // vaccine's rows are locked; every writer of its ledger holds one of them, so MAX(Id) is the
+    // last entry the total includes.
+    private static final String COMPACT =
+            "SET NOCOUNT ON; " +
+            "SET XACT_ABORT ON; " +
+            "DECLARE @vName varchar(255) = ?; " +
+            "DECLARE @doses int; " +
+            "BEGIN TRANSACTION; " +
+            "SELECT @doses = SUM(Doses) FROM VaccineStock WITH (UPDLOCK, ROWLOCK, HOLDLOCK) WHERE vName = @vName; " +
+            "UPDATE VaccineStock WITH (ROWLOCK) SET Doses = @doses / " + STRIPES +
+            " + CASE WHEN Stripe < @doses % " + STRIPES + " THEN 1 ELSE 0 END WHERE vName = @vName; " +
+            "UPDATE Vaccines WITH (ROWLOCK) SET Doses = @doses, " +
+            "CompactedEventId = (SELECT MAX(Id) FROM DoseEvents WHERE vName = @vName) WHERE Name = @vName; " +
+            "COMMIT TRANSACTION;";
+
+    @Override
+    public void save(Vaccine vaccine) throws SQLException {
+        String addDoses = "INSERT INTO Vaccines (Name, Doses) VALUES (?, ?)";
+        SqlExecutor.transaction(() -> {
+            try (Connection con = ConnectionManager.getInstance().getConnection();
+                 PreparedStatement statement = con.prepareStatement(addDoses);
+                 PreparedStatement stock = con.prepareStatement(ADD_STOCK);
+                 PreparedStatement event = con.prepareStatement(ADD_EVENT)) {
+                con.setAutoCommit(false);
+                try {
+                    statement.setString(1, vaccine.getVaccineName());
+                    statement.setInt(2, vaccine.getAvailableDoses());
+                    statement.executeUpdate();
+                    addStock(stock, event, vaccine);
+                    stock.executeBatch();
+                    event.executeBatch();
+                    con.commit();
+                } catch (SQLException e) {
+                    con.rollback();
+                    throw e;
+                }
+            }
+            return null;
+        });
+    }
+
+    @Override
+    public boolean[] saveAll(List<Vaccine> vaccines) throws SQLException {
+        String addVaccines = "INSERT INTO Vaccines (Name, Doses) SELECT ?, ? " +
+                "WHERE NOT EXISTS (SELECT 1 FROM Vaccines WHERE Name = ?)";
+        return SqlExecutor.transaction(() -> {
+            try (Connection con = ConnectionManager.getInstance().getConnection();
+                 PreparedStatement statement = con.prepareStatement(addVaccines);
+                 PreparedStatement stock = con.prepareStatement(ADD_STOCK);
+                 PreparedStatement event = con.prepareStatement(ADD_EVENT)) {
+                con.setAutoCommit(false);
+                try {
+                    for (Vaccine vaccine : vaccines) {
+                        statement.setString(1, vaccine.getVaccineName());
+                        statement.setInt(2, vaccine.getAvailableDoses());
+                        statement.setString(3, vaccine.getVaccineName());
+                        statement.addBatch();
+                    }
+                    int[] counts = statement.executeBatch();
+                    boolean[] saved = new boolean[counts.length];
+                    boolean any = false;
+                    for (int i = 0; i < counts.length; i++) {
+                        saved[i] = counts[i] > 0;
+                        if (saved[i]) {
+                            addStock(stock, event, vaccines.get(i));
+                            any = true;
+                        }
+                    }
+                    if (any) {
+                        stock.executeBatch();
+                        event.executeBatch();
+                    }
+                    con.commit();
+                    return saved;
+                } catch (SQLException e) {
+                    con.rollback();
+                    throw e;
+                }
+            }
+        });
+    }
+
+    // Adds the stock rows and opening ledger entry of a new vaccine to the two batches
+    private static void addStock(PreparedStatement stock, PreparedStatement event, Vaccine vaccine)
+            throws SQLException {
+        stock.setString(1, vaccine.getVaccineName());
+        stock.setInt(2, vaccine.getAvailableDoses());
+        stock.setInt(3, vaccine.getAvailableDoses());
+        stock.addBatch();
+        event.setString(1, vaccine.getVaccineName());
+        event.setInt(2, vaccine.getAvailableDoses());
+        event.setString(3, "new");
+        event.addBatch();
+    }
+
+    @Override
+    public Integer findDoses(String vaccineName) throws SQLException {
+        String getVaccine = "SELECT SUM(s.Doses) AS Doses FROM Vaccines v " +
+                "LEFT JOIN VaccineStock s ON s.vName = v.Name WHERE v.Name = ? GROUP BY v.Name";
+        return SqlExecutor.query(() -> {
+            try (Connection con = ConnectionManager.getInstance().getReadConnection();
+                 PreparedStatement statement = con.prepareStatement(getVaccine)) {
+                statement.setString(1, vaccineName);
+                ResultSet resultSet = statement.executeQuery();
+                if (resultSet.next()) {
+                    return resultSet.getInt("Doses");
+                }
+                return null;
+            }
+        });
+    }
+
+    @Override
+    public SortedMap<String, Integer> findAll() throws SQLException {
+        String getVaccines = "SELECT v.Name, SUM(s.Doses) AS Doses FROM Vaccines v " +
+                "LEFT JOIN VaccineStock s ON s.vName = v.Name GROUP BY v.Name";
+        return SqlExecutor.query(() -> {
+            try (Connection con = ConnectionManager.getInstance().getReadConnection();
+                 PreparedStatement statement = con.prepareStatement(getVaccines)) {
+                ResultSet resultSet = statement.executeQuery();
+                SortedMap<String, Integer> vaccines = new TreeMap<>();
+                while (resultSet.next()) {
+                    vaccines.put(resultSet.getString("Name"), resultSet.getInt("Doses"));
+                }
+                return vaccines;
+            }
+        });
+    }
+
+    @Override
+    public void addDoses(String vaccineName, int doses) throws SQLException {
+        SqlExecutor.transaction(() -> {
+            try (Connection con = ConnectionManager.getInstance().getConnection();
+                 PreparedStatement statement = con.prepareStatement(ADD_DOSES)) {
+                statement.setInt(1, doses);
+                statement.setString(2, vaccineName);
+                statement.setString(3, vaccineName);
+                statement.setInt(4, doses);
+                statement.execute();
+            }
+            return null;
+        });
+    }
+
+    @Override
+    public boolean removeDoses(String vaccineName, int doses) throws SQLException {
+        return SqlExecutor.transaction(() -> {
+            try (Connection con = ConnectionManager.getInstance().getConnection();
+                 PreparedStatement statement = con.prepareStatement(REMOVE_DOSES)) {
+                statement.setString(1, vaccineName);
+                statement.setInt(2, doses);
+                ResultSet resultSet = statement.executeQuery();
+                return resultSet.next() && resultSet.getBoolean(1);
+            }
+        });
+    }
+
+    @Override
+    public Integer findLedgerDoses(String vaccineName) throws SQLException {
+        String sumEvents = "SELECT SUM(Delta) FROM DoseEvents WHERE vName = ?";
+        return SqlExecutor.query(() -> {
+            try (Connection con = ConnectionManager.getInstance().getReadConnection();
+                 PreparedStatement statement = con.prepareStatement(sumEvents)) {
+                statement.setString(1, vaccineName);
+                ResultSet resultSet = statement.executeQuery();
+                if (resultSet.next()) {
+                    int doses = resultSet.getInt(1);
+                    return resultSet.wasNull() ? null : doses;
+                }
+                return null;
+            }
+        });
+    }
+
+    @Override
+    public int compact() throws SQLException {
+        // the ledger has to be read where it is written, a replica may miss the latest events
+        List<String> grown = SqlExecutor.query(() -> {
+            try (ReadFreshness.Scope scope = ReadFreshness.PRIMARY.bind();
+                 Connection con = ConnectionManager.getInstance().getReadConnection();
+                 PreparedStatement statement = con.prepareStatement(FIND_GROWN)) {
+                ResultSet resultSet = statement.executeQuery();
+                List<String> names = new ArrayList<>();
+                while (resultSet.next()) {
+                    names.add(resultSet.getString(1));
+                }
+                return names;
+            }
+        });
+        // one short transaction per vaccine, so reservations of the others never wait for it
+        for (String vaccineName : grown) {
+            SqlExecutor.transaction(() -> {
+                try (Connection con = ConnectionManager.getInstance().getConnection();
+                     PreparedStatement statement = con.prepareStatement(COMPACT)) {
+                    statement.setString(1, vaccineName);
+                    statement.execute();
+                }
+                return null;
+            });
+        }
+        return grown.size();
+    }
+
+    // "(0), (1), ..." for every stripe
+    private static String stripeValues() {
+        StringBuilder values = new StringBuilder();
+        for (int i = 0; i < STRIPES; i++) {
+            values.append(i == 0 ? "" : ", ").append('(').append(i).append(')');
+        }
+        return values.toString();
+    }
+}
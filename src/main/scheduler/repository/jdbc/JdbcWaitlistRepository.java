@@ -0,0 +1,137 @@
+package scheduler.repository.jdbc;
+
+import scheduler.db.ConnectionManager;
+import scheduler.db.SqlExecutor;
+import scheduler.model.Appointment;
+import scheduler.repository.WaitlistRepository;
+
+import java.sql.Connection;
+import java.sql.Date;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * The waitlist stored in SQL Server.
+ */
+public class JdbcWaitlistRepository implements WaitlistRepository {
+
+    // One allocation pass in one transaction: the n-th patient in line for a date whose vaccine is
+    // still in stock is paired with the n-th open slot on that date. Queue and slot rows are read
+    // with UPDLOCK/READPAST, so concurrent passes, reservations and cancellations skip each other's
+    // rows instead of waiting on them. Doses are ranked across the whole range before pairing, which
+    // can leave a patient for the next pass but never books more doses than are in stock. The stock
+    // stripes of the vaccines involved stay locked until the doses are taken from them in order.
+    // Patients who already have an appointment on the date they wait for are taken off the queue
+    // first, so a pass never books anyone a second slot on one date.
+    private static final String ASSIGN =
+            "SET NOCOUNT ON; " +
+            "SET XACT_ABORT ON; " +
+            "DECLARE @pairs TABLE (Id int, aptId int, pUsername varchar(255), vName varchar(255)); " +
+            "DECLARE @apt TABLE (aptId int, Time date, cUsername varchar(255), pUsername varchar(255), " +
+            "    vName varchar(255)); " +
+            "DECLARE @take TABLE (vName varchar(255), Stripe int, n int); " +
+            "BEGIN TRANSACTION; " +
+            "DELETE w FROM Waitlist w WITH (READPAST, ROWLOCK) " +
+            "WHERE w.Time >= ? AND w.Time <= ? " +
+            "    AND EXISTS (SELECT 1 FROM Availabilities a WHERE a.Time = w.Time AND a.pUsername = w.pUsername); " +
+            "WITH queued AS (" +
+            "    SELECT w.Id, w.Time, w.pUsername, w.vName, v.Doses, " +
+            "        ROW_NUMBER() OVER (PARTITION BY w.vName ORDER BY w.Id) AS doseRank " +
+            "    FROM Waitlist w WITH (UPDLOCK, READPAST, ROWLOCK) " +
+            "    JOIN (SELECT vName, SUM(Doses) AS Doses FROM VaccineStock WITH (UPDLOCK, HOLDLOCK, ROWLOCK) " +
+            "        GROUP BY vName) v ON v.vName = w.vName " +
+            "    WHERE w.Time >= ? AND w.Time <= ?), " +
+            "served AS (" +
+            "    SELECT Id, Time, pUsername, vName, ROW_NUMBER() OVER (PARTITION BY Time ORDER BY Id) AS n " +
+            "    FROM queued WHERE doseRank <= Doses), " +
+            "slots AS (" +
+            "    SELECT aptId, Time, ROW_NUMBER() OVER (PARTITION BY Time ORDER BY cUsername) AS n " +
+            "    FROM Availabilities WITH (UPDLOCK, READPAST, ROWLOCK) " +
+            "    WHERE Time >= ? AND Time <= ? AND pUsername IS NULL AND vName IS NULL) " +
+            "INSERT INTO @pairs (Id, aptId, pUsername, vName) " +
+            "SELECT TOP (?) s.Id, a.aptId, s.pUsername, s.vName " +
+            "FROM served s JOIN slots a ON a.Time = s.Time AND a.n = s.n " +
+            "ORDER BY s.Id; " +
+            "UPDATE a SET pUsername = p.pUsername, vName = p.vName " +
+            "OUTPUT inserted.aptId, inserted.Time, inserted.cUsername, inserted.pUsername, inserted.vName INTO @apt " +
+            "FROM Availabilities a JOIN @pairs p ON a.aptId = p.aptId; " +
+            "INSERT INTO @take (vName, Stripe, n) " +
+            "SELECT vName, Stripe, CASE WHEN n - before < Doses THEN n - before ELSE Doses END " +
+            "FROM (SELECT s.vName, s.Stripe, s.Doses, p.n, " +
+            "          SUM(s.Doses) OVER (PARTITION BY s.vName ORDER BY s.Stripe ROWS UNBOUNDED PRECEDING) - s.Doses AS before " +
+            "      FROM VaccineStock s JOIN (SELECT vName, COUNT(*) AS n FROM @pairs GROUP BY vName) p " +
+            "      ON s.vName = p.vName) r " +
+            "WHERE before < n AND Doses > 0; " +
+            "UPDATE s SET Doses = s.Doses - t.n " +
+            "FROM VaccineStock s JOIN @take t ON s.vName = t.vName AND s.Stripe = t.Stripe; " +
+            "INSERT INTO DoseEvents (vName, Delta, Reason, aptId) SELECT vName, -1, 'waitlist', aptId FROM @apt; " +
+            "DELETE w FROM Waitlist w JOIN @pairs p ON w.Id = p.Id; " +
+            "COMMIT TRANSACTION; " +
+            "SELECT aptId, Time, cUsername, pUsername, vName FROM @apt ORDER BY Time, aptId;";
+
+    @Override
+    public boolean enqueue(Date time, String patientUsername, String vaccineName) throws SQLException {
+        String enqueue = "INSERT INTO Waitlist (Time, pUsername, vName) SELECT ?, ?, ? " +
+                "WHERE NOT EXISTS (SELECT 1 FROM Waitlist WHERE Time = ? AND pUsername = ?)";
+        return SqlExecutor.transaction(() -> {
+            try (Connection con = ConnectionManager.getInstance().getConnection();
+                 PreparedStatement statement = con.prepareStatement(enqueue)) {
+                statement.setDate(1, time);
+                statement.setString(2, patientUsername);
+                statement.setString(3, vaccineName);
+                statement.setDate(4, time);
+                statement.setString(5, patientUsername);
+                return statement.executeUpdate() > 0;
+            } catch (SQLException e) {
+                // another session queued the same patient at the same moment
+                if (SqlExecutor.isDuplicateKey(e)) {
+                    return false;
+                }
+                throw e;
+            }
+        });
+    }
+
+    @Override
+    public int position(Date time, String patientUsername) throws SQLException {
+        String position = "SELECT COUNT(*) FROM Waitlist " +
+                "WHERE Time = ? AND Id <= (SELECT Id FROM Waitlist WHERE Time = ? AND pUsername = ?)";
+        return SqlExecutor.query(() -> {
+            try (Connection con = ConnectionManager.getInstance().getReadConnection();
+                 PreparedStatement statement = con.prepareStatement(position)) {
+                statement.setDate(1, time);
+                statement.setDate(2, time);
+                statement.setString(3, patientUsername);
+                ResultSet resultSet = statement.executeQuery();
+                return resultSet.next() ? resultSet.getInt(1) : 0;
+            }
+        });
+    }
+
+    @Override
+    public List<Appointment> assign(Date from, Date to, int max) throws SQLException {
+        return SqlExecutor.transaction(() -> {
+            try (Connection con = ConnectionManager.getInstance().getConnection();
+                 PreparedStatement statement = con.prepareStatement(ASSIGN)) {
+                statement.setDate(1, from);
+                statement.setDate(2, to);
+                statement.setDate(3, from);
+                statement.setDate(4, to);
+                statement.setDate(5, from);
+                statement.setDate(6, to);
+                statement.setInt(7, max);
+                ResultSet resultSet = statement.executeQuery();
+                List<Appointment> assigned = new ArrayList<>();
+                while (resultSet.next()) {
+                    assigned.add(new Appointment.AppointmentBuilder(resultSet.getInt("aptId"), resultSet.getDate("Time"),
+                            resultSet.getString("cUsername"), resultSet.getString("pUsername"),
+                            resultSet.getString("vName")).build());
+                }
+                return assigned;
+            }
+        });
+    }
+}
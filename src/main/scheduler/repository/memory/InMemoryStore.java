@@ -0,0 +1,647 @@
+package scheduler.repository.memory;
+
+import scheduler.model.Appointment;
+import scheduler.model.Caregiver;
+import scheduler.model.Patient;
+import scheduler.model.Vaccine;
+import scheduler.repository.AvailabilityRepository;
+import scheduler.repository.CaregiverRepository;
+import scheduler.repository.PatientRepository;
+import scheduler.repository.VaccineRepository;
+import scheduler.repository.WaitlistRepository;
+import scheduler.util.HashParams;
+import scheduler.util.StripedCounter;
+
+import java.sql.Date;
+import java.sql.SQLException;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableSet;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.ConcurrentSkipListSet;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.BiConsumer;
+import java.util.function.Consumer;
+
+/**
+ * A storage engine that keeps everything in concurrent maps, for simulations, load tests and CI
+ * runs that should not depend on a database.
+ *
+ * Availabilities are indexed by date (then caregiver) and by patient and caregiver (then date and
+ * aptId), which serves every lookup the scheduler makes without scanning. A slot is claimed and
+ * released under its own monitor, so reservations on different slots never contend, and the stock
+ * of a vaccine is a StripedCounter, so neither do the doses they take. Like the database, every
+ * change to the stock is also appended to the vaccine's dose ledger.
+ */
+public class InMemoryStore {
+
+    // mirrors the primary key violation SQL Server reports for a duplicate insert
+    private static final String INTEGRITY_VIOLATION = "23000";
+    private static final int DUPLICATE_KEY = 2627;
+
+    private final ConcurrentHashMap<String, Patient> patients = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<String, Caregiver> caregivers = new ConcurrentHashMap<>();
+    private final ConcurrentSkipListMap<String, Stock> vaccines = new ConcurrentSkipListMap<>();
+    private final AtomicLong nextEventId = new AtomicLong();
+
+    private final AtomicInteger nextAptId = new AtomicInteger();
+    private final ConcurrentHashMap<Integer, Slot> slots = new ConcurrentHashMap<>();
+    private final ConcurrentSkipListMap<LocalDate, ConcurrentSkipListMap<String, Slot>> slotsByDate =
+            new ConcurrentSkipListMap<>();
+    private final ConcurrentHashMap<String, NavigableSet<Slot>> slotsByCaregiver = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<String, NavigableSet<Slot>> slotsByPatient = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<String, NavigableSet<Slot>> historyByCaregiver = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<String, NavigableSet<Slot>> historyByPatient = new ConcurrentHashMap<>();
+    private final ConcurrentSkipListMap<LocalDate, WaitQueue> waitlist = new ConcurrentSkipListMap<>();
+
+    private final PatientRepository patientRepository = new Patients();
+    private final CaregiverRepository caregiverRepository = new Caregivers();
+    private final VaccineRepository vaccineRepository = new Vaccines();
+    private final Availabilities availabilityRepository = new Availabilities();
+    private final WaitlistRepository waitlistRepository = new Waitlists();
+
+    public PatientRepository patients() {
+        return patientRepository;
+    }
+
+    public CaregiverRepository caregivers() {
+        return caregiverRepository;
+    }
+
+    public VaccineRepository vaccines() {
+        return vaccineRepository;
+    }
+
+    public AvailabilityRepository availabilities() {
+        return availabilityRepository;
+    }
+
+    public WaitlistRepository waitlist() {
+        return waitlistRepository;
+    }
+
+    private static SQLException duplicateKey(String table, String key) {
+        return new SQLException("Violation of PRIMARY KEY constraint on " + table + ": " + key,
+                INTEGRITY_VIOLATION, DUPLICATE_KEY);
+    }
+
+    private static final Comparator<Slot> BY_TIME_AND_ID =
+            Comparator.comparing((Slot s) -> s.time).thenComparingInt(s -> s.aptId);
+
+    private static NavigableSet<Slot> newSlotSet() {
+        return new ConcurrentSkipListSet<>(BY_TIME_AND_ID);
+    }
+
+    // One row of Availabilities, pUsername and vName are guarded by the slot's monitor
+    private static class Slot {
+        private final int aptId;
+        private final LocalDate time;
+        private final String cUsername;
+        private String pUsername;
+        private String vName;
+
+        Slot(int aptId, LocalDate time, String cUsername) {
+            this.aptId = aptId;
+            this.time = time;
+            this.cUsername = cUsername;
+        }
+
+        synchronized Appointment toAppointment() {
+            return new Appointment.AppointmentBuilder(aptId, Date.valueOf(time), cUsername, pUsername, vName).build();
+        }
+    }
+
+    // The stock of one vaccine and its dose ledger, the counterpart of its VaccineStock and DoseEvents rows
+    private class Stock {
+        private final StripedCounter doses;
+        private final ConcurrentLinkedQueue<DoseEvent> events = new ConcurrentLinkedQueue<>();
+        private final AtomicLong lastEventId = new AtomicLong();
+        // the total and the last ledger entry as of the last compaction, like Vaccines.Doses and CompactedEventId
+        private volatile int compactedDoses;
+        private volatile long compactedEventId;
+
+        Stock(int doses) {
+            this.doses = new StripedCounter(doses);
+            this.compactedDoses = doses;
+            record(doses, "new", null);
+        }
+
+        void record(int delta, String reason, Integer aptId) {
+            long id = nextEventId.incrementAndGet();
+            events.add(new DoseEvent(id, delta, reason, aptId));
+            lastEventId.accumulateAndGet(id, Math::max);
+        }
+
+        int ledgerDoses() {
+            int sum = 0;
+            for (DoseEvent event : events) {
+                sum += event.delta;
+            }
+            return sum;
+        }
+
+        // folds the stock into the compacted total, false if the ledger has not grown since the last time
+        synchronized boolean compact() {
+            long last = lastEventId.get();
+            if (last <= compactedEventId) {
+                return false;
+            }
+            compactedDoses = doses.sum();
+            compactedEventId = last;
+            return true;
+        }
+    }
+
+    // One row of DoseEvents
+    private static class DoseEvent {
+        private final long id;
+        private final int delta;
+        private final String reason;
+        private final Integer aptId;
+
+        DoseEvent(long id, int delta, String reason, Integer aptId) {
+            this.id = id;
+            this.delta = delta;
+            this.reason = reason;
+            this.aptId = aptId;
+        }
+    }
+
+    // The patients waiting for one date in arrival order with the vaccine each wants, guarded by its monitor
+    private static class WaitQueue {
+        private final LinkedHashMap<String, String> vaccineByPatient = new LinkedHashMap<>();
+    }
+
+    private class Patients implements PatientRepository {
+        @Override
+        public boolean save(Patient patient) {
+            return patients.putIfAbsent(patient.getUsername(), patient) == null;
+        }
+
+        @Override
+        public boolean[] saveAll(List<Patient> batch) {
+            boolean[] saved = new boolean[batch.size()];
+            for (int i = 0; i < saved.length; i++) {
+                saved[i] = save(batch.get(i));
+            }
+            return saved;
+        }
+
+        @Override
+        public Patient find(String username) {
+            return patients.get(username);
+        }
+
+        @Override
+        public boolean exists(String username) {
+            return patients.containsKey(username);
+        }
+
+        @Override
+        public void forEachUsername(Consumer<String> consumer) {
+            patients.keySet().forEach(consumer);
+        }
+
+        @Override
+        public boolean updateCredentials(String username, byte[] expectedHash, byte[] salt, byte[] hash,
+                                         HashParams hashParams) {
+            Patient current = patients.get(username);
+            return current != null && Arrays.equals(current.getHash(), expectedHash)
+                    && patients.replace(username, current,
+                    new Patient.PatientBuilder(username, salt, hash, hashParams).build());
+        }
+    }
+
+    private class Caregivers implements CaregiverRepository {
+        @Override
+        public boolean save(Caregiver caregiver) {
+            return caregivers.putIfAbsent(caregiver.getUsername(), caregiver) == null;
+        }
+
+        @Override
+        public boolean[] saveAll(List<Caregiver> batch) {
+            boolean[] saved = new boolean[batch.size()];
+            for (int i = 0; i < saved.length; i++) {
+                saved[i] = save(batch.get(i));
+            }
+            return saved;
+        }
+
+        @Override
+        public Caregiver find(String username) {
+            return caregivers.get(username);
+        }
+
+        @Override
+        public boolean exists(String username) {
+            return caregivers.containsKey(username);
+        }
+
+        @Override
+        public void forEachUsername(Consumer<String> consumer) {
+            caregivers.keySet().forEach(consumer);
+        }
+
+        @Override
+        public boolean updateCredentials(String username, byte[] expectedHash, byte[] salt, byte[] hash,
+                                         HashParams hashParams) {
+            Caregiver current = caregivers.get(username);
+            return current != null && Arrays.equals(current.getHash(), expectedHash)
+                    && caregivers.replace(username, current,
+                    new Caregiver.CaregiverBuilder(username, salt, hash, hashParams).build());
+        }
+    }
+
+    private class Vaccines implements VaccineRepository {
+        @Override
+        public void save(Vaccine vaccine) throws SQLException {
+            if (vaccines.putIfAbsent(vaccine.getVaccineName(), new Stock(vaccine.getAvailableDoses())) != null) {
+                throw duplicateKey("Vaccines", vaccine.getVaccineName());
+            }
+        }
+
+        @Override
+        public boolean[] saveAll(List<Vaccine> batch) {
+            boolean[] saved = new boolean[batch.size()];
+            for (int i = 0; i < saved.length; i++) {
+                Vaccine vaccine = batch.get(i);
+                saved[i] = vaccines.putIfAbsent(vaccine.getVaccineName(), new Stock(vaccine.getAvailableDoses())) == null;
+            }
+            return saved;
+        }
+
+        @Override
+        public Integer findDoses(String vaccineName) {
+            Stock stock = vaccines.get(vaccineName);
+            return stock == null ? null : stock.doses.sum();
+        }
+
+        @Override
+        public SortedMap<String, Integer> findAll() {
+            SortedMap<String, Integer> result = new TreeMap<>();
+            vaccines.forEach((name, stock) -> result.put(name, stock.doses.sum()));
+            return result;
+        }
+
+        @Override
+        public void addDoses(String vaccineName, int doses) {
+            Stock stock = vaccines.get(vaccineName);
+            if (stock != null) {
+                stock.doses.add(doses);
+                stock.record(doses, "delivery", null);
+            }
+        }
+
+        @Override
+        public boolean removeDoses(String vaccineName, int doses) {
+            Stock stock = vaccines.get(vaccineName);
+            if (stock == null || !stock.doses.tryTake(doses)) {
+                return false;
+            }
+            stock.record(-doses, "removal", null);
+            return true;
+        }
+
+        @Override
+        public Integer findLedgerDoses(String vaccineName) {
+            Stock stock = vaccines.get(vaccineName);
+            return stock == null ? null : stock.ledgerDoses();
+        }
+
+        @Override
+        public int compact() {
+            int compacted = 0;
+            for (Stock stock : vaccines.values()) {
+                if (stock.compact()) {
+                    compacted++;
+                }
+            }
+            return compacted;
+        }
+    }
+
+    private class Availabilities implements AvailabilityRepository {
+        @Override
+        public void add(String caregiverUsername, Date time) throws SQLException {
+            if (!insert(caregiverUsername, time.toLocalDate())) {
+                throw duplicateKey("Availabilities", time + " " + caregiverUsername);
+            }
+        }
+
+        @Override
+        public List<Date> addAll(String caregiverUsername, Collection<Date> times) {
+            List<Date> inserted = new ArrayList<>();
+            for (Date time : new TreeSet<>(times)) {
+                if (insert(caregiverUsername, time.toLocalDate())) {
+                    inserted.add(time);
+                }
+            }
+            return inserted;
+        }
+
+        // adds an open slot unless the caregiver already has one on that date
+        private boolean insert(String caregiverUsername, LocalDate time) {
+            ConcurrentSkipListMap<String, Slot> bucket =
+                    slotsByDate.computeIfAbsent(time, d -> new ConcurrentSkipListMap<>());
+            if (bucket.containsKey(caregiverUsername)) {
+                return false;
+            }
+            Slot slot = new Slot(nextAptId.getAndIncrement(), time, caregiverUsername);
+            if (bucket.putIfAbsent(caregiverUsername, slot) != null) {
+                return false;
+            }
+            slots.put(slot.aptId, slot);
+            slotsByCaregiver.computeIfAbsent(caregiverUsername, c -> newSlotSet()).add(slot);
+            return true;
+        }
+
+        @Override
+        public List<String> findFreeCaregivers(Date time) {
+            ConcurrentSkipListMap<String, Slot> bucket = slotsByDate.get(time.toLocalDate());
+            if (bucket == null) {
+                return Collections.emptyList();
+            }
+            List<String> caregivers = new ArrayList<>();
+            for (Slot slot : bucket.values()) {
+                synchronized (slot) {
+                    if (slot.pUsername == null) {
+                        caregivers.add(slot.cUsername);
+                    }
+                }
+            }
+            return caregivers;
+        }
+
+        @Override
+        public void forEachFreeSlotCount(Date from, Date to, BiConsumer<Date, Integer> consumer) {
+            if (from.after(to)) {
+                return;
+            }
+            for (Map.Entry<LocalDate, ConcurrentSkipListMap<String, Slot>> bucket :
+                    slotsByDate.subMap(from.toLocalDate(), true, to.toLocalDate(), true).entrySet()) {
+                int free = 0;
+                for (Slot slot : bucket.getValue().values()) {
+                    synchronized (slot) {
+                        if (slot.pUsername == null) {
+                            free++;
+                        }
+                    }
+                }
+                if (free > 0) {
+                    consumer.accept(Date.valueOf(bucket.getKey()), free);
+                }
+            }
+        }
+
+        @Override
+        public void forEachOpenSlot(Date from, BiConsumer<Date, String> consumer) {
+            for (ConcurrentSkipListMap<String, Slot> bucket : slotsByDate.tailMap(from.toLocalDate(), true).values()) {
+                for (Slot slot : bucket.values()) {
+                    synchronized (slot) {
+                        if (slot.pUsername == null) {
+                            consumer.accept(Date.valueOf(slot.time), slot.cUsername);
+                        }
+                    }
+                }
+            }
+        }
+
+        @Override
+        public void forEachSlot(Date from, Date to, int afterAptId, Consumer<Appointment> consumer) {
+            LocalDate first = from.toLocalDate();
+            LocalDate last = to.toLocalDate();
+            // aptIds are handed out in order, so walking them is aptId order
+            int endAptId = nextAptId.get();
+            for (int aptId = Math.max(-1, afterAptId) + 1; aptId < endAptId; aptId++) {
+                Slot slot = slots.get(aptId);
+                if (slot != null && !slot.time.isBefore(first) && !slot.time.isAfter(last)) {
+                    consumer.accept(slot.toAppointment());
+                }
+            }
+        }
+
+        @Override
+        public Appointment.Reservation reserve(Date time, String patientUsername, String vaccineName) {
+            return reserve(time, patientUsername, vaccineName, "reserve");
+        }
+
+        // reason is what the dose taken is recorded as in the ledger
+        private Appointment.Reservation reserve(Date time, String patientUsername, String vaccineName, String reason) {
+            Stock stock = vaccines.get(vaccineName);
+            if (stock == null) {
+                return new Appointment.Reservation(Appointment.ReserveStatus.UNKNOWN_VACCINE, null);
+            }
+            ConcurrentSkipListMap<String, Slot> bucket = slotsByDate.get(time.toLocalDate());
+            if (bucket != null) {
+                for (Slot slot : bucket.values()) {
+                    synchronized (slot) {
+                        // skip slots that were booked or archived since the scan reached them
+                        if (slot.pUsername != null || bucket.get(slot.cUsername) != slot) {
+                            continue;
+                        }
+                        if (!stock.doses.tryTake()) {
+                            return new Appointment.Reservation(Appointment.ReserveStatus.NO_DOSES, null);
+                        }
+                        stock.record(-1, reason, slot.aptId);
+                        slot.pUsername = patientUsername;
+                        slot.vName = vaccineName;
+                        slotsByPatient.computeIfAbsent(patientUsername, p -> newSlotSet()).add(slot);
+                        return new Appointment.Reservation(Appointment.ReserveStatus.RESERVED, slot.toAppointment());
+                    }
+                }
+            }
+            return new Appointment.Reservation(Appointment.ReserveStatus.NO_CAREGIVER, null);
+        }
+
+        @Override
+        public Appointment cancel(int aptId, String username) {
+            Slot slot = slots.get(aptId);
+            if (slot == null) {
+                return null;
+            }
+            synchronized (slot) {
+                if (slot.pUsername == null || !(slot.pUsername.equals(username) || slot.cUsername.equals(username))
+                        || slots.get(aptId) != slot) {
+                    return null;
+                }
+                Appointment cancelled = slot.toAppointment();
+                NavigableSet<Slot> booked = slotsByPatient.get(slot.pUsername);
+                if (booked != null) {
+                    booked.remove(slot);
+                }
+                Stock stock = vaccines.get(slot.vName);
+                if (stock != null) {
+                    stock.doses.add(1);
+                    stock.record(1, "cancel", slot.aptId);
+                }
+                slot.pUsername = null;
+                slot.vName = null;
+                return cancelled;
+            }
+        }
+
+        @Override
+        public void forEachAppointment(String username, boolean isCaregiver, Date from, Date to,
+                                       Date afterTime, int afterAptId, int skip, int limit, boolean includeHistory,
+                                       Consumer<Appointment> consumer) {
+            NavigableSet<Slot> all = (isCaregiver ? slotsByCaregiver : slotsByPatient).get(username);
+            NavigableSet<Slot> history = includeHistory
+                    ? (isCaregiver ? historyByCaregiver : historyByPatient).get(username) : null;
+            if (all == null && history == null) {
+                return;
+            }
+            Slot after = new Slot(afterAptId, afterTime.toLocalDate(), null);
+            Slot start = new Slot(Integer.MIN_VALUE, from.toLocalDate(), null);
+            Slot lower = BY_TIME_AND_ID.compare(after, start) > 0 ? after : start;
+            Slot upper = new Slot(Integer.MAX_VALUE, to.toLocalDate(), null);
+            if (BY_TIME_AND_ID.compare(lower, upper) >= 0) {
+                return;
+            }
+            // archived slots are all older than the live ones, but merge anyway so the order
+            // does not depend on that
+            Iterator<Slot> live = all == null ? Collections.emptyIterator()
+                    : all.subSet(lower, false, upper, true).iterator();
+            Iterator<Slot> archived = history == null ? Collections.emptyIterator()
+                    : history.subSet(lower, false, upper, true).iterator();
+            Slot nextLive = live.hasNext() ? live.next() : null;
+            Slot nextArchived = archived.hasNext() ? archived.next() : null;
+            int seen = 0;
+            int emitted = 0;
+            while (nextLive != null || nextArchived != null) {
+                Slot slot;
+                if (nextArchived == null || (nextLive != null && BY_TIME_AND_ID.compare(nextLive, nextArchived) < 0)) {
+                    slot = nextLive;
+                    nextLive = live.hasNext() ? live.next() : null;
+                } else {
+                    slot = nextArchived;
+                    nextArchived = archived.hasNext() ? archived.next() : null;
+                }
+                if (seen++ < skip) {
+                    continue;
+                }
+                consumer.accept(slot.toAppointment());
+                if (limit != 0 && ++emitted == limit) {
+                    return;
+                }
+            }
+        }
+
+        @Override
+        public int archive(Date before, int max) {
+            int moved = 0;
+            for (Map.Entry<LocalDate, ConcurrentSkipListMap<String, Slot>> entry
+                    : slotsByDate.headMap(before.toLocalDate()).entrySet()) {
+                ConcurrentSkipListMap<String, Slot> bucket = entry.getValue();
+                for (Slot slot : bucket.values()) {
+                    if (moved == max) {
+                        return moved;
+                    }
+                    synchronized (slot) {
+                        if (!bucket.remove(slot.cUsername, slot)) {
+                            continue;
+                        }
+                        slots.remove(slot.aptId);
+                        slotsByCaregiver.get(slot.cUsername).remove(slot);
+                        historyByCaregiver.computeIfAbsent(slot.cUsername, c -> newSlotSet()).add(slot);
+                        if (slot.pUsername != null) {
+                            slotsByPatient.get(slot.pUsername).remove(slot);
+                            historyByPatient.computeIfAbsent(slot.pUsername, p -> newSlotSet()).add(slot);
+                        }
+                    }
+                    moved++;
+                }
+                if (bucket.isEmpty()) {
+                    slotsByDate.remove(entry.getKey(), bucket);
+                }
+            }
+            return moved;
+        }
+    }
+
+    private class Waitlists implements WaitlistRepository {
+        @Override
+        public boolean enqueue(Date time, String patientUsername, String vaccineName) {
+            WaitQueue queue = waitlist.computeIfAbsent(time.toLocalDate(), d -> new WaitQueue());
+            synchronized (queue) {
+                return queue.vaccineByPatient.putIfAbsent(patientUsername, vaccineName) == null;
+            }
+        }
+
+        @Override
+        public int position(Date time, String patientUsername) {
+            WaitQueue queue = waitlist.get(time.toLocalDate());
+            if (queue == null) {
+                return 0;
+            }
+            synchronized (queue) {
+                int position = 0;
+                for (String waiting : queue.vaccineByPatient.keySet()) {
+                    position++;
+                    if (waiting.equals(patientUsername)) {
+                        return position;
+                    }
+                }
+                return 0;
+            }
+        }
+
+        @Override
+        public List<Appointment> assign(Date from, Date to, int max) throws SQLException {
+            List<Appointment> assigned = new ArrayList<>();
+            for (Map.Entry<LocalDate, WaitQueue> entry :
+                    waitlist.subMap(from.toLocalDate(), true, to.toLocalDate(), true).entrySet()) {
+                Date time = Date.valueOf(entry.getKey());
+                WaitQueue queue = entry.getValue();
+                synchronized (queue) {
+                    Iterator<Map.Entry<String, String>> waiting = queue.vaccineByPatient.entrySet().iterator();
+                    while (waiting.hasNext() && assigned.size() < max) {
+                        Map.Entry<String, String> next = waiting.next();
+                        if (hasAppointment(next.getKey(), entry.getKey())) {
+                            // already booked on this date, e.g. through reserve
+                            waiting.remove();
+                            continue;
+                        }
+                        Appointment.Reservation reservation =
+                                availabilityRepository.reserve(time, next.getKey(), next.getValue(), "waitlist");
+                        if (reservation.getStatus() == Appointment.ReserveStatus.RESERVED) {
+                            waiting.remove();
+                            assigned.add(reservation.getAppointment());
+                        } else if (reservation.getStatus() == Appointment.ReserveStatus.NO_CAREGIVER) {
+                            // the date is full again, later patients cannot be served either
+                            break;
+                        }
+                        // out of doses for this patient's vaccine: keep their place and try the next one
+                    }
+                }
+            }
+            return assigned;
+        }
+
+        private boolean hasAppointment(String patientUsername, LocalDate time) {
+            NavigableSet<Slot> booked = slotsByPatient.get(patientUsername);
+            if (booked == null) {
+                return false;
+            }
+            for (Slot slot : booked) {
+                if (slot.time.equals(time)) {
+                    return true;
+                }
+            }
+            return false;
+        }
+    }
+}
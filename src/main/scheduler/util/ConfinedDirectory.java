@@ -0,0 +1,56 @@
+package scheduler.util;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.InvalidPathException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+
+/**
+ * A directory that file names given by clients are resolved in, so that a command can neither
+ * read nor write outside of it, e.g. with an absolute path, "../" or a symbolic link that leads
+ * out of it.
+ */
+public class ConfinedDirectory {
+
+    private final Path root;
+
+    public ConfinedDirectory(Path root) {
+        this.root = root.toAbsolutePath().normalize();
+    }
+
+    // The directory named by an environment variable, or defaultPath relative to the working directory
+    public static ConfinedDirectory fromEnv(String name, String defaultPath) {
+        return new ConfinedDirectory(Paths.get(Env.get(name, defaultPath)));
+    }
+
+    public Path getRoot() {
+        return root;
+    }
+
+    /**
+     * Resolves a relative file name in the directory. Throws IllegalArgumentException if the name
+     * is not a relative path to a file inside the directory.
+     */
+    public Path resolve(String name) throws IOException {
+        Path relative;
+        try {
+            relative = Paths.get(name);
+        } catch (InvalidPathException e) {
+            throw new IllegalArgumentException("Invalid file name: " + name);
+        }
+        Path resolved = root.resolve(relative).normalize();
+        if (relative.isAbsolute() || !resolved.startsWith(root) || resolved.equals(root)) {
+            throw new IllegalArgumentException("Not a file in " + root + ": " + name);
+        }
+        // the closest part of the path that exists must really be inside, after following links
+        Path existing = resolved;
+        while (existing != null && !Files.exists(existing)) {
+            existing = existing.getParent();
+        }
+        if (existing != null && Files.exists(root) && !existing.toRealPath().startsWith(root.toRealPath())) {
+            throw new IllegalArgumentException("Not a file in " + root + ": " + name);
+        }
+        return resolved;
+    }
+}
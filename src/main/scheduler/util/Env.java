@@ -0,0 +1,36 @@
+package scheduler.util;
+
+/**
+ * Settings read from environment variables. A variable that is unset, blank or not a valid value
+ * falls back to the default, so a typo in the environment never stops the scheduler from starting.
+ */
+public final class Env {
+
+    private Env() {
+    }
+
+    // The trimmed value of a variable, or defaultValue if it is unset or blank
+    public static String get(String name, String defaultValue) {
+        String value = System.getenv(name);
+        return value == null || value.trim().isEmpty() ? defaultValue : value.trim();
+    }
+
+    // An int of at least min, or defaultValue if the variable is unset, not a number or below min
+    public static int intValue(String name, int defaultValue, int min) {
+        String value = get(name, null);
+        if (value == null) {
+            return defaultValue;
+        }
+        try {
+            int parsed = Integer.parseInt(value);
+            return parsed >= min ? parsed : defaultValue;
+        } catch (NumberFormatException e) {
+            return defaultValue;
+        }
+    }
+
+    // A positive int, or defaultValue, see intValue
+    public static int positiveInt(String name, int defaultValue) {
+        return intValue(name, defaultValue, 1);
+    }
+}
@@ -0,0 +1,53 @@
+package scheduler.util;
+
+import java.util.Arrays;
+
+/**
+ * Finds the number of iterations that makes one password hash take a target time on this machine.
+ *
+ * Usage: java scheduler.util.HashCalibrator [target_millis] [algorithm] [key_length_bits]
+ * The result is meant to be set as HashIterations for the scheduler.
+ */
+public class HashCalibrator {
+
+    private static final int SAMPLES = 5;
+
+    public static void main(String[] args) {
+        long targetMillis = args.length > 0 ? Long.parseLong(args[0]) : 50;
+        String algorithm = args.length > 1 ? args[1] : HashParams.current().getAlgorithm();
+        int keyLength = args.length > 2 ? Integer.parseInt(args[2]) : HashParams.current().getKeyLength();
+
+        int iterations = calibrate(algorithm, keyLength, targetMillis);
+        HashParams params = new HashParams(algorithm, iterations, keyLength);
+        System.out.println("Calibrated for " + targetMillis + " ms per hash: " + params);
+        System.out.println("HashAlgorithm=" + algorithm);
+        System.out.println("HashIterations=" + iterations);
+        System.out.println("HashKeyLength=" + keyLength);
+    }
+
+    public static int calibrate(String algorithm, int keyLength, long targetMillis) {
+        byte[] salt = Util.generateSalt();
+        // warm up the JIT on a cheap cost first, then scale from a measurement
+        int iterations = 1_000;
+        for (int i = 0; i < 20; i++) {
+            Util.generateHash("calibration", salt, new HashParams(algorithm, iterations, keyLength));
+        }
+        for (int round = 0; round < 4; round++) {
+            double millis = measure(new HashParams(algorithm, iterations, keyLength), salt);
+            iterations = (int) Math.max(1, Math.min(Integer.MAX_VALUE, iterations * (targetMillis / Math.max(millis, 0.01))));
+        }
+        return iterations;
+    }
+
+    // median time of a hash in milliseconds
+    private static double measure(HashParams params, byte[] salt) {
+        double[] samples = new double[SAMPLES];
+        for (int i = 0; i < SAMPLES; i++) {
+            long start = System.nanoTime();
+            Util.generateHash("calibration", salt, params);
+            samples[i] = (System.nanoTime() - start) / 1e6;
+        }
+        Arrays.sort(samples);
+        return samples[SAMPLES / 2];
+    }
+}
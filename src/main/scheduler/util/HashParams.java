@@ -0,0 +1,94 @@
+package scheduler.util;
+
+import java.util.Objects;
+
+/**
+ * The algorithm and cost a password hash was generated with, stored alongside each user as
+ * "algorithm:iterations:keyLengthBits" so the cost can be raised without invalidating old hashes.
+ *
+ * The parameters for new hashes come from the HashAlgorithm, HashIterations and HashKeyLength
+ * environment variables; use HashCalibrator to pick the iterations for a target login latency.
+ */
+public class HashParams {
+
+    // what every hash was generated with before parameters were stored per user
+    public static final HashParams LEGACY = new HashParams("PBKDF2WithHmacSHA1", 10, 16);
+
+    private static final HashParams CURRENT = new HashParams(
+            Env.get("HashAlgorithm", "PBKDF2WithHmacSHA256"),
+            Env.positiveInt("HashIterations", 50000),
+            Env.positiveInt("HashKeyLength", 256));
+
+    private final String algorithm;
+    private final int iterations;
+    private final int keyLength;
+
+    public HashParams(String algorithm, int iterations, int keyLength) {
+        if (iterations <= 0 || keyLength <= 0) {
+            throw new IllegalArgumentException("Hash cost must be positive!");
+        }
+        this.algorithm = algorithm;
+        this.iterations = iterations;
+        this.keyLength = keyLength;
+    }
+
+    // The parameters new hashes should be generated with
+    public static HashParams current() {
+        return CURRENT;
+    }
+
+    // Parses a stored value, a missing value means the hash predates stored parameters
+    public static HashParams parse(String encoded) {
+        if (encoded == null) {
+            return LEGACY;
+        }
+        String[] parts = encoded.trim().split(":");
+        if (parts.length != 3) {
+            throw new IllegalArgumentException("Invalid hash parameters: " + encoded);
+        }
+        return new HashParams(parts[0], Integer.parseInt(parts[1]), Integer.parseInt(parts[2]));
+    }
+
+    public String encode() {
+        return algorithm + ":" + iterations + ":" + keyLength;
+    }
+
+    // Getters
+    public String getAlgorithm() {
+        return algorithm;
+    }
+
+    public int getIterations() {
+        return iterations;
+    }
+
+    public int getKeyLength() {
+        return keyLength;
+    }
+
+    public boolean isLegacy() {
+        return this.equals(LEGACY);
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) {
+            return true;
+        }
+        if (!(o instanceof HashParams)) {
+            return false;
+        }
+        HashParams that = (HashParams) o;
+        return iterations == that.iterations && keyLength == that.keyLength && algorithm.equals(that.algorithm);
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(algorithm, iterations, keyLength);
+    }
+
+    @Override
+    public String toString() {
+        return encode();
+    }
+}
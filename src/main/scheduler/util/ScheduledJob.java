@@ -0,0 +1,86 @@
+package scheduler.util;
+
+import scheduler.metrics.Counter;
+import scheduler.metrics.MetricsRegistry;
+
+import java.sql.SQLException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A background task run periodically on a daemon thread of its own, e.g. archiving or compaction.
+ *
+ * A failed run is printed once and counted as job.<name>.failures. While runs keep failing, e.g.
+ * because the database is down or a migration has not run yet, the delay before the next one
+ * doubles up to MAX_BACKOFF_MINUTES, or one interval if that is longer; the first run that
+ * succeeds again is printed and restores the interval.
+ */
+public class ScheduledJob {
+
+    private static final long MAX_BACKOFF_MINUTES = 10;
+
+    /**
+     * One run of the job.
+     */
+    public interface Task {
+        void run() throws SQLException;
+    }
+
+    private final String name;
+    private final String description;
+    private final long initialDelayMillis;
+    private final long intervalMillis;
+    private final Task task;
+    private final Counter failures;
+
+    private ScheduledExecutorService executor;
+    // failed runs in a row, only touched by the job's thread
+    private int consecutiveFailures;
+
+    /**
+     * @param name        the thread name, also used in metrics
+     * @param description what a run does, e.g. "Archiving past availabilities", for the log
+     */
+    public ScheduledJob(String name, String description, long initialDelaySeconds, long intervalSeconds, Task task) {
+        this.name = name;
+        this.description = description;
+        this.initialDelayMillis = TimeUnit.SECONDS.toMillis(initialDelaySeconds);
+        this.intervalMillis = TimeUnit.SECONDS.toMillis(intervalSeconds);
+        this.task = task;
+        this.failures = MetricsRegistry.getInstance().counter("job." + name + ".failures");
+    }
+
+    // Starts the periodic runs; later calls do nothing
+    public synchronized void start() {
+        if (executor != null) {
+            return;
+        }
+        executor = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, name);
+            t.setDaemon(true);
+            return t;
+        });
+        executor.schedule(this::runAndReschedule, initialDelayMillis, TimeUnit.MILLISECONDS);
+    }
+
+    private void runAndReschedule() {
+        long delay = intervalMillis;
+        try {
+            task.run();
+            if (consecutiveFailures > 0) {
+                System.out.println(description + " succeeded again after " + consecutiveFailures + " failed runs");
+                consecutiveFailures = 0;
+            }
+        } catch (SQLException | RuntimeException e) {
+            failures.increment();
+            consecutiveFailures++;
+            if (consecutiveFailures == 1) {
+                System.out.println(description + " failed, retrying with backoff: " + e);
+            }
+            long maxDelay = Math.max(intervalMillis, TimeUnit.MINUTES.toMillis(MAX_BACKOFF_MINUTES));
+            delay = Math.min(maxDelay, intervalMillis << Math.min(consecutiveFailures, 20));
+        }
+        executor.schedule(this::runAndReschedule, delay, TimeUnit.MILLISECONDS);
+    }
+}
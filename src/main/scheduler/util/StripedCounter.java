@@ -0,0 +1,103 @@
+package scheduler.util;
+
+import java.util.concurrent.atomic.AtomicIntegerArray;
+
+/**
+ * A non-negative count split over several stripes, so that threads adding to it and taking from
+ * it update different cache lines instead of all retrying compare-and-set on one value.
+ *
+ * Each thread starts at its own stripe and only moves on to the others when that one is empty.
+ * The count as a whole never goes below zero. Adding and taking are safe from any thread.
+ *
+ * This is the in-memory counterpart of a vaccine's VaccineStock stripes: InMemoryStore keeps the
+ * stock of each vaccine in one, next to its dose ledger.
+ */
+public class StripedCounter {
+
+    // ints per stripe, so that every stripe sits on its own 64-byte cache line
+    private static final int PADDING = 16;
+
+    private final AtomicIntegerArray cells;
+    private final int stripes;
+
+    public StripedCounter(int initial) {
+        int size = 1;
+        while (size < 2 * Runtime.getRuntime().availableProcessors() && size < 64) {
+            size <<= 1;
+        }
+        this.stripes = size;
+        this.cells = new AtomicIntegerArray(stripes * PADDING);
+        add(initial);
+    }
+
+    public void add(int delta) {
+        if (delta < 0) {
+            throw new IllegalArgumentException("Argument cannot be negative!");
+        }
+        cells.addAndGet(home() * PADDING, delta);
+    }
+
+    /**
+     * Takes one from the count, or returns false if it is zero.
+     */
+    public boolean tryTake() {
+        int home = home();
+        while (true) {
+            for (int i = 0; i < stripes; i++) {
+                if (takeFrom((home + i) & (stripes - 1), 1) == 1) {
+                    return true;
+                }
+            }
+            // every stripe was empty when it was looked at; if one has been refilled since, look again
+            if (sum() <= 0) {
+                return false;
+            }
+        }
+    }
+
+    /**
+     * Takes n from the count, or returns false and takes nothing if it is less than n. While the
+     * doses are gathered from the stripes, concurrent takers may find fewer than there are.
+     */
+    public boolean tryTake(int n) {
+        int home = home();
+        int taken = 0;
+        for (int i = 0; i < stripes && taken < n; i++) {
+            taken += takeFrom((home + i) & (stripes - 1), n - taken);
+        }
+        if (taken < n) {
+            if (taken > 0) {
+                cells.addAndGet(home * PADDING, taken);
+            }
+            return false;
+        }
+        return true;
+    }
+
+    public int sum() {
+        int sum = 0;
+        for (int i = 0; i < stripes; i++) {
+            sum += cells.get(i * PADDING);
+        }
+        return sum;
+    }
+
+    // takes up to max from one stripe and returns how much it took
+    private int takeFrom(int stripe, int max) {
+        int index = stripe * PADDING;
+        while (true) {
+            int current = cells.get(index);
+            if (current <= 0) {
+                return 0;
+            }
+            int take = Math.min(current, max);
+            if (cells.compareAndSet(index, current, current - take)) {
+                return take;
+            }
+        }
+    }
+
+    private int home() {
+        return (int) (Thread.currentThread().getId() * 0x9E3779B9L >>> 16) & (stripes - 1);
+    }
+}
@@ -1,43 +1,99 @@
 package scheduler.util;
 
+import scheduler.metrics.MetricsRegistry;
+import scheduler.metrics.Timer;
+
 import javax.crypto.SecretKeyFactory;
 import javax.crypto.spec.PBEKeySpec;
+import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
 import java.security.SecureRandom;
 import java.security.spec.InvalidKeySpecException;
 import java.security.spec.KeySpec;
 import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
 
 public class Util {
 
-    // constants for handling password
-    private static final int HASH_STRENGTH = 10;
-    private static final int KEY_LENGTH = 16;
+    // SecretKeyFactory is not thread safe and is costly to look up, so each thread keeps its own
+    // factory for every algorithm it has used
+    private static final ThreadLocal<Map<String, SecretKeyFactory>> KEY_FACTORIES = ThreadLocal.withInitial(HashMap::new);
+    private static final ThreadLocal<SecureRandom> RANDOM = ThreadLocal.withInitial(SecureRandom::new);
+
+    // hashing is CPU bound, so it runs on one thread per core; when the queue is full the caller hashes
+    private static final ExecutorService HASH_EXECUTOR = newHashExecutor();
+
+    private static final Timer HASH_TIMER = MetricsRegistry.getInstance().timer("password.hash");
+    private static final Timer HASH_QUEUE_TIMER = MetricsRegistry.getInstance().timer("password.hash.queued");
 
     public static byte[] generateSalt() {
         // Generate a random cryptographic salt
-        SecureRandom random = new SecureRandom();
         byte[] salt = new byte[16];
-        random.nextBytes(salt);
+        RANDOM.get().nextBytes(salt);
         return salt;
     }
 
+    // Hashes with the current parameters, see HashParams.current()
     public static byte[] generateHash(String password, byte[] salt) {
+        return generateHash(password, salt, HashParams.current());
+    }
+
+    public static byte[] generateHash(String password, byte[] salt, HashParams params) {
         // Specify the hash parameters
-        KeySpec spec = new PBEKeySpec(password.toCharArray(), salt, HASH_STRENGTH, KEY_LENGTH);
+        KeySpec spec = new PBEKeySpec(password.toCharArray(), salt, params.getIterations(), params.getKeyLength());
 
         // Generate the hash
-        SecretKeyFactory factory = null;
         byte[] hash = null;
+        long start = System.nanoTime();
         try {
-            factory = SecretKeyFactory.getInstance("PBKDF2WithHmacSHA1");
-            hash = factory.generateSecret(spec).getEncoded();
+            hash = keyFactory(params.getAlgorithm()).generateSecret(spec).getEncoded();
         } catch (NoSuchAlgorithmException | InvalidKeySpecException ex) {
+            HASH_TIMER.recordError(System.nanoTime() - start);
             throw new IllegalStateException();
         }
+        HASH_TIMER.record(System.nanoTime() - start);
         return hash;
     }
 
+    // Hashes with the current parameters on the bounded hashing executor
+    public static CompletableFuture<byte[]> generateHashAsync(String password, byte[] salt) {
+        return generateHashAsync(password, salt, HashParams.current());
+    }
+
+    public static CompletableFuture<byte[]> generateHashAsync(String password, byte[] salt, HashParams params) {
+        long submitted = System.nanoTime();
+        return CompletableFuture.supplyAsync(() -> {
+            // time spent waiting for a hashing thread
+            HASH_QUEUE_TIMER.record(System.nanoTime() - submitted);
+            return generateHash(password, salt, params);
+        }, HASH_EXECUTOR);
+    }
+
+    // Checks a password against a stored hash on the hashing executor, waiting for the result
+    public static boolean verifyPassword(String password, byte[] salt, byte[] hash, HashParams params) {
+        try {
+            byte[] calculatedHash = generateHashAsync(password, salt, params).join();
+            if (params.isLegacy()) {
+                // legacy hashes were stored zero padded in BINARY(16) columns
+                return MessageDigest.isEqual(trim(hash), trim(calculatedHash));
+            }
+            // compares in constant time, so the time taken does not tell how much of the hash matched
+            return MessageDigest.isEqual(hash, calculatedHash);
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            throw e;
+        }
+    }
+
     public static byte[] trim(byte[] bytes)
     {
         int i = bytes.length - 1;
@@ -48,4 +104,26 @@ public class Util {
 
         return Arrays.copyOf(bytes, i + 1);
     }
+
+    private static SecretKeyFactory keyFactory(String algorithm) throws NoSuchAlgorithmException {
+        Map<String, SecretKeyFactory> factories = KEY_FACTORIES.get();
+        SecretKeyFactory factory = factories.get(algorithm);
+        if (factory == null) {
+            factory = SecretKeyFactory.getInstance(algorithm);
+            factories.put(algorithm, factory);
+        }
+        return factory;
+    }
+
+    private static ExecutorService newHashExecutor() {
+        int threads = Runtime.getRuntime().availableProcessors();
+        ThreadPoolExecutor executor = new ThreadPoolExecutor(threads, threads, 60, TimeUnit.SECONDS,
+                new ArrayBlockingQueue<>(threads * 64), r -> {
+                    Thread t = new Thread(r, "password-hasher");
+                    t.setDaemon(true);
+                    return t;
+                }, new ThreadPoolExecutor.CallerRunsPolicy());
+        executor.allowCoreThreadTimeOut(true);
+        return executor;
+    }
 }
@@ -0,0 +1,39 @@
+package scheduler.db;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+
+class ReadFreshnessTest {
+
+    @Test
+    void bindRestoresWhatWasBoundBefore() {
+        ReadFreshness session = ReadFreshness.newSession();
+        assertNull(ReadFreshness.current());
+        try (ReadFreshness.Scope outer = session.bind()) {
+            assertSame(session, ReadFreshness.current());
+            try (ReadFreshness.Scope inner = ReadFreshness.PRIMARY.bind()) {
+                assertSame(ReadFreshness.PRIMARY, ReadFreshness.current());
+            }
+            assertSame(session, ReadFreshness.current());
+        }
+        assertNull(ReadFreshness.current());
+    }
+
+    @Test
+    void lastWriteOnlyMovesForward() {
+        ReadFreshness session = ReadFreshness.newSession();
+        assertEquals(Long.MIN_VALUE, session.getLastWriteMillis());
+        session.recordWrite(200);
+        session.recordWrite(100);
+        assertEquals(200, session.getLastWriteMillis());
+    }
+
+    @Test
+    void primaryNeedsEveryWrite() {
+        ReadFreshness.PRIMARY.recordWrite(100);
+        assertEquals(Long.MAX_VALUE, ReadFreshness.PRIMARY.getLastWriteMillis());
+    }
+}
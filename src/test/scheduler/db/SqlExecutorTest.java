@@ -0,0 +1,89 @@
+package scheduler.db;
+
+import org.junit.jupiter.api.Test;
+
+import java.sql.SQLException;
+import java.sql.SQLTransientConnectionException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class SqlExecutorTest {
+
+    @Test
+    void classifiesByErrorNumber() {
+        assertEquals(SqlExecutor.Failure.DEADLOCK, SqlExecutor.classify(error(1205)));
+        assertEquals(SqlExecutor.Failure.DEADLOCK, SqlExecutor.classify(error(3960)));
+        assertEquals(SqlExecutor.Failure.THROTTLED, SqlExecutor.classify(error(40501)));
+        assertEquals(SqlExecutor.Failure.CONNECTION, SqlExecutor.classify(error(10054)));
+        assertEquals(SqlExecutor.Failure.PERMANENT, SqlExecutor.classify(error(2627)));
+        assertEquals(SqlExecutor.Failure.PERMANENT, SqlExecutor.classify(new SQLException("bad syntax", "42000", 102)));
+    }
+
+    @Test
+    void classifiesConnectionFailuresByStateAndType() {
+        assertEquals(SqlExecutor.Failure.CONNECTION, SqlExecutor.classify(new SQLException("closed", "08S01", 0)));
+        assertEquals(SqlExecutor.Failure.CONNECTION, SqlExecutor.classify(new SQLTransientConnectionException("reset")));
+    }
+
+    @Test
+    void classifiesChainedExceptions() {
+        SQLException next = new SQLException("statement", "40001", 0);
+        next.setNextException(error(1205));
+        assertEquals(SqlExecutor.Failure.DEADLOCK, SqlExecutor.classify(next));
+
+        SQLException wrapped = new SQLException("wrapped", error(40613));
+        assertEquals(SqlExecutor.Failure.CONNECTION, SqlExecutor.classify(wrapped));
+    }
+
+    @Test
+    void queryIsRetriedAfterADeadlock() throws SQLException {
+        AtomicInteger attempts = new AtomicInteger();
+        String result = SqlExecutor.query(() -> {
+            if (attempts.incrementAndGet() < 3) {
+                throw error(1205);
+            }
+            return "done";
+        });
+        assertEquals("done", result);
+        assertEquals(3, attempts.get());
+    }
+
+    @Test
+    void transactionIsNotRetriedAfterAConnectionLoss() {
+        AtomicInteger attempts = new AtomicInteger();
+        SQLException lost = error(10054);
+        SQLException thrown = assertThrows(SQLException.class, () -> SqlExecutor.transaction(() -> {
+            attempts.incrementAndGet();
+            throw lost;
+        }));
+        assertSame(lost, thrown);
+        assertEquals(1, attempts.get());
+    }
+
+    @Test
+    void permanentFailureIsNotRetried() {
+        AtomicInteger attempts = new AtomicInteger();
+        assertThrows(SQLException.class, () -> SqlExecutor.query(() -> {
+            attempts.incrementAndGet();
+            throw error(2627);
+        }));
+        assertEquals(1, attempts.get());
+    }
+
+    @Test
+    void givesUpAfterTheMaximumAttempts() {
+        AtomicInteger attempts = new AtomicInteger();
+        assertThrows(SQLException.class, () -> SqlExecutor.query(() -> {
+            attempts.incrementAndGet();
+            throw error(40501);
+        }));
+        assertEquals(4, attempts.get());
+    }
+
+    private static SQLException error(int code) {
+        return new SQLException("error " + code, "S0001", code);
+    }
+}
@@ -0,0 +1,66 @@
+package scheduler.metrics;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class LatencyHistogramTest {
+
+    private static final double NANOS_PER_MILLI = 1e6;
+
+    @Test
+    void emptyHistogramReportsZero() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        assertEquals(0, histogram.getCount());
+        assertEquals(0, histogram.getMeanMillis());
+        assertEquals(0, histogram.getPercentileMillis(0.99));
+    }
+
+    @Test
+    void smallValuesAreExact() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        for (long nanos = 0; nanos < 8; nanos++) {
+            histogram.record(nanos);
+        }
+        assertEquals(3 / NANOS_PER_MILLI, histogram.getPercentileMillis(0.5));
+        assertEquals(7 / NANOS_PER_MILLI, histogram.getPercentileMillis(1.0));
+    }
+
+    @Test
+    void percentilesAreWithinOneSubBucket() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        for (int i = 1; i <= 1000; i++) {
+            histogram.record(i * 1_000_000L);
+        }
+        assertWithinEighth(500, histogram.getPercentileMillis(0.50));
+        assertWithinEighth(900, histogram.getPercentileMillis(0.90));
+        assertWithinEighth(990, histogram.getPercentileMillis(0.99));
+        assertEquals(1000, histogram.getPercentileMillis(1.0));
+        assertEquals(500.5, histogram.getMeanMillis(), 1e-9);
+    }
+
+    @Test
+    void percentileNeverExceedsMax() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        // 9 ms falls in the 8-10 ms bucket, whose upper bound is above it
+        histogram.record(9_000_000L);
+        assertEquals(9, histogram.getPercentileMillis(0.99));
+        assertEquals(9, histogram.getMaxMillis());
+    }
+
+    @Test
+    void extremeValuesAreRecorded() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        histogram.record(-5);
+        histogram.record(Long.MAX_VALUE);
+        assertEquals(2, histogram.getCount());
+        assertEquals(0, histogram.getPercentileMillis(0.5));
+        assertEquals(Long.MAX_VALUE / NANOS_PER_MILLI, histogram.getPercentileMillis(1.0));
+    }
+
+    private static void assertWithinEighth(double expected, double actual) {
+        assertTrue(actual >= expected && actual <= expected * 1.125,
+                "expected " + expected + " ms to within 12.5% but was " + actual);
+    }
+}
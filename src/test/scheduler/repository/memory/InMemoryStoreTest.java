@@ -0,0 +1,162 @@
+package scheduler.repository.memory;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import scheduler.model.Appointment;
+import scheduler.model.Vaccine;
+import scheduler.repository.AvailabilityRepository;
+import scheduler.repository.VaccineRepository;
+import scheduler.repository.WaitlistRepository;
+
+import java.sql.Date;
+import java.sql.SQLException;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class InMemoryStoreTest {
+
+    private static final Date DAY = Date.valueOf("2030-01-01");
+
+    private VaccineRepository vaccines;
+    private AvailabilityRepository availabilities;
+    private WaitlistRepository waitlist;
+
+    @BeforeEach
+    void setUp() throws SQLException {
+        InMemoryStore store = new InMemoryStore();
+        vaccines = store.vaccines();
+        availabilities = store.availabilities();
+        waitlist = store.waitlist();
+        vaccines.save(new Vaccine.VaccineBuilder("pfizer", 2).build());
+        availabilities.addAll("c1", Arrays.asList(DAY));
+        availabilities.addAll("c2", Arrays.asList(DAY));
+    }
+
+    @Test
+    void reserveBooksTheFirstCaregiverAndTakesADose() throws SQLException {
+        Appointment.Reservation reservation = availabilities.reserve(DAY, "p1", "pfizer");
+        assertEquals(Appointment.ReserveStatus.RESERVED, reservation.getStatus());
+        assertEquals("c1", reservation.getAppointment().getCaregiverUsername());
+        assertEquals("p1", reservation.getAppointment().getPatientUsername());
+        assertEquals(1, vaccines.findDoses("pfizer"));
+        assertEquals(Arrays.asList("c2"), availabilities.findFreeCaregivers(DAY));
+    }
+
+    @Test
+    void reserveReportsWhatIsMissing() throws SQLException {
+        assertEquals(Appointment.ReserveStatus.UNKNOWN_VACCINE,
+                availabilities.reserve(DAY, "p1", "moderna").getStatus());
+        assertEquals(Appointment.ReserveStatus.NO_CAREGIVER,
+                availabilities.reserve(Date.valueOf("2030-01-02"), "p1", "pfizer").getStatus());
+
+        vaccines.removeDoses("pfizer", 2);
+        assertEquals(Appointment.ReserveStatus.NO_DOSES, availabilities.reserve(DAY, "p1", "pfizer").getStatus());
+        assertEquals(2, availabilities.findFreeCaregivers(DAY).size());
+    }
+
+    @Test
+    void cancelFreesTheSlotAndReturnsTheDose() throws SQLException {
+        Appointment booked = availabilities.reserve(DAY, "p1", "pfizer").getAppointment();
+
+        assertNull(availabilities.cancel(booked.getAptId(), "p2"));
+        Appointment cancelled = availabilities.cancel(booked.getAptId(), "p1");
+        assertNotNull(cancelled);
+        assertEquals("p1", cancelled.getPatientUsername());
+        assertEquals(2, vaccines.findDoses("pfizer"));
+        assertEquals(Arrays.asList("c1", "c2"), availabilities.findFreeCaregivers(DAY));
+
+        // a second cancel finds nothing to cancel and returns no dose
+        assertNull(availabilities.cancel(booked.getAptId(), "p1"));
+        assertEquals(2, vaccines.findDoses("pfizer"));
+    }
+
+    @Test
+    void caregiverCanCancelTheirAppointment() throws SQLException {
+        Appointment booked = availabilities.reserve(DAY, "p1", "pfizer").getAppointment();
+        assertNotNull(availabilities.cancel(booked.getAptId(), booked.getCaregiverUsername()));
+    }
+
+    @Test
+    void waitlistIsServedFirstComeFirstServed() throws SQLException {
+        availabilities.reserve(DAY, "p1", "pfizer");
+        availabilities.reserve(DAY, "p2", "pfizer");
+        vaccines.addDoses("pfizer", 5);
+
+        assertTrue(waitlist.enqueue(DAY, "p3", "pfizer"));
+        assertTrue(waitlist.enqueue(DAY, "p4", "pfizer"));
+        assertFalse(waitlist.enqueue(DAY, "p3", "pfizer"));
+        assertEquals(1, waitlist.position(DAY, "p3"));
+        assertEquals(2, waitlist.position(DAY, "p4"));
+
+        // the date is full, so nobody can be served yet
+        assertTrue(waitlist.assign(DAY, DAY, 10).isEmpty());
+
+        availabilities.addAll("c3", Arrays.asList(DAY));
+        List<Appointment> assigned = waitlist.assign(DAY, DAY, 10);
+        assertEquals(1, assigned.size());
+        assertEquals("p3", assigned.get(0).getPatientUsername());
+        assertEquals("c3", assigned.get(0).getCaregiverUsername());
+        assertEquals(0, waitlist.position(DAY, "p3"));
+        assertEquals(1, waitlist.position(DAY, "p4"));
+        assertEquals(4, vaccines.findDoses("pfizer"));
+    }
+
+    @Test
+    void waitlistKeepsPatientsWhoseVaccineIsOutOfStock() throws SQLException {
+        vaccines.save(new Vaccine.VaccineBuilder("moderna", 0).build());
+        waitlist.enqueue(DAY, "p1", "moderna");
+        waitlist.enqueue(DAY, "p2", "pfizer");
+
+        List<Appointment> assigned = waitlist.assign(DAY, DAY, 10);
+        assertEquals(1, assigned.size());
+        assertEquals("p2", assigned.get(0).getPatientUsername());
+        assertEquals(1, waitlist.position(DAY, "p1"));
+    }
+
+    @Test
+    void ledgerRecordsEveryChangeToTheStock() throws SQLException {
+        Appointment booked = availabilities.reserve(DAY, "p1", "pfizer").getAppointment();
+        vaccines.addDoses("pfizer", 3);
+        assertTrue(vaccines.removeDoses("pfizer", 2));
+        assertFalse(vaccines.removeDoses("pfizer", 10));
+        availabilities.cancel(booked.getAptId(), "p1");
+
+        assertEquals(3, vaccines.findDoses("pfizer"));
+        assertEquals(3, vaccines.findLedgerDoses("pfizer"));
+        assertNull(vaccines.findLedgerDoses("moderna"));
+    }
+
+    @Test
+    void compactOnlyCompactsVaccinesWhoseLedgerGrew() throws SQLException {
+        vaccines.save(new Vaccine.VaccineBuilder("moderna", 1).build());
+        assertEquals(2, vaccines.compact());
+        assertEquals(0, vaccines.compact());
+
+        availabilities.reserve(DAY, "p1", "pfizer");
+        assertEquals(1, vaccines.compact());
+        assertEquals(0, vaccines.compact());
+    }
+
+    @Test
+    void waitlistNeverBooksAPatientTwiceOnADate() throws SQLException {
+        Appointment booked = availabilities.reserve(DAY, "p1", "pfizer").getAppointment();
+        waitlist.enqueue(DAY, "p1", "pfizer");
+        waitlist.enqueue(DAY, "p2", "pfizer");
+        vaccines.addDoses("pfizer", 5);
+
+        List<Appointment> assigned = waitlist.assign(DAY, DAY, 10);
+        assertEquals(1, assigned.size());
+        assertEquals("p2", assigned.get(0).getPatientUsername());
+        assertEquals(0, waitlist.position(DAY, "p1"));
+
+        // cancelling does not rebook the patient from a stale queue entry
+        availabilities.cancel(booked.getAptId(), "p1");
+        assertTrue(waitlist.assign(DAY, DAY, 10).isEmpty());
+    }
+}
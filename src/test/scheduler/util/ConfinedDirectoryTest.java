@@ -0,0 +1,46 @@
+package scheduler.util;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class ConfinedDirectoryTest {
+
+    @TempDir
+    Path temp;
+
+    @Test
+    void resolvesFilesInside() throws IOException {
+        Path root = Files.createDirectory(temp.resolve("data"));
+        ConfinedDirectory directory = new ConfinedDirectory(root);
+        assertEquals(root.resolve("patients.csv"), directory.resolve("patients.csv"));
+        assertEquals(root.resolve("2030/january.csv"), directory.resolve("2030/./january.csv"));
+        assertEquals(root.resolve("b.csv"), directory.resolve("a/../b.csv"));
+    }
+
+    @Test
+    void rejectsPathsThatLeave() throws IOException {
+        Path root = Files.createDirectory(temp.resolve("data"));
+        ConfinedDirectory directory = new ConfinedDirectory(root);
+        assertThrows(IllegalArgumentException.class, () -> directory.resolve("../outside.csv"));
+        assertThrows(IllegalArgumentException.class, () -> directory.resolve("a/../../outside.csv"));
+        assertThrows(IllegalArgumentException.class, () -> directory.resolve(temp.resolve("outside.csv").toString()));
+        assertThrows(IllegalArgumentException.class, () -> directory.resolve("."));
+        assertThrows(IllegalArgumentException.class, () -> directory.resolve("\0"));
+    }
+
+    @Test
+    void rejectsLinksThatLeave() throws IOException {
+        Path root = Files.createDirectory(temp.resolve("data"));
+        Path outside = Files.createDirectory(temp.resolve("outside"));
+        Files.createSymbolicLink(root.resolve("link"), outside);
+        ConfinedDirectory directory = new ConfinedDirectory(root);
+        assertThrows(IllegalArgumentException.class, () -> directory.resolve("link/passwords.csv"));
+    }
+}